@@ -43,10 +43,10 @@ final class ClientMain {
 
     final RemoteAddress address = RemoteAddress.parse(args[0]);
 
-    final ConnectionSource source = new ClientConnectionSource(address.host, address.port);
+    final ConnectionSource source = ClientConnectionSource.multiplexed(address.host, address.port);
 
     LOG.info("Creating client...");
-    final Chat chat = new Chat(new Context(source));
+    final Chat chat = new Chat(new Context(source, new ClientConnectionSource(address.host, address.port)));
 
     LOG.info("Created client");
 
@@ -15,6 +15,7 @@
 package codeu.chat;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 
@@ -24,10 +25,21 @@ import codeu.chat.relay.ServerFrontEnd;
 import codeu.chat.util.Logger;
 import codeu.chat.util.Timeline;
 import codeu.chat.util.Uuid;
+import codeu.chat.util.WorkerPool;
 import codeu.chat.util.connections.Connection;
 import codeu.chat.util.connections.ConnectionSource;
 import codeu.chat.util.connections.ServerConnectionSource;
 
+// RELAY MAIN
+//
+// Arguments:
+//
+//   <port> <team file> [<log directory> [<max MB per team> [<max age in hours>]]]
+//
+// Without a log directory the relay keeps each team's history in memory and
+// loses it when it stops. With one, each team's history is kept on disk and
+// trimmed once it is over the size limit (default 256 MB) or older than the
+// age limit (default 168 hours, zero for no limit).
 final class RelayMain {
 
   private static final Logger.Log LOG = Logger.newLog(RelayMain.class);
@@ -48,9 +60,15 @@ final class RelayMain {
 
     try (final ConnectionSource source = ServerConnectionSource.forPort(myPort)) {
 
-      // Limit the number of messages that the server tracks to be 1024 and limit the
-      // max number of messages that the relay will send out to be 16.
-      final Server relay = new Server(1024, 16);
+      // Limit the number of messages that the server tracks for each team to be 1024
+      // (unless the team file says otherwise) and limit the max number of messages
+      // that the relay will send out to be 16.
+      final Server relay = args.length > 2 ?
+          new Server(new File(args[2]),
+                     (args.length > 3 ? Long.parseLong(args[3]) : 256) * 1024 * 1024,
+                     (args.length > 4 ? Long.parseLong(args[4]) : 168) * 60 * 60 * 1000,
+                     16) :
+          new Server(1024, 16);
 
       LOG.info("Relay object created.");
 
@@ -73,6 +91,12 @@ final class RelayMain {
     final Timeline timeline = new Timeline();
     LOG.info("Relay timeline created.");
 
+    // Connections are handled on their own pool rather than the timeline as a
+    // reader waiting for new bundles holds its connection (and thread) until
+    // something is written. Keep the pool larger than the number of teams.
+    final WorkerPool workers = new WorkerPool(64, 256);
+    LOG.info("Relay workers created.");
+
     timeline.scheduleNow(new Runnable() {
       @Override
       public void run() {
@@ -95,7 +119,7 @@ final class RelayMain {
         final Connection connection = source.connect();
         LOG.info("Connection established.");
 
-        timeline.scheduleNow(new Runnable() {
+        workers.execute(new Runnable() {
           @Override
           public void run() {
             try {
@@ -112,6 +136,15 @@ final class RelayMain {
     }
   }
 
+  // LOAD TEAM INFO
+  //
+  // Each line of the team file is "id:secret" with an optional third field
+  // giving how many bundles the relay should keep for that team, e.g.
+  //
+  //   100.101:ABABAB
+  //   100.102:CDCDCD:4096
+  //
+  // Teams without a third field get the relay's default history size.
   private static void loadTeamInfo(Server relay, String file) {
 
     try (final BufferedReader reader = new BufferedReader(new FileReader(file))) {
@@ -140,7 +173,11 @@ final class RelayMain {
             final Uuid id = Uuid.parse(tokens[0].trim());
             final Secret secret = Secret.parse(tokens[1].trim());
 
-            relay.addTeam(id, secret);
+            if (tokens.length > 2) {
+              relay.addTeam(id, secret, Integer.parseInt(tokens[2].trim()));
+            } else {
+              relay.addTeam(id, secret);
+            }
           } catch (Exception ex) {
             LOG.error(ex, "Skipping line \"%s\". Could not parse", line);
           }
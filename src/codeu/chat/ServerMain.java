@@ -20,6 +20,7 @@ import java.io.File;
 
 import codeu.chat.common.Relay;
 import codeu.chat.common.Secret;
+import codeu.chat.server.BatchingRelay;
 import codeu.chat.server.NoOpRelay;
 import codeu.chat.server.RemoteRelay;
 import codeu.chat.server.Server;
@@ -72,12 +73,12 @@ final class ServerMain {
     }
 
     try (
-        final ConnectionSource serverSource = ServerConnectionSource.forPort(port);
+        final ConnectionSource serverSource = ServerConnectionSource.nonBlocking(port);
         final ConnectionSource relaySource = relayAddress == null ? null : new ClientConnectionSource(relayAddress.host, relayAddress.port)
     ) {
 
       LOG.info("Starting server...");
-      runServer(id, secret, serverSource, relaySource);
+      runServer(id, secret, persistentPath, serverSource, relaySource);
 
     } catch (IOException ex) {
 
@@ -88,14 +89,22 @@ final class ServerMain {
 
   private static void runServer(Uuid id,
                                 Secret secret,
+                                File persistentPath,
                                 ConnectionSource serverSource,
                                 ConnectionSource relaySource) {
 
     final Relay relay = relaySource == null ?
                         new NoOpRelay() :
-                        new RemoteRelay(relaySource);
+                        new BatchingRelay(new RemoteRelay(relaySource));
 
-    final Server server = new Server(id, secret, relay);
+    final Server server;
+
+    try {
+      server = new Server(id, secret, relay, persistentPath);
+    } catch (IOException ex) {
+      LOG.error(ex, "Failed to load saved data from %s", persistentPath);
+      return;
+    }
 
     LOG.info("Created server.");
 
@@ -26,9 +26,12 @@ import java.io.IOException;
 import codeu.chat.common.ConversationHeader;
 import codeu.chat.common.Message;
 import codeu.chat.common.ServerInfo;
+import codeu.chat.common.Stat;
+import codeu.chat.client.core.CacheStat;
 import codeu.chat.client.core.Context;
 import codeu.chat.client.core.ConversationContext;
 import codeu.chat.client.core.MessageContext;
+import codeu.chat.client.core.Subscription;
 import codeu.chat.client.core.UserContext;
 import codeu.chat.common.User;
 import codeu.chat.common.ServerInfo;
@@ -39,6 +42,9 @@ import codeu.chat.util.Uuid;
 
 public final class Chat {
 
+  // The most messages "m-search" will print.
+  private static final int SEARCH_RESULTS = 10;
+
   // PANELS
   //
   // We are going to use a stack of panels to track where in the application
@@ -128,6 +134,8 @@ public final class Chat {
         System.out.println("    Sign in as the user with the given name.");
         System.out.println("  info");
         System.out.println("    Display all the info about the current system");
+        System.out.println("  stats");
+        System.out.println("    Show request counts and latencies (in microseconds) on the server, and the client's cache hits.");
         System.out.println("  exit");
         System.out.println("    Exit the program.");
       }
@@ -170,6 +178,42 @@ public final class Chat {
       }
     });
 
+    // STATS
+    //
+    // Add a command to print the server's metrics when the user enters
+    // "stats" while on the root panel.
+    //
+    panel.register("stats", new Panel.Command() {
+      @Override
+      public void invoke(List<String> args) {
+        System.out.format("%-40s %8s %6s %10s %10s %8s %8s %8s %8s %8s\n",
+                          "NAME", "COUNT", "ERRORS", "IN", "OUT", "MEAN", "P50", "P90", "P99", "MAX");
+        for (final Stat stat : context.getStats()) {
+          System.out.format("%-40s %8d %6d %10d %10d %8d %8d %8d %8d %8d\n",
+                            stat.name,
+                            stat.count,
+                            stat.errors,
+                            stat.bytesIn,
+                            stat.bytesOut,
+                            stat.mean,
+                            stat.p50,
+                            stat.p90,
+                            stat.p99,
+                            stat.max);
+        }
+        System.out.println();
+        System.out.format("%-40s %8s %8s %9s %8s\n", "CLIENT CACHE", "HITS", "MISSES", "EVICTIONS", "SIZE");
+        for (final CacheStat stat : context.getCacheStats()) {
+          System.out.format("%-40s %8d %8d %9d %8d\n",
+                            stat.name,
+                            stat.hits,
+                            stat.misses,
+                            stat.evictions,
+                            stat.size);
+        }
+      }
+    });
+
     panel.register("info", new Panel.Command() {
       @Override
       public void invoke(List<String> args) {
@@ -297,7 +341,7 @@ public final class Chat {
           if (user == null) {
             System.out.format("ERROR: Failed to sign in as '%s'\n", name);
           } else {
-            panels.push(createUserPanel(user));
+            panels.push(createUserPanel(context, user));
           }
         } else {
           System.out.println("ERROR: Missing <username>");
@@ -351,7 +395,7 @@ public final class Chat {
     return panel;
   }
 
-  private Panel createUserPanel(final UserContext user) {
+  private Panel createUserPanel(final Context context, final UserContext user) {
 
     final Panel panel = new Panel();
 
@@ -384,6 +428,10 @@ public final class Chat {
         System.out.println("    Get a status update of the user you are following.");
         System.out.println("  c-status-update-conversation <convo name>");
         System.out.println("    Get a status update of the conversation you are following.");
+        System.out.println("  c-watch");
+        System.out.println("    Print new messages from the users and convos you are following as they are sent.");
+        System.out.println("  c-unwatch");
+        System.out.println("    Stop printing new messages.");
         System.out.println("  info");
         System.out.println("    Display all info for the current user");
         System.out.println("  back");
@@ -417,7 +465,7 @@ public final class Chat {
     //
     panel.register("c-add", new Panel.Command() {
       @Override
-      public void invoke(Scanner args) {
+      public void invoke(List<String> args) {
         final String name = args.get(0);
         args.remove(0);
         String defaultAccessLevel = args.get(0);
@@ -448,6 +496,58 @@ public final class Chat {
       }
     });
 
+    // C-WATCH (watch for new messages)
+    //
+    // Add a command that subscribes to the users and conversations the user
+    // is following and prints each new message as the server pushes it.
+    //
+    final Subscription[] watching = new Subscription[1];
+
+    panel.register("c-watch", new Panel.Command() {
+      @Override
+      public void invoke(List<String> args) {
+        if (watching[0] != null) {
+          System.out.println("Already watching. Use c-unwatch first to pick up changes to what you follow.");
+          return;
+        }
+        try {
+          watching[0] = context.subscribe(user, new Subscription.Listener() {
+            @Override
+            public void onMessage(Message message) {
+              System.out.format("NEW MESSAGE (CONVERSATION:%s USER:%s) %s\n",
+                                message.convoId,
+                                message.author,
+                                message.content);
+            }
+
+            @Override
+            public void onClosed() {
+              System.out.println("Stopped watching: lost connection to the server.");
+            }
+          });
+          System.out.println("Watching for new messages.");
+        } catch (IOException ex) {
+          System.out.println("ERROR: Failed to subscribe to new messages.");
+        }
+      }
+    });
+
+    // C-UNWATCH (stop watching for new messages)
+    //
+    panel.register("c-unwatch", new Panel.Command() {
+      @Override
+      public void invoke(List<String> args) {
+        if (watching[0] != null) {
+          try {
+            watching[0].close();
+          } catch (IOException ex) {
+            // Already gone.
+          }
+          watching[0] = null;
+        }
+      }
+    });
+
     panel.register("c-list-interested-users", new Panel.Command() {
       @Override
       public void invoke(List<String> args) {
@@ -488,7 +588,7 @@ public final class Chat {
 
       public User findOtherUser(String name) {
         try {
-          Iterator<User> it = user.view.getUsers().iterator();
+          Iterator<User> it = user.view.iterateUsers();
           while (it.hasNext()) {
             User curr = it.next();
             if (curr.name.equalsIgnoreCase(name)) {
@@ -525,7 +625,7 @@ public final class Chat {
 
       public User findOtherUser(String name) {
         try {
-          Iterator<User> it = user.view.getUsers().iterator();
+          Iterator<User> it = user.view.iterateUsers();
           while (it.hasNext()) {
             User curr = it.next();
             if (curr.name.equalsIgnoreCase(name)) {
@@ -561,7 +661,7 @@ public final class Chat {
 
       public ConversationHeader findConversation(String convoName) {
         try {
-          Iterator<ConversationHeader> it = user.view.getConversations().iterator();
+          Iterator<ConversationHeader> it = user.view.iterateConversations();
           while (it.hasNext()) {
             ConversationHeader curr = it.next();
             if (curr.title.equalsIgnoreCase(convoName)) {
@@ -596,7 +696,7 @@ public final class Chat {
 
       public ConversationHeader findConversation(String convoName) {
         try {
-          Iterator<ConversationHeader> it = user.view.getConversations().iterator();
+          Iterator<ConversationHeader> it = user.view.iterateConversations();
           while (it.hasNext()) {
             ConversationHeader curr = it.next();
             if (curr.title.equalsIgnoreCase(convoName)) {
@@ -640,7 +740,7 @@ public final class Chat {
 
       public User findOtherUser(String name) {
         try {
-          Iterator<User> it = user.view.getUsers().iterator();
+          Iterator<User> it = user.view.iterateUsers();
           while (it.hasNext()) {
             User curr = it.next();
             if (curr.name.equalsIgnoreCase(name)) {
@@ -680,7 +780,7 @@ public final class Chat {
 
       public ConversationHeader findConversation(String convoName) {
         try {
-          Iterator<ConversationHeader> it = user.view.getConversations().iterator();
+          Iterator<ConversationHeader> it = user.view.iterateConversations();
           while (it.hasNext()) {
             ConversationHeader curr = it.next();
             if (curr.title.equalsIgnoreCase(convoName)) {
@@ -804,12 +904,14 @@ public final class Chat {
     //
     panel.register("help", new Panel.Command() {
       @Override
-      public void invoke(Scanner args) {
+      public void invoke(List<String> args) {
         System.out.println("USER MODE");
         System.out.println("  m-list");
         System.out.println("    List all messages in the current conversation.");
         System.out.println("  m-add <message>");
         System.out.println("    Add a new message to the current conversation as the current user.");
+        System.out.println("  m-search <words>");
+        System.out.println("    List the messages in the current conversation that best match the words.");
         System.out.println("  m-mute <username>");
         System.out.println("    Prohibit a user from sending messages in the chat. They will only be able to read messages");
         System.out.println("  m-change-access <username> <new access level>");
@@ -830,11 +932,9 @@ public final class Chat {
     //
     panel.register("m-list", new Panel.Command() {
       @Override
-      public void invoke(Scanner List<String> args) {
+      public void invoke(List<String> args) {
         System.out.println("--- start of conversation ---");
-        for (MessageContext message = conversation.firstMessage();
-             message != null;
-             message = message.next()) {
+        for (final MessageContext message : conversation.messages()) {
           System.out.println();
           System.out.format("USER : %s\n", message.message.author);
           System.out.format("SENT : %s\n", message.message.creation);
@@ -846,6 +946,34 @@ public final class Chat {
       }
     });
 
+    // M-SEARCH (search messages)
+    //
+    // Add a command to print the messages in the current conversation that
+    // best match some words when the user enters "m-search" while on the
+    // conversation panel.
+    //
+    panel.register("m-search", new Panel.Command() {
+      @Override
+      public void invoke(List<String> args) {
+        final StringBuilder query = new StringBuilder();
+        for (final String arg : args) {
+          query.append(arg).append(' ');
+        }
+        if (query.length() == 0) {
+          System.out.println("ERROR: Missing <words>");
+          return;
+        }
+        for (final MessageContext message : conversation.search(query.toString(), SEARCH_RESULTS)) {
+          System.out.println();
+          System.out.format("USER : %s\n", message.message.author);
+          System.out.format("SENT : %s\n", message.message.creation);
+          System.out.println();
+          System.out.println(message.message.content);
+        }
+        System.out.println();
+      }
+    });
+
     // M-ADD (add message)
     //
     // Add a command to add a new message to the current conversation when the
@@ -894,7 +1022,7 @@ public final class Chat {
 
       public User findOtherUser(String name) {
         try {
-          Iterator<User> it = conversation.view.getUsers().iterator();
+          Iterator<User> it = conversation.view.iterateUsers();
           while (it.hasNext()) {
             User curr = it.next();
             if (curr.name.equalsIgnoreCase(name)) {
@@ -931,7 +1059,7 @@ public final class Chat {
 
       public User findOtherUser(String name) {
         try {
-          Iterator<User> it = conversation.view.getUsers().iterator();
+          Iterator<User> it = conversation.view.iterateUsers();
           while (it.hasNext()) {
             User curr = it.next();
             if (curr.name.equalsIgnoreCase(name)) {
@@ -1008,9 +1136,7 @@ public final class Chat {
       @Override
       public void invoke(List<String> args) {
         System.out.println("--- start of conversation ---");
-        for (MessageContext message = conversation.firstMessage();
-             message != null;
-             message = message.next()) {
+        for (final MessageContext message : conversation.messages()) {
           System.out.println();
           System.out.format("USER : %s\n", message.message.author);
           System.out.format("SENT : %s\n", message.message.creation);
@@ -1067,7 +1193,7 @@ public final class Chat {
 
       public User findOtherUser(String name) {
         try {
-          Iterator<User> it = conversation.view.getUsers().iterator();
+          Iterator<User> it = conversation.view.iterateUsers();
           while (it.hasNext()) {
             User curr = it.next();
             if (curr.name.equalsIgnoreCase(name)) {
@@ -1090,7 +1216,7 @@ public final class Chat {
     //
     panel.register("info", new Panel.Command() {
       @Override
-      public void invoke(Scanner args) {
+      public void invoke(List<String> args) {
         System.out.println("Conversation Info:");
         System.out.format("  Title : %s\n", conversation.conversation.title);
         System.out.format("  Id    : UUID:%s\n", conversation.conversation.id);
@@ -1141,9 +1267,7 @@ public final class Chat {
       @Override
       public void invoke(List<String> args) {
         System.out.println("--- start of conversation ---");
-        for (MessageContext message = conversation.firstMessage();
-                            message != null;
-                            message = message.next()) {
+        for (final MessageContext message : conversation.messages()) {
           System.out.println();
           System.out.format("USER : %s\n", message.message.author);
           System.out.format("SENT : %s\n", message.message.creation);
@@ -1214,7 +1338,7 @@ public final class Chat {
     //
     panel.register("help", new Panel.Command() {
       @Override
-      public void invoke(Scanner args) {
+      public void invoke(List<String> args) {
         System.out.println("USER MODE");
         System.out.println("  m-list");
         System.out.println("    List all messages in the current conversation.");
@@ -1234,11 +1358,9 @@ public final class Chat {
     //
     panel.register("m-list", new Panel.Command() {
       @Override
-      public void invoke(Scanner args) {
+      public void invoke(List<String> args) {
         System.out.println("--- start of conversation ---");
-        for (MessageContext message = conversation.firstMessage();
-             message != null;
-             message = message.next()) {
+        for (final MessageContext message : conversation.messages()) {
           System.out.println();
           System.out.format("USER : %s\n", message.message.author);
           System.out.format("SENT : %s\n", message.message.creation);
@@ -1257,7 +1379,7 @@ public final class Chat {
     //
     panel.register("info", new Panel.Command() {
       @Override
-      public void invoke(Scanner args) {
+      public void invoke(List<String> args) {
         System.out.println("Conversation Info:");
         System.out.format("  Title : %s\n", conversation.conversation.title);
         System.out.format("  Id    : UUID:%s\n", conversation.conversation.id);
@@ -0,0 +1,78 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.client.core;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// CACHE
+//
+// A bounded map that forgets the least recently used entry when it is full.
+// It counts hits, misses and evictions so that its size can be tuned.
+final class Cache<KEY, VALUE> {
+
+  private final int capacity;
+
+  private long hits = 0;
+  private long misses = 0;
+  private long evictions = 0;
+
+  private final Map<KEY, VALUE> entries;
+
+  Cache(final int capacity) {
+    this.capacity = capacity;
+    this.entries = new LinkedHashMap<KEY, VALUE>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<KEY, VALUE> eldest) {
+        if (size() > Cache.this.capacity) {
+          evictions++;
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  public synchronized VALUE get(KEY key) {
+    final VALUE value = entries.get(key);
+    if (value == null) {
+      misses++;
+    } else {
+      hits++;
+    }
+    return value;
+  }
+
+  public synchronized void put(KEY key, VALUE value) {
+    entries.put(key, value);
+  }
+
+  // REPLACE
+  //
+  // Update an entry only if it is already cached.
+  public synchronized void replace(KEY key, VALUE value) {
+    if (entries.containsKey(key)) {
+      entries.put(key, value);
+    }
+  }
+
+  public synchronized void clear() {
+    entries.clear();
+  }
+
+  public synchronized CacheStat stat(String name) {
+    return new CacheStat(name, hits, misses, evictions, entries.size());
+  }
+}
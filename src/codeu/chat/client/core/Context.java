@@ -14,13 +14,15 @@
 
 package codeu.chat.client.core;
 
+import java.io.IOException;
 import java.util.Arrays;
-import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Iterator;
 
 import codeu.chat.common.BasicView;
 import codeu.chat.common.User;
 import codeu.chat.common.ServerInfo;
+import codeu.chat.common.Stat;
 import codeu.chat.client.core.View;
 import codeu.chat.util.Uuid;
 import codeu.chat.util.connections.ConnectionSource;
@@ -30,10 +32,19 @@ public final class Context {
 
   private final View view;
   private final Controller controller;
+  private final ConnectionSource subscriptions;
 
   public Context(ConnectionSource source) {
+    this(source, source);
+  }
+
+  // Subscriptions hold their connection open for as long as they are in use,
+  // so they need a source that gives each connection its own socket. The
+  // source for everything else may be multiplexed.
+  public Context(ConnectionSource source, ConnectionSource subscriptions) {
     this.view = new View(source);
     this.controller = new Controller(source);
+    this.subscriptions = subscriptions;
   }
 
   public UserContext create(String name) {
@@ -48,13 +59,55 @@ public final class Context {
     return view.getInfo();
   }
 
+  public Collection<Stat> getStats() {
+    return view.getStats();
+  }
+
+  public Collection<CacheStat> getCacheStats() {
+    return view.getCacheStats();
+  }
 
+
+  // ALL USERS
+  //
+  // Users are fetched a page at a time as they are iterated.
   public Iterable<UserContext> allUsers() {
-    final Collection<UserContext> users = new ArrayList<>();
-    for (final User user : view.getUsers()) {
-      users.add(new UserContext(user, view, controller));
-    }
-    return users;
+    return new Iterable<UserContext>() {
+      @Override
+      public Iterator<UserContext> iterator() {
+        final Iterator<User> users = view.iterateUsers();
+        return new Iterator<UserContext>() {
+          @Override
+          public boolean hasNext() {
+            return users.hasNext();
+          }
+          @Override
+          public UserContext next() {
+            return new UserContext(users.next(), view, controller);
+          }
+          @Override
+          public void remove() {
+            throw new UnsupportedOperationException();
+          }
+        };
+      }
+    };
+  }
+
+  // SUBSCRIBE
+  //
+  // Have the server push every new message in the given conversations or
+  // written by the given users to the listener.
+  public Subscription subscribe(Collection<Uuid> conversations,
+                                Collection<Uuid> users,
+                                Subscription.Listener listener) throws IOException {
+    return Subscription.open(subscriptions, conversations, users, listener);
   }
 
+  // SUBSCRIBE
+  //
+  // Subscribe to the conversations and users the user is interested in.
+  public Subscription subscribe(UserContext user, Subscription.Listener listener) throws IOException {
+    return subscribe(user.listInterestedConvos(), user.listInterestedUsers(), listener);
+  }
 }
@@ -17,7 +17,9 @@ package codeu.chat.client.core;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 import codeu.chat.common.BasicController;
 import codeu.chat.common.BasicView;
@@ -26,10 +28,13 @@ import codeu.chat.common.ConversationPayload;
 import codeu.chat.common.Message;
 import codeu.chat.common.User;
 import codeu.chat.util.AccessLevel;
+import codeu.chat.util.Time;
 import codeu.chat.util.Uuid;
 
 public final class ConversationContext {
 
+  private static final int PAGE_SIZE = BasicView.MAX_MESSAGE_PAGE;
+
   public final User user;
   public final ConversationHeader conversation;
 
@@ -94,6 +99,41 @@ public final class ConversationContext {
         getMessage(updated.lastMessage);
   }
 
+  // MESSAGES
+  //
+  // All the messages in the conversation in the order they were sent. The
+  // messages are fetched from the server a page at a time as the iterator
+  // reaches the end of the previous page.
+  public Iterable<MessageContext> messages() {
+    return messages(null, null);
+  }
+
+  // MESSAGES
+  //
+  // The messages sent within the given time range (inclusive). Either end may
+  // be null to leave that side open.
+  public Iterable<MessageContext> messages(final Time start, final Time end) {
+    return new Iterable<MessageContext>() {
+      @Override
+      public Iterator<MessageContext> iterator() {
+        return new PageIterator(start, end);
+      }
+    };
+  }
+
+  // SEARCH
+  //
+  // Up to "limit" messages in the conversation that best match the words in
+  // the query, best match first. The server ranks the messages, so this is
+  // one call no matter how large the conversation is.
+  public Iterable<MessageContext> search(String query, int limit) {
+    final Collection<MessageContext> found = new ArrayList<>();
+    for (final Message message : view.searchMessages(query, null, conversation.id, limit)) {
+      found.add(new MessageContext(message, view));
+    }
+    return found;
+  }
+
   private ConversationPayload getUpdated() {
     final Collection<Uuid> ids = Arrays.asList(conversation.id);
     final Iterator<ConversationPayload> payloads = view.getConversationPayloads(ids).iterator();
@@ -104,4 +144,44 @@ public final class ConversationContext {
     final Iterator<Message> messages = view.getMessages(Arrays.asList(id)).iterator();
     return messages.hasNext() ? new MessageContext(messages.next(), view) : null;
   }
+
+  private final class PageIterator implements Iterator<MessageContext> {
+
+    private final Time start;
+    private final Time end;
+
+    private Iterator<Message> page = Collections.<Message>emptyIterator();
+    private Uuid cursor = null;
+    private boolean last = false;
+
+    PageIterator(Time start, Time end) {
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (!page.hasNext() && !last) {
+        final Collection<Message> messages = view.getMessagePage(conversation.id, cursor, start, end, PAGE_SIZE);
+        last = messages.size() < PAGE_SIZE;
+        page = messages.iterator();
+      }
+      return page.hasNext();
+    }
+
+    @Override
+    public MessageContext next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      final Message message = page.next();
+      cursor = message.id;
+      return new MessageContext(message, view);
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
 }
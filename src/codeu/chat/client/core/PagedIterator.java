@@ -0,0 +1,77 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.client.core;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import codeu.chat.common.Page;
+import codeu.chat.util.Uuid;
+
+// PAGED ITERATOR
+//
+// Walk a list that the server sends a page at a time. The next page is only
+// fetched once the current one has been used up, and only one page is held at
+// a time.
+//
+// If a page can not be fetched the walk ends early and "failed" says so, so
+// that callers who need the whole list can tell it apart from a short one.
+abstract class PagedIterator<T> implements Iterator<T> {
+
+  private Iterator<T> page = Collections.<T>emptyIterator();
+  private Uuid token = null;
+  private boolean last = false;
+  private boolean failed = false;
+
+  // FETCH
+  //
+  // Get the page that follows the given continuation token (null for the
+  // first page), or null if it could not be fetched.
+  protected abstract Page<T> fetch(Uuid token);
+
+  @Override
+  public boolean hasNext() {
+    while (!page.hasNext() && !last) {
+      final Page<T> next = fetch(token);
+      if (next == null) {
+        failed = true;
+        last = true;
+      } else {
+        page = next.items.iterator();
+        token = next.next;
+        last = token == null;
+      }
+    }
+    return page.hasNext();
+  }
+
+  public boolean failed() {
+    return failed;
+  }
+
+  @Override
+  public T next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    return page.next();
+  }
+
+  @Override
+  public void remove() {
+    throw new UnsupportedOperationException();
+  }
+}
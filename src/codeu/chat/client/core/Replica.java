@@ -0,0 +1,221 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.client.core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import codeu.chat.common.BasicView;
+import codeu.chat.common.Changes;
+import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.Message;
+import codeu.chat.common.Page;
+import codeu.chat.common.User;
+import codeu.chat.util.Logger;
+import codeu.chat.util.Uuid;
+
+// REPLICA
+//
+// A local copy of the server's users and conversation summaries. Before each
+// read the replica asks the server for what changed since it last asked, so
+// listing users or conversations again costs one round trip and the changes,
+// not the whole list.
+//
+// The first read (and any read after the server says it can not tell what
+// changed) reloads both lists a page at a time. If any page can not be
+// fetched the reload is abandoned and the replica keeps what it had, without
+// moving on, so the next read asks for a reset again.
+//
+// Changed messages that come with the changes are used to update the client's
+// message cache, which is cleared whenever the lists are reloaded.
+final class Replica {
+
+  private final static Logger.Log LOG = Logger.newLog(Replica.class);
+
+  private final BasicView server;
+  private final Cache<Uuid, Message> messages;
+
+  private final Map<Uuid, User> users = new LinkedHashMap<>();
+  private final Map<Uuid, ConversationHeader> conversations = new LinkedHashMap<>();
+
+  // Zero for both asks the server for a reset.
+  private long epoch = 0;
+  private long seq = 0;
+
+  // When the last sync finished, from System.nanoTime.
+  private boolean synced = false;
+  private long syncedAt = 0;
+
+  private long userHits = 0;
+  private long userMisses = 0;
+  private long conversationHits = 0;
+  private long conversationMisses = 0;
+
+  Replica(BasicView server, Cache<Uuid, Message> messages) {
+    this.server = server;
+    this.messages = messages;
+  }
+
+  public synchronized Collection<User> users() {
+    sync();
+    return new ArrayList<>(users.values());
+  }
+
+  public synchronized Collection<ConversationHeader> conversations() {
+    sync();
+    return new ArrayList<>(conversations.values());
+  }
+
+  // USER
+  //
+  // Look up one user, syncing first if the last sync is older than "maxAgeMs".
+  // A user that is not known is looked for again after fetching the changes
+  // since the last sync, in case it was only just created. This is not a full
+  // reload, which only happens when the server asks for a reset.
+  public synchronized User user(Uuid id, long maxAgeMs) {
+    refresh(maxAgeMs);
+    User user = users.get(id);
+    if (user == null) {
+      userMisses++;
+      sync();
+      user = users.get(id);
+    } else {
+      userHits++;
+    }
+    return user;
+  }
+
+  // CONVERSATION
+  //
+  // Look up one conversation summary the same way as "user".
+  public synchronized ConversationHeader conversation(Uuid id, long maxAgeMs) {
+    refresh(maxAgeMs);
+    ConversationHeader conversation = conversations.get(id);
+    if (conversation == null) {
+      conversationMisses++;
+      sync();
+      conversation = conversations.get(id);
+    } else {
+      conversationHits++;
+    }
+    return conversation;
+  }
+
+  // REFRESH
+  //
+  // Sync only if the last sync is older than "maxAgeMs".
+  public synchronized void refresh(long maxAgeMs) {
+    if (!synced || System.nanoTime() - syncedAt > maxAgeMs * 1000000L) {
+      sync();
+    }
+  }
+
+  public synchronized CacheStat userStat() {
+    return new CacheStat("users", userHits, userMisses, 0, users.size());
+  }
+
+  public synchronized CacheStat conversationStat() {
+    return new CacheStat("conversations", conversationHits, conversationMisses, 0, conversations.size());
+  }
+
+  // SYNC
+  //
+  // Catch up with the server. If the server can not be reached the replica
+  // keeps what it has.
+  private void sync() {
+
+    Changes changes;
+
+    do {
+
+      changes = server.getChangesSince(epoch, seq, BasicView.MAX_CHANGES);
+
+      if (changes == null) {
+        return;
+      }
+
+      if (changes.reset && !reload()) {
+        return;
+      }
+
+      for (final User user : changes.users) {
+        users.put(user.id, user);
+      }
+      for (final ConversationHeader conversation : changes.conversations) {
+        conversations.put(conversation.id, conversation);
+      }
+      for (final Message message : changes.messages) {
+        messages.replace(message.id, message);
+      }
+
+      epoch = changes.epoch;
+      seq = changes.seq;
+
+    } while (changes.more || changes.reset);
+
+    synced = true;
+    syncedAt = System.nanoTime();
+  }
+
+  // RELOAD
+  //
+  // Anything that changes while reloading is after the "seq" the server sent
+  // with the reset, so the next call for changes will pick it up. The lists
+  // are only replaced if every page arrived. Returns false if one did not.
+  private boolean reload() {
+
+    LOG.info("Reloading users and conversations");
+
+    final Map<Uuid, User> loadedUsers = new LinkedHashMap<>();
+    final Map<Uuid, ConversationHeader> loadedConversations = new LinkedHashMap<>();
+
+    final PagedIterator<User> allUsers = new PagedIterator<User>() {
+      @Override
+      protected Page<User> fetch(Uuid token) {
+        return server.getUserPage(token, BasicView.MAX_LIST_PAGE);
+      }
+    };
+    while (allUsers.hasNext()) {
+      final User user = allUsers.next();
+      loadedUsers.put(user.id, user);
+    }
+
+    final PagedIterator<ConversationHeader> allConversations = new PagedIterator<ConversationHeader>() {
+      @Override
+      protected Page<ConversationHeader> fetch(Uuid token) {
+        return server.getConversationPage(token, BasicView.MAX_LIST_PAGE);
+      }
+    };
+    while (!allUsers.failed() && allConversations.hasNext()) {
+      final ConversationHeader conversation = allConversations.next();
+      loadedConversations.put(conversation.id, conversation);
+    }
+
+    if (allUsers.failed() || allConversations.failed()) {
+      LOG.warning("Reload failed, keeping the old users and conversations");
+      return false;
+    }
+
+    users.clear();
+    users.putAll(loadedUsers);
+    conversations.clear();
+    conversations.putAll(loadedConversations);
+    messages.clear();
+
+    return true;
+  }
+}
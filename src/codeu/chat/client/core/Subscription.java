@@ -0,0 +1,146 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.client.core;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collection;
+
+import codeu.chat.common.Message;
+import codeu.chat.common.NetworkCode;
+import codeu.chat.util.BufferOutputStream;
+import codeu.chat.util.Logger;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Uuid;
+import codeu.chat.util.connections.Connection;
+import codeu.chat.util.connections.ConnectionSource;
+
+// SUBSCRIPTION
+//
+// A long-lived connection over which the server pushes new messages from the
+// conversations and users the client is interested in. Messages are handed to
+// the listener on the subscription's own thread, in the order the server sent
+// them. Close the subscription to stop listening.
+public final class Subscription implements Closeable {
+
+  public interface Listener {
+
+    void onMessage(Message message);
+
+    // Called once if the connection to the server is lost. It is not called
+    // after "close".
+    void onClosed();
+  }
+
+  private final static Logger.Log LOG = Logger.newLog(Subscription.class);
+
+  private final Connection connection;
+  private volatile boolean closed = false;
+
+  private Subscription(Connection connection) {
+    this.connection = connection;
+  }
+
+  // OPEN
+  //
+  // Connect and subscribe. Returns once the server has accepted the
+  // subscription, so no message sent after this returns will be missed.
+  static Subscription open(ConnectionSource source,
+                           Collection<Uuid> conversations,
+                           Collection<Uuid> users,
+                           final Listener listener) throws IOException {
+
+    final Connection connection = source.connect();
+
+    try {
+
+      final BufferOutputStream request = new BufferOutputStream();
+      Serializers.INTEGER.write(request, NetworkCode.SUBSCRIBE_REQUEST);
+      Serializers.collection(Uuid.SERIALIZER).write(request, conversations);
+      Serializers.collection(Uuid.SERIALIZER).write(request, users);
+
+      final OutputStream out = connection.out();
+      request.writeTo(out);
+      out.flush();
+
+      if (Serializers.INTEGER.read(connection.in()) != NetworkCode.SUBSCRIBE_RESPONSE) {
+        throw new IOException("Server did not accept subscription");
+      }
+
+    } catch (IOException ex) {
+      connection.close();
+      throw ex;
+    }
+
+    final Subscription subscription = new Subscription(connection);
+
+    final Thread reader = new Thread() {
+      @Override
+      public void run() {
+        subscription.read(listener);
+      }
+    };
+
+    reader.setDaemon(true);
+    reader.start();
+
+    return subscription;
+  }
+
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    connection.close();
+  }
+
+  private void read(Listener listener) {
+
+    try {
+      // Events are read through a buffer. The type is read with the data
+      // stream so that the server closing the connection ends the loop.
+      final DataInputStream in = new DataInputStream(new BufferedInputStream(connection.in()));
+
+      while (true) {
+
+        final int type = in.readInt();
+
+        if (type == NetworkCode.NEW_MESSAGE_EVENT) {
+          listener.onMessage(Message.SERIALIZER.read(in));
+        } else if (type == NetworkCode.KEEP_ALIVE_EVENT) {
+          // Only sent so the server notices if we have gone.
+        } else {
+          throw new IOException(String.format("Unexpected event type %d", type));
+        }
+      }
+    } catch (IOException ex) {
+      if (!closed) {
+        LOG.warning("Subscription lost (%s)", ex.toString());
+      }
+    }
+
+    try {
+      connection.close();
+    } catch (IOException ex) {
+      LOG.error(ex, "Exception while closing subscription.");
+    }
+
+    if (!closed) {
+      listener.onClosed();
+    }
+  }
+}
@@ -76,7 +76,7 @@ public final class UserContext {
 
     Time previousUpdate = user.getLastUpdateUsers();
 
-    Iterator<ConversationHeader> it = view.getConversations().iterator();
+    Iterator<ConversationHeader> it = view.iterateConversations();
     while (it.hasNext()) {
       ConversationHeader curr = it.next();
       if (curr.owner.equals(otherUserId)) {
@@ -102,8 +102,14 @@ public final class UserContext {
   }
 
   public ConversationHeader findConversation(Uuid id) {
+
+    // The client's view can look conversations up by id without a scan.
+    if (view instanceof SinglesView) {
+      return ((SinglesView) view).findConversation(id);
+    }
+
     try {
-      Iterator<ConversationHeader> it = view.getConversations().iterator();
+      Iterator<ConversationHeader> it = view.iterateConversations();
       while (it.hasNext()) {
         ConversationHeader curr = it.next();
         if (curr.id.equals(id)) {
@@ -129,14 +135,28 @@ public final class UserContext {
 
   public Iterable<ConversationContext> conversations() {
 
-    // Use all the ids to get all the conversations and convert them to
-    // Conversation Contexts.
-    final Collection<ConversationContext> all = new ArrayList<>();
-    for (final ConversationHeader conversation : view.getConversations()) {
-      all.add(new ConversationContext(user, conversation, view, controller));
-    }
-
-    return all;
+    // Fetch the conversations a page at a time as they are iterated and
+    // convert them to Conversation Contexts.
+    return new Iterable<ConversationContext>() {
+      @Override
+      public Iterator<ConversationContext> iterator() {
+        final Iterator<ConversationHeader> conversations = view.iterateConversations();
+        return new Iterator<ConversationContext>() {
+          @Override
+          public boolean hasNext() {
+            return conversations.hasNext();
+          }
+          @Override
+          public ConversationContext next() {
+            return new ConversationContext(user, conversations.next(), view, controller);
+          }
+          @Override
+          public void remove() {
+            throw new UnsupportedOperationException();
+          }
+        };
+      }
+    };
   }
 
   public ArrayList<Message> getUpdatedMessages(ConversationHeader convo) {
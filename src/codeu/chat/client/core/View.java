@@ -15,17 +15,24 @@
 package codeu.chat.client.core;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 import codeu.chat.common.BasicView;
+import codeu.chat.common.Changes;
 import codeu.chat.common.ConversationHeader;
 import codeu.chat.common.ConversationPayload;
 import codeu.chat.common.Message;
 import codeu.chat.common.NetworkCode;
+import codeu.chat.common.Page;
 import codeu.chat.common.User;
 import codeu.chat.common.ServerInfo;
+import codeu.chat.common.SinglesView;
+import codeu.chat.common.Stat;
 import codeu.chat.util.*;
 import codeu.chat.util.connections.Connection;
 import codeu.chat.util.connections.ConnectionSource;
@@ -35,37 +42,30 @@ import codeu.chat.util.connections.ConnectionSource;
 // This is the view component of the Model-View-Controller pattern used by the
 // the client to reterive readonly data from the server. All methods are blocking
 // calls.
-final class View implements BasicView {
+final class View implements BasicView, SinglesView {
 
   private final static Logger.Log LOG = Logger.newLog(View.class);
 
   private final ConnectionSource source;
 
+  // How long cached values may be used before asking the server what changed.
+  private static final long REFRESH_MS = 1000;
+
+  private static final int MESSAGE_CACHE_SIZE = 4096;
+
+  private final Cache<Uuid, Message> messageCache = new Cache<>(MESSAGE_CACHE_SIZE);
+
+  // Users and conversations are listed from here, so that listing them again
+  // only fetches what changed.
+  private final Replica replica = new Replica(this, messageCache);
+
   public View(ConnectionSource source) {
     this.source = source;
   }
 
   @Override
   public Collection<User> getUsers() {
-
-    final Collection<User> users = new ArrayList<>();
-
-    try (final Connection connection = source.connect()) {
-
-      Serializers.INTEGER.write(connection.out(), NetworkCode.GET_USERS_REQUEST);
-
-      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.GET_USERS_RESPONSE) {
-        users.addAll(Serializers.collection(User.SERIALIZER).read(connection.in()));
-      } else {
-        LOG.error("Response from server failed.");
-      }
-
-    } catch (Exception ex) {
-      System.out.println("ERROR: Exception during call on server. Check log for details.");
-      LOG.error(ex, "Exception during call on server.");
-    }
-
-    return users;
+    return replica.users();
   }
 
   @Override
@@ -108,27 +108,34 @@ final class View implements BasicView {
     return null;
   }
 
-  @Override
-  public Collection<ConversationHeader> getConversations() {
+  // GET STATS
+  //
+  // The server's request counts and latencies, sorted by name.
+  public Collection<Stat> getStats() {
 
-    final Collection<ConversationHeader> summaries = new ArrayList<>();
+    final Collection<Stat> stats = new ArrayList<>();
 
     try (final Connection connection = source.connect()) {
 
-      Serializers.INTEGER.write(connection.out(), NetworkCode.GET_ALL_CONVERSATIONS_REQUEST);
+      Serializers.INTEGER.write(connection.out(), NetworkCode.GET_STATS_REQUEST);
 
-      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.GET_ALL_CONVERSATIONS_RESPONSE) {
-        summaries.addAll(Serializers.collection(ConversationHeader.SERIALIZER).read(connection.in()));
+      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.GET_STATS_RESPONSE) {
+        stats.addAll(Serializers.collection(Stat.SERIALIZER).read(connection.in()));
       } else {
         LOG.error("Response from server failed.");
       }
 
     } catch (Exception ex) {
-      System.out.println("ERROR: Exception during call on server. Check log for details." + ex.toString());
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
       LOG.error(ex, "Exception during call on server.");
     }
 
-    return summaries;
+    return stats;
+  }
+
+  @Override
+  public Collection<ConversationHeader> getConversations() {
+    return replica.conversations();
   }
 
   @Override
@@ -158,6 +165,31 @@ final class View implements BasicView {
   @Override
   public Collection<Message> getMessages(Collection<Uuid> ids) {
 
+    replica.refresh(REFRESH_MS);
+
+    final Collection<Message> found = new ArrayList<>();
+    final Collection<Uuid> missing = new ArrayList<>();
+
+    for (final Uuid id : ids) {
+      final Message message = Uuid.equals(id, Uuid.NULL) ? null : messageCache.get(id);
+      if (message != null) {
+        found.add(message);
+      } else if (!Uuid.equals(id, Uuid.NULL)) {
+        missing.add(id);
+      }
+    }
+
+    if (!missing.isEmpty()) {
+      final Collection<Message> fetched = fetchMessages(missing);
+      cache(fetched);
+      found.addAll(fetched);
+    }
+
+    return found;
+  }
+
+  private Collection<Message> fetchMessages(Collection<Uuid> ids) {
+
     final Collection<Message> messages = new ArrayList<>();
 
     try (final Connection connection = source.connect()) {
@@ -178,4 +210,172 @@ final class View implements BasicView {
     return messages;
 
   }
+
+  // CACHE
+  //
+  // Remember messages that already have a next message. Nothing about them
+  // can change apart from their likes, which are updated by the replica. The
+  // last message in a conversation can still get a "next", so it is always
+  // fetched again.
+  private void cache(Collection<Message> fetched) {
+    for (final Message message : fetched) {
+      if (!Uuid.equals(message.next, Uuid.NULL)) {
+        messageCache.put(message.id, message);
+      }
+    }
+  }
+
+  @Override
+  public Collection<Message> getMessagePage(Uuid conversation, Uuid after, Time start, Time end, int limit) {
+
+    final Collection<Message> messages = new ArrayList<>();
+
+    try (final Connection connection = source.connect()) {
+
+      Serializers.INTEGER.write(connection.out(), NetworkCode.GET_MESSAGE_PAGE_REQUEST);
+      Uuid.SERIALIZER.write(connection.out(), conversation);
+      Serializers.nullable(Uuid.SERIALIZER).write(connection.out(), after);
+      Serializers.nullable(Time.SERIALIZER).write(connection.out(), start);
+      Serializers.nullable(Time.SERIALIZER).write(connection.out(), end);
+      Serializers.INTEGER.write(connection.out(), limit);
+
+      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.GET_MESSAGE_PAGE_RESPONSE) {
+        messages.addAll(Serializers.collection(Message.SERIALIZER).read(connection.in()));
+        cache(messages);
+      } else {
+        LOG.error("Response from server failed.");
+      }
+    } catch (Exception ex) {
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex, "Exception during call on server.");
+    }
+
+    return messages;
+  }
+
+  @Override
+  public List<Message> searchMessages(String query, Uuid author, Uuid conversation, int limit) {
+
+    final List<Message> messages = new ArrayList<>();
+
+    try (final Connection connection = source.connect()) {
+
+      Serializers.INTEGER.write(connection.out(), NetworkCode.SEARCH_MESSAGES_REQUEST);
+      Serializers.STRING.write(connection.out(), query);
+      Serializers.nullable(Uuid.SERIALIZER).write(connection.out(), author);
+      Serializers.nullable(Uuid.SERIALIZER).write(connection.out(), conversation);
+      Serializers.INTEGER.write(connection.out(), limit);
+
+      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.SEARCH_MESSAGES_RESPONSE) {
+        messages.addAll(Serializers.collection(Message.SERIALIZER).read(connection.in()));
+      } else {
+        LOG.error("Response from server failed.");
+      }
+    } catch (Exception ex) {
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex, "Exception during call on server.");
+    }
+
+    return messages;
+  }
+
+  @Override
+  public Page<User> getUserPage(Uuid after, int limit) {
+
+    try (final Connection connection = source.connect()) {
+
+      Serializers.INTEGER.write(connection.out(), NetworkCode.GET_USER_PAGE_REQUEST);
+      Serializers.nullable(Uuid.SERIALIZER).write(connection.out(), after);
+      Serializers.INTEGER.write(connection.out(), limit);
+
+      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.GET_USER_PAGE_RESPONSE) {
+        return Page.serializer(User.SERIALIZER).read(connection.in());
+      } else {
+        LOG.error("Response from server failed.");
+      }
+    } catch (Exception ex) {
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex, "Exception during call on server.");
+    }
+
+    return null;
+  }
+
+  @Override
+  public Page<ConversationHeader> getConversationPage(Uuid after, int limit) {
+
+    try (final Connection connection = source.connect()) {
+
+      Serializers.INTEGER.write(connection.out(), NetworkCode.GET_CONVERSATION_PAGE_REQUEST);
+      Serializers.nullable(Uuid.SERIALIZER).write(connection.out(), after);
+      Serializers.INTEGER.write(connection.out(), limit);
+
+      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.GET_CONVERSATION_PAGE_RESPONSE) {
+        return Page.serializer(ConversationHeader.SERIALIZER).read(connection.in());
+      } else {
+        LOG.error("Response from server failed.");
+      }
+    } catch (Exception ex) {
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex, "Exception during call on server.");
+    }
+
+    return null;
+  }
+
+  @Override
+  public Iterator<User> iterateUsers() {
+    return replica.users().iterator();
+  }
+
+  @Override
+  public Iterator<ConversationHeader> iterateConversations() {
+    return replica.conversations().iterator();
+  }
+
+  @Override
+  public Changes getChangesSince(long epoch, long seq, int limit) {
+
+    try (final Connection connection = source.connect()) {
+
+      Serializers.INTEGER.write(connection.out(), NetworkCode.GET_CHANGES_SINCE_REQUEST);
+      Serializers.writeLong(connection.out(), epoch);
+      Serializers.writeLong(connection.out(), seq);
+      Serializers.INTEGER.write(connection.out(), limit);
+
+      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.GET_CHANGES_SINCE_RESPONSE) {
+        return Changes.SERIALIZER.read(connection.in());
+      } else {
+        LOG.error("Response from server failed.");
+      }
+    } catch (Exception ex) {
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex, "Exception during call on server.");
+    }
+
+    return null;
+  }
+
+  @Override
+  public User findUser(Uuid id) {
+    return replica.user(id, REFRESH_MS);
+  }
+
+  @Override
+  public ConversationHeader findConversation(Uuid id) {
+    return replica.conversation(id, REFRESH_MS);
+  }
+
+  @Override
+  public Message findMessage(Uuid id) {
+    final Iterator<Message> found = getMessages(Arrays.asList(id)).iterator();
+    return found.hasNext() ? found.next() : null;
+  }
+
+  // CACHE STATS
+  //
+  // Hits and misses for each of the client's caches.
+  public Collection<CacheStat> getCacheStats() {
+    return Arrays.asList(replica.userStat(), replica.conversationStat(), messageCache.stat("messages"));
+  }
 }
@@ -16,6 +16,8 @@ package codeu.chat.common;
 
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import codeu.chat.util.AccessLevel;
 import codeu.chat.common.ConversationHeader;
@@ -23,6 +25,7 @@ import codeu.chat.common.ConversationPayload;
 import codeu.chat.common.Message;
 import codeu.chat.common.User;
 import codeu.chat.common.ServerInfo;
+import codeu.chat.util.Time;
 import codeu.chat.util.Uuid;
 
 // BASIC VIEW
@@ -45,6 +48,34 @@ public interface BasicView {
   //   Return a summary of each converation.
   Collection<ConversationHeader> getConversations();
 
+  // MAX LIST PAGE
+  //
+  //   The most users or conversations a single page will hold. Asking for
+  //   more is the same as asking for this many.
+  int MAX_LIST_PAGE = 256;
+
+  // GET USER PAGE
+  //
+  //   Return up to "limit" users in the order they were created. "after" is
+  //   null for the first page and the last page's "next" token after that.
+  Page<User> getUserPage(Uuid after, int limit);
+
+  // GET CONVERSATION PAGE
+  //
+  //   Return up to "limit" conversation summaries in the order they were
+  //   created. Tokens work the same way as in "getUserPage".
+  Page<ConversationHeader> getConversationPage(Uuid after, int limit);
+
+  // ITERATE USERS
+  //
+  //   Walk all users without the server sending them all in one response.
+  Iterator<User> iterateUsers();
+
+  // ITERATE CONVERSATIONS
+  //
+  //   Walk all conversation summaries a page at a time, like "iterateUsers".
+  Iterator<ConversationHeader> iterateConversations();
+
   // GET CONVERSATIONS
   //
   //   Return all conversations whose id is found in the given collection.
@@ -55,6 +86,45 @@ public interface BasicView {
   //   Return all messages whose id is found in the given collection.
   Collection<Message> getMessages(Collection<Uuid> ids);
 
+  // MAX MESSAGE PAGE
+  //
+  //   The most messages "getMessagePage" will return at once. Asking for more
+  //   is the same as asking for this many.
+  int MAX_MESSAGE_PAGE = 256;
+
+  // GET MESSAGE PAGE
+  //
+  //   Return up to "limit" messages from a conversation in the order they were
+  //   sent. If "after" is not null, the page starts after that message. If
+  //   "start" or "end" are not null, only messages sent within that time range
+  //   (inclusive) are returned. A page with fewer messages than asked for
+  //   means there are no more.
+  Collection<Message> getMessagePage(Uuid conversation, Uuid after, Time start, Time end, int limit);
+
+  // MAX SEARCH RESULTS
+  //
+  //   The most messages "searchMessages" will return at once.
+  int MAX_SEARCH_RESULTS = 256;
+
+  // SEARCH MESSAGES
+  //
+  //   Return up to "limit" messages that contain words from the query, best
+  //   match first. If "author" or "conversation" are not null, only messages
+  //   by that user or in that conversation are returned.
+  List<Message> searchMessages(String query, Uuid author, Uuid conversation, int limit);
+
+  // MAX CHANGES
+  //
+  //   The most changes "getChangesSince" will look at in one call.
+  int MAX_CHANGES = 1024;
+
+  // GET CHANGES SINCE
+  //
+  //   Return the users, conversations and messages that changed after "seq"
+  //   in the server run identified by "epoch". Start with an epoch and seq of
+  //   zero, which always asks for a reset. See Changes for how to continue.
+  Changes getChangesSince(long epoch, long seq, int limit);
+
   // GET INFO
   //
   //  Return info about the current server like version and up time
@@ -0,0 +1,108 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+
+import codeu.chat.util.Serializer;
+import codeu.chat.util.Serializers;
+
+// CHANGES
+//
+// Everything that changed on the server after a point in its change sequence.
+// Each changed user, conversation or message is sent once with its current
+// value, no matter how many times it changed. Likes show up as changed
+// messages and access changes as changed conversations.
+//
+// "seq" is the point to ask from next time. If "more" is set there are
+// already more changes waiting. If "reset" is set the server could not say
+// what changed (it restarted or the client fell too far behind); the lists
+// are empty and the client should reload everything and then ask for changes
+// after "seq".
+public final class Changes {
+
+  public static final Serializer<Changes> SERIALIZER = new Serializer<Changes>() {
+
+    @Override
+    public void write(OutputStream out, Changes value) throws IOException {
+
+      Serializers.writeLong(out, value.epoch);
+      Serializers.writeLong(out, value.seq);
+      Serializers.BOOLEAN.write(out, value.reset);
+      Serializers.BOOLEAN.write(out, value.more);
+      Serializers.collection(User.SERIALIZER).write(out, value.users);
+      Serializers.collection(ConversationHeader.SERIALIZER).write(out, value.conversations);
+      Serializers.collection(Message.SERIALIZER).write(out, value.messages);
+
+    }
+
+    @Override
+    public Changes read(InputStream in) throws IOException {
+
+      return new Changes(
+          Serializers.readLong(in),
+          Serializers.readLong(in),
+          Serializers.BOOLEAN.read(in),
+          Serializers.BOOLEAN.read(in),
+          Serializers.collection(User.SERIALIZER).read(in),
+          Serializers.collection(ConversationHeader.SERIALIZER).read(in),
+          Serializers.collection(Message.SERIALIZER).read(in));
+
+    }
+  };
+
+  public final long epoch;
+  public final long seq;
+  public final boolean reset;
+  public final boolean more;
+
+  public final Collection<User> users;
+  public final Collection<ConversationHeader> conversations;
+  public final Collection<Message> messages;
+
+  public Changes(long epoch,
+                 long seq,
+                 boolean reset,
+                 boolean more,
+                 Collection<User> users,
+                 Collection<ConversationHeader> conversations,
+                 Collection<Message> messages) {
+
+    this.epoch = epoch;
+    this.seq = seq;
+    this.reset = reset;
+    this.more = more;
+    this.users = users;
+    this.conversations = conversations;
+    this.messages = messages;
+  }
+
+  // RESET
+  //
+  // Tell the client to reload everything and then continue from "seq".
+  public static Changes reset(long epoch, long seq) {
+    return new Changes(epoch,
+                       seq,
+                       true,
+                       false,
+                       new ArrayList<User>(),
+                       new ArrayList<ConversationHeader>(),
+                       new ArrayList<Message>());
+  }
+}
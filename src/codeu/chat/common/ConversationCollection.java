@@ -1,6 +1,6 @@
 package codeu.chat.common;
 
-import java.util.ArrayList;
+import java.util.Collection;
 
 /**
  * This class is simply to hold all of the conversations so it is easy to save them to a text file later
@@ -9,7 +9,7 @@ import java.util.ArrayList;
 public class ConversationCollection {
     public ConversationHeader[] conversations;
 
-    public ConversationCollection(ArrayList<ConversationHeader> currentConvos) {
+    public ConversationCollection(Collection<ConversationHeader> currentConvos) {
         conversations = new ConversationHeader[currentConvos.size()];
         conversations = currentConvos.toArray(conversations);
     }
@@ -48,9 +48,10 @@ public final class ConversationPayload {
 
   public final Uuid id;
 
-  // These are allowed to be updated and therefore are not marked final
-  public Uuid firstMessage = Uuid.NULL;
-  public Uuid lastMessage = Uuid.NULL;
+  // These are allowed to be updated and therefore are not marked final. They
+  // are volatile as they may be read by other threads while being updated.
+  public volatile Uuid firstMessage = Uuid.NULL;
+  public volatile Uuid lastMessage = Uuid.NULL;
 
   public ConversationPayload(Uuid id) {
     this.id = id;
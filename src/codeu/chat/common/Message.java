@@ -65,8 +65,10 @@ public final class Message {
   public final Uuid author;
   public final String content;
   public final Uuid convoId;
-  public Uuid next;
-  public int likes;
+  // These are updated after the message is added to the server and may be
+  // read by other threads, so they are volatile.
+  public volatile Uuid next;
+  public volatile int likes;
 
   public Message(Uuid id, Uuid next, Uuid previous, Time creation, Uuid author, String content, Uuid convoId, int likes) {
 
@@ -1,6 +1,6 @@
 package codeu.chat.common;
 
-import java.util.ArrayList;
+import java.util.Collection;
 
 /**
  * This class is simply to hold all of the messages so it is easy to save them to a text file later
@@ -9,7 +9,7 @@ import java.util.ArrayList;
 public class MessageCollection {
     public Message[] messages;
 
-    public MessageCollection(ArrayList<Message> currentMessages) {
+    public MessageCollection(Collection<Message> currentMessages) {
         messages = new Message[currentMessages.size()];
         messages = currentMessages.toArray(messages);
     }
@@ -14,6 +14,11 @@
 
 package codeu.chat.common;
 
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.Map;
+
 public final class NetworkCode {
 
 
@@ -42,7 +47,51 @@ public final class NetworkCode {
       CHANGE_USER_ACCESS_REQUEST = 33,
       CHANGE_USER_ACCESS_RESPONSE  = 34,
       GET_USERS_ACCESS_REQUEST   = 35,
-      GET_USERS_ACCESS_RESPONSE = 36;
+      GET_USERS_ACCESS_RESPONSE = 36,
       LIKE_MSG_REQUEST = 37,
-      LIKE_MSG_RESPONSE = 38;
+      LIKE_MSG_RESPONSE = 38,
+      MULTIPLEX_REQUEST = 39,
+      MULTIPLEX_RESPONSE = 40,
+      GET_MESSAGE_PAGE_REQUEST = 41,
+      GET_MESSAGE_PAGE_RESPONSE = 42,
+      SUBSCRIBE_REQUEST = 43,
+      SUBSCRIBE_RESPONSE = 44,
+      NEW_MESSAGE_EVENT = 45,
+      RELAY_WRITE_BATCH_REQUEST = 46,
+      RELAY_WRITE_BATCH_RESPONSE = 47,
+      RELAY_WAIT_READ_REQUEST = 48,
+      RELAY_WAIT_READ_RESPONSE = 49,
+      GET_STATS_REQUEST = 50,
+      GET_STATS_RESPONSE = 51,
+      SEARCH_MESSAGES_REQUEST = 52,
+      SEARCH_MESSAGES_RESPONSE = 53,
+      GET_USER_PAGE_REQUEST = 54,
+      GET_USER_PAGE_RESPONSE = 55,
+      GET_CONVERSATION_PAGE_REQUEST = 56,
+      GET_CONVERSATION_PAGE_RESPONSE = 57,
+      GET_CHANGES_SINCE_REQUEST = 58,
+      GET_CHANGES_SINCE_RESPONSE = 59,
+      KEEP_ALIVE_EVENT = 60;
+
+  private static final Map<Integer, String> names = new HashMap<>();
+
+  static {
+    for (final Field field : NetworkCode.class.getFields()) {
+      if (field.getType() == int.class && Modifier.isStatic(field.getModifiers())) {
+        try {
+          names.put(field.getInt(null), field.getName());
+        } catch (IllegalAccessException ex) {
+          // All the codes are public, so this can not happen.
+        }
+      }
+    }
+  }
+
+  // NAME
+  //
+  // The name of a code (e.g. "NEW_MESSAGE_REQUEST") for logs and stats.
+  public static String name(int code) {
+    final String name = names.get(code);
+    return name == null ? "UNKNOWN_" + code : name;
+  }
 }
@@ -0,0 +1,63 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import codeu.chat.util.Serializer;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Uuid;
+
+// PAGE
+//
+// One chunk of a long list sent from the server. "next" is the continuation
+// token to ask for the chunk after this one, or null if this is the last.
+public final class Page<T> {
+
+  public static <T> Serializer<Page<T>> serializer(final Serializer<T> serializer) {
+
+    return new Serializer<Page<T>>() {
+
+      @Override
+      public void write(OutputStream out, Page<T> value) throws IOException {
+
+        Serializers.collection(serializer).write(out, value.items);
+        Serializers.nullable(Uuid.SERIALIZER).write(out, value.next);
+
+      }
+
+      @Override
+      public Page<T> read(InputStream in) throws IOException {
+
+        return new Page<T>(
+            new ArrayList<>(Serializers.collection(serializer).read(in)),
+            Serializers.nullable(Uuid.SERIALIZER).read(in));
+
+      }
+    };
+  }
+
+  public final List<T> items;
+  public final Uuid next;
+
+  public Page(List<T> items, Uuid next) {
+    this.items = items;
+    this.next = next;
+  }
+}
@@ -15,6 +15,7 @@
 package codeu.chat.common;
 
 import java.util.Collection;
+import java.util.List;
 
 import codeu.chat.util.Time;
 import codeu.chat.util.Uuid;
@@ -123,6 +124,15 @@ public interface Relay {
                 Bundle.Component conversation,
                 Bundle.Component message);
 
+  // WRITE
+  //
+  // Write several messages in one go. Only the user, conversation, and message
+  // of each bundle are used - the relay gives each bundle its own id and time.
+  // Bundles are written in order and writing stops at the first one that the
+  // relay rejects. Returns how many bundles were written, so a caller can retry
+  // the rest.
+  int write(Uuid teamId, Secret teamSecret, List<? extends Bundle> bundles);
+
   // READ
   //
   // Read a series of bundles from the relay. Given a Uuid as the starting point
@@ -133,4 +143,12 @@ public interface Relay {
   // was given Uuids.NULL.
   Collection<Bundle> read(Uuid teamId, Secret teamSecret, Uuid root, int range);
 
+  // READ
+  //
+  // The same as above but if there is nothing after the root yet, wait up to
+  // "timeout" milliseconds for something to be written before returning. This
+  // lets a reader ask again as soon as it gets a reply without polling an idle
+  // relay over and over.
+  Collection<Bundle> read(Uuid teamId, Secret teamSecret, Uuid root, int range, long timeout);
+
 }
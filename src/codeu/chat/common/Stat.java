@@ -0,0 +1,120 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import codeu.chat.util.Histogram;
+import codeu.chat.util.Metrics;
+import codeu.chat.util.Serializer;
+import codeu.chat.util.Serializers;
+
+// STAT
+//
+// A copy of one of the server's metrics as sent to a client. Latencies are in
+// microseconds.
+public final class Stat {
+
+  public static final Serializer<Stat> SERIALIZER = new Serializer<Stat>() {
+
+    @Override
+    public void write(OutputStream out, Stat value) throws IOException {
+
+      Serializers.STRING.write(out, value.name);
+      Serializers.writeLong(out, value.count);
+      Serializers.writeLong(out, value.errors);
+      Serializers.writeLong(out, value.bytesIn);
+      Serializers.writeLong(out, value.bytesOut);
+      Serializers.writeLong(out, value.mean);
+      Serializers.writeLong(out, value.p50);
+      Serializers.writeLong(out, value.p90);
+      Serializers.writeLong(out, value.p99);
+      Serializers.writeLong(out, value.max);
+
+    }
+
+    @Override
+    public Stat read(InputStream in) throws IOException {
+
+      return new Stat(
+          Serializers.STRING.read(in),
+          Serializers.readLong(in),
+          Serializers.readLong(in),
+          Serializers.readLong(in),
+          Serializers.readLong(in),
+          Serializers.readLong(in),
+          Serializers.readLong(in),
+          Serializers.readLong(in),
+          Serializers.readLong(in),
+          Serializers.readLong(in)
+      );
+
+    }
+  };
+
+  public final String name;
+  public final long count;
+  public final long errors;
+  public final long bytesIn;
+  public final long bytesOut;
+  public final long mean;
+  public final long p50;
+  public final long p90;
+  public final long p99;
+  public final long max;
+
+  public Stat(String name,
+              long count,
+              long errors,
+              long bytesIn,
+              long bytesOut,
+              long mean,
+              long p50,
+              long p90,
+              long p99,
+              long max) {
+
+    this.name = name;
+    this.count = count;
+    this.errors = errors;
+    this.bytesIn = bytesIn;
+    this.bytesOut = bytesOut;
+    this.mean = mean;
+    this.p50 = p50;
+    this.p90 = p90;
+    this.p99 = p99;
+    this.max = max;
+
+  }
+
+  public static Stat of(Metrics.Metric metric) {
+
+    final Histogram latency = metric.latency();
+
+    return new Stat(
+        metric.name,
+        metric.count(),
+        metric.errors(),
+        metric.bytesIn(),
+        metric.bytesOut(),
+        latency.mean() / 1000,
+        latency.percentile(0.5) / 1000,
+        latency.percentile(0.9) / 1000,
+        latency.percentile(0.99) / 1000,
+        latency.max() / 1000);
+  }
+}
@@ -1,6 +1,6 @@
 package codeu.chat.common;
 
-import java.util.ArrayList;
+import java.util.Collection;
 
 /**
  * This class is simply to hold all of the users so it is easy to save them to a text file later
@@ -9,7 +9,7 @@ import java.util.ArrayList;
 public class UserCollection {
     public User[] users;
 
-    public UserCollection(ArrayList<User> currentUsers) {
+    public UserCollection(Collection<User> currentUsers) {
         users = new User[currentUsers.size()];
         users = currentUsers.toArray(users);
     }
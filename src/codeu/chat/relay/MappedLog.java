@@ -0,0 +1,447 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.relay;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import codeu.chat.common.Relay;
+import codeu.chat.util.BufferInputStream;
+import codeu.chat.util.BufferOutputStream;
+import codeu.chat.util.Logger;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+// MAPPED LOG
+//
+// A team's relay history kept on disk so that it survives a restart of the
+// relay. Bundles are appended to segment files that are memory-mapped, so
+// both writes and reads are just copies to and from mapped pages.
+//
+// Each bundle has a sequence number, its position in this log, as well as
+// the relay-wide id it was written with. Each segment is named after the
+// sequence number of its first bundle and holds bundles with consecutive
+// sequence numbers. Every segment keeps an index of where each of its bundles
+// starts and of their ids, so finding the first bundle after an id is a
+// binary search by sequence number, which is a search for the segment and
+// then a lookup in that segment's index. The index is rebuilt by scanning the
+// segment when the log is opened.
+//
+// Each record is: length, crc32 of the body, body. The body is the sequence
+// number, the id, the time in milliseconds, the team and the three
+// components. A record that is cut short, fails its checksum or does not
+// have a newer id than the record before it ends the segment. Segments
+// are zero filled when created so a length of zero marks the end of the
+// records.
+//
+// Old bundles are dropped a whole segment at a time, once the log is over its
+// size limit or the newest bundle in the oldest segment is past the age
+// limit. The segment being written to is never dropped.
+//
+// Bundles are not synced to disk after each write. Everything written is in
+// the page cache as soon as "write" returns, so it survives the relay process
+// dying but the last few bundles may be lost if the machine goes down.
+final class MappedLog implements Server.History {
+
+  private final static Logger.Log LOG = Logger.newLog(MappedLog.class);
+
+  static final int SEGMENT_SIZE = 4 * 1024 * 1024;
+
+  private static final String SUFFIX = ".seg";
+
+  // Length and crc32.
+  private static final int HEADER_SIZE = 8;
+
+  private static final class Segment {
+
+    final File file;
+    final long first;
+    final MappedByteBuffer buffer;
+
+    // Where each bundle's record starts and its id, by sequence number - first.
+    int[] offsets = new int[256];
+    long[] ids = new long[256];
+    int count = 0;
+
+    // Where the next record will go.
+    int end = 0;
+
+    // The time of the newest bundle in the segment.
+    long newest = 0;
+
+    Segment(File file, long first, MappedByteBuffer buffer) {
+      this.file = file;
+      this.first = first;
+      this.buffer = buffer;
+    }
+
+    void add(int offset, long id, long time) {
+      if (count == offsets.length) {
+        offsets = Arrays.copyOf(offsets, count * 2);
+        ids = Arrays.copyOf(ids, count * 2);
+      }
+      offsets[count] = offset;
+      ids[count] = id;
+      count++;
+      newest = Math.max(newest, time);
+    }
+  }
+
+  private final File directory;
+  private final int segmentSize;
+  private final long maxBytes;
+  private final long maxAge;
+
+  // Oldest first.
+  private final List<Segment> segments = new ArrayList<>();
+
+  private final BufferOutputStream scratch = new BufferOutputStream(512);
+  private final CRC32 crc = new CRC32();
+
+  private long next = 1;
+  private long bytes = 0;
+
+  // The id of the newest bundle in the log.
+  private long last = 0;
+
+  private MappedLog(File directory, int segmentSize, long maxBytes, long maxAge) {
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+    this.maxBytes = maxBytes;
+    this.maxAge = maxAge;
+  }
+
+  // OPEN
+  //
+  // Open the log in "directory", creating it if needed, and load the index of
+  // every segment already there. "maxAge" of zero means no age limit.
+  public static MappedLog open(File directory, long maxBytes, long maxAge) throws IOException {
+    return open(directory, SEGMENT_SIZE, maxBytes, maxAge);
+  }
+
+  static MappedLog open(File directory, int segmentSize, long maxBytes, long maxAge) throws IOException {
+
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Could not create relay log directory " + directory);
+    }
+
+    final MappedLog log = new MappedLog(directory, segmentSize, maxBytes, maxAge);
+
+    final long start = System.nanoTime();
+
+    for (final long first : firsts(directory)) {
+
+      // A gap means the segments before it are from an older run of the log
+      // that can not be joined to this one. Start again from the later ones.
+      if (!log.segments.isEmpty() && first != log.next) {
+        LOG.warning("Relay log %s has a gap before %d, dropping older segments", directory, first);
+        log.dropAll();
+        log.last = 0;
+      }
+
+      final Segment segment = log.map(file(directory, first), first, 0);
+      log.scan(segment);
+      log.segments.add(segment);
+      log.bytes += segment.buffer.capacity();
+      log.next = first + segment.count;
+    }
+
+    log.retain(System.currentTimeMillis());
+
+    LOG.info("Opened relay log %s with %d segments next=%d in %d ms",
+             directory,
+             log.segments.size(),
+             log.next,
+             (System.nanoTime() - start) / 1000000);
+
+    return log;
+  }
+
+  @Override
+  public synchronized Relay.Bundle write(long id,
+                                         Uuid team,
+                                         Relay.Bundle.Component user,
+                                         Relay.Bundle.Component conversation,
+                                         Relay.Bundle.Component message) throws IOException {
+
+    final long sequence = next;
+    final Time time = Time.now();
+
+    scratch.reset();
+    scratch.writeLong(sequence);
+    scratch.writeLong(id);
+    scratch.writeLong(time.inMs());
+    Uuid.SERIALIZER.write(scratch, team);
+    writeComponent(user);
+    writeComponent(conversation);
+    writeComponent(message);
+
+    final int size = HEADER_SIZE + scratch.size();
+
+    Segment segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+
+    if (segment == null || segment.end + size > segment.buffer.capacity()) {
+      segment = map(file(directory, sequence), sequence, Math.max(segmentSize, size));
+      segments.add(segment);
+      bytes += segment.buffer.capacity();
+    }
+
+    crc.reset();
+    crc.update(scratch.asByteBuffer());
+
+    final ByteBuffer view = segment.buffer.duplicate();
+    view.position(segment.end);
+    view.putInt(scratch.size());
+    view.putInt((int) crc.getValue());
+    view.put(scratch.asByteBuffer());
+
+    segment.add(segment.end, id, time.inMs());
+    segment.end += size;
+    next++;
+    last = id;
+
+    retain(time.inMs());
+
+    return new Server.Bundle(
+        new Uuid((int) id),
+        time,
+        team,
+        new Server.Component(user.id(), user.text(), user.time()),
+        new Server.Component(conversation.id(), conversation.text(), conversation.time()),
+        new Server.Component(message.id(), message.text(), message.time()));
+  }
+
+  @Override
+  public synchronized Collection<Relay.Bundle> read(long after, long last, int count) throws IOException {
+
+    // The first sequence number holding a bundle after "after".
+    long low = segments.isEmpty() ? next : segments.get(0).first;
+    long high = next;
+    while (low < high) {
+      final long middle = (low + high) >>> 1;
+      final Segment segment = segments.get(find(middle));
+      if (segment.ids[(int) (middle - segment.first)] <= after) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+
+    final Collection<Relay.Bundle> bundles = new ArrayList<>();
+
+    if (low == next) {
+      return bundles;
+    }
+
+    int index = find(low);
+
+    for (long sequence = low; sequence < next && bundles.size() < count; sequence++) {
+
+      Segment segment = segments.get(index);
+      while (sequence - segment.first >= segment.count) {
+        segment = segments.get(++index);
+      }
+
+      final int position = (int) (sequence - segment.first);
+      if (segment.ids[position] > last) {
+        break;
+      }
+
+      bundles.add(readBundle(segment, segment.offsets[position]));
+    }
+
+    return bundles;
+  }
+
+  @Override
+  public synchronized long newest() {
+    return last;
+  }
+
+  // FIND
+  //
+  // The index of the segment that holds "sequence". The sequence must be in
+  // the log.
+  private int find(long sequence) {
+    int low = 0;
+    int high = segments.size() - 1;
+    while (low < high) {
+      final int middle = (low + high + 1) >>> 1;
+      if (segments.get(middle).first <= sequence) {
+        low = middle;
+      } else {
+        high = middle - 1;
+      }
+    }
+    return low;
+  }
+
+  private void writeComponent(Relay.Bundle.Component component) throws IOException {
+    Uuid.SERIALIZER.write(scratch, component.id());
+    Serializers.STRING.write(scratch, component.text());
+    Time.SERIALIZER.write(scratch, component.time());
+  }
+
+  private static Relay.Bundle readBundle(Segment segment, int offset) throws IOException {
+
+    final ByteBuffer view = segment.buffer.duplicate();
+    view.position(offset);
+    final int length = view.getInt();
+    view.position(offset + HEADER_SIZE);
+    view.limit(offset + HEADER_SIZE + length);
+
+    final BufferInputStream in = new BufferInputStream(view);
+
+    in.readLong();
+    final long id = in.readLong();
+    final Time time = Time.fromMs(in.readLong());
+    final Uuid team = Uuid.SERIALIZER.read(in);
+
+    return new Server.Bundle(
+        new Uuid((int) id),
+        time,
+        team,
+        readComponent(in),
+        readComponent(in),
+        readComponent(in));
+  }
+
+  private static Server.Component readComponent(BufferInputStream in) throws IOException {
+    final Uuid id = Uuid.SERIALIZER.read(in);
+    final String text = Serializers.STRING.read(in);
+    final Time time = Time.SERIALIZER.read(in);
+    return new Server.Component(id, text, time);
+  }
+
+  // SCAN
+  //
+  // Walk the records in a segment that was just mapped and build its index.
+  private void scan(Segment segment) {
+
+    final ByteBuffer view = segment.buffer.duplicate();
+    final int capacity = view.capacity();
+
+    int offset = 0;
+
+    while (offset + HEADER_SIZE <= capacity) {
+
+      final int length = view.getInt(offset);
+      if (length < 24 || offset + HEADER_SIZE + length > capacity) {
+        break;
+      }
+
+      final ByteBuffer body = view.duplicate();
+      body.position(offset + HEADER_SIZE);
+      body.limit(offset + HEADER_SIZE + length);
+
+      crc.reset();
+      crc.update(body);
+
+      final long id = view.getLong(offset + HEADER_SIZE + 8);
+
+      if ((int) crc.getValue() != view.getInt(offset + 4) ||
+          view.getLong(offset + HEADER_SIZE) != segment.first + segment.count ||
+          id <= last) {
+        LOG.warning("Relay log %s ends early at offset %d", segment.file, offset);
+        break;
+      }
+
+      segment.add(offset, id, view.getLong(offset + HEADER_SIZE + 16));
+      last = id;
+      offset += HEADER_SIZE + length;
+    }
+
+    segment.end = offset;
+  }
+
+  // RETAIN
+  //
+  // Drop the oldest segments while the log is too big or they are too old.
+  private void retain(long now) {
+    while (segments.size() > 1 &&
+           (bytes > maxBytes || (maxAge > 0 && now - segments.get(0).newest > maxAge))) {
+      drop(segments.remove(0));
+    }
+  }
+
+  private void dropAll() {
+    for (final Segment segment : segments) {
+      drop(segment);
+    }
+    segments.clear();
+  }
+
+  private void drop(Segment segment) {
+    bytes -= segment.buffer.capacity();
+    // The mapping stays valid until it is garbage collected, which is fine as
+    // nothing refers to the segment anymore.
+    if (!segment.file.delete()) {
+      LOG.warning("Failed to delete relay log segment %s", segment.file);
+    }
+  }
+
+  // MAP
+  //
+  // Map a segment file. If "size" is zero the whole of an existing file is
+  // mapped, otherwise a new file of that size is created.
+  private Segment map(File file, long first, int size) throws IOException {
+    try (final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+         final FileChannel channel = raf.getChannel()) {
+      final long length = size == 0 ? channel.size() : size;
+      return new Segment(file, first, channel.map(FileChannel.MapMode.READ_WRITE, 0, length));
+    }
+  }
+
+  private static File file(File directory, long first) {
+    return new File(directory, String.format("%020d%s", first, SUFFIX));
+  }
+
+  // FIRSTS
+  //
+  // The first sequence numbers of the segments in "directory", oldest first.
+  private static long[] firsts(File directory) {
+
+    final File[] files = directory.listFiles();
+    final long[] firsts = new long[files == null ? 0 : files.length];
+
+    int count = 0;
+
+    for (int i = 0; i < firsts.length; i++) {
+      final String name = files[i].getName();
+      if (name.endsWith(SUFFIX)) {
+        try {
+          firsts[count++] = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+        } catch (NumberFormatException ex) {
+          count--;
+          LOG.warning("Ignoring unexpected file %s in relay log", files[i]);
+        }
+      }
+    }
+
+    final long[] sorted = Arrays.copyOf(firsts, count);
+    Arrays.sort(sorted);
+    return sorted;
+  }
+}
@@ -14,19 +14,22 @@
 
 package codeu.chat.relay;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
-import java.util.Queue;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
-import codeu.chat.common.LinearUuidGenerator;
 import codeu.chat.common.Relay;
 import codeu.chat.common.Secret;
 import codeu.chat.util.Logger;
-import codeu.chat.util.Logger;
 import codeu.chat.util.Time;
 import codeu.chat.util.Uuid;
 
@@ -34,7 +37,7 @@ public final class Server implements Relay {
 
   private final static Logger.Log LOG = Logger.newLog(Server.class);
 
-  private static final class Component implements Relay.Bundle.Component {
+  static final class Component implements Relay.Bundle.Component {
 
     private final Uuid id;
     private final String text;
@@ -57,7 +60,7 @@ public final class Server implements Relay {
 
   }
 
-  private static final class Bundle implements Relay.Bundle {
+  static final class Bundle implements Relay.Bundle {
 
     private final Uuid id;
     private final Time time;
@@ -102,18 +105,182 @@ public final class Server implements Relay {
 
   }
 
-  private final Queue<Relay.Bundle> history = new LinkedList<>();
-  private final Map<Uuid, Secret> teamSecrets = new HashMap<>();
+  // HISTORY
+  //
+  // Where a team's bundles are kept. "write" stores a bundle under the id it
+  // is given, which is always more than the id of any bundle written before.
+  // "read" returns up to "count" bundles, oldest first, whose ids come after
+  // "after" and are no more than "last".
+  interface History {
+
+    Relay.Bundle write(long id,
+                       Uuid team,
+                       Relay.Bundle.Component user,
+                       Relay.Bundle.Component conversation,
+                       Relay.Bundle.Component message) throws IOException;
+
+    Collection<Relay.Bundle> read(long after, long last, int count) throws IOException;
+
+    // The id of the newest bundle in the history, or zero if it is empty.
+    long newest();
+
+  }
+
+  // MEMORY HISTORY
+  //
+  // The most recent bundles in a fixed-size ring buffer. Every bundle gets the
+  // next position and is stored in slot "position % capacity", writing over
+  // the bundle that was there.
+  //
+  // When each team had its own run of ids, a bundle's id was its position and
+  // a read went straight from the caller's last seen id to the next slot.
+  // Now that ids come from one sequence shared by every team, a team's ids
+  // have gaps and a cursor may not be in this history at all, so the id no
+  // longer gives the slot. Ids still only go up within the ring, so a read
+  // finds the first bundle after the cursor with a binary search over the
+  // positions it holds. That costs O(log capacity) per team on each read, or
+  // about 20 steps for a million bundles, with no extra memory.
+  private static final class MemoryHistory implements History {
+
+    private final Relay.Bundle[] slots;
+    private final long[] ids;
+
+    // The position the next bundle will go in.
+    private long next = 0;
+
+    MemoryHistory(int capacity) {
+      slots = new Relay.Bundle[capacity];
+      ids = new long[capacity];
+    }
+
+    @Override
+    public synchronized Relay.Bundle write(long id,
+                                           Uuid team,
+                                           Relay.Bundle.Component user,
+                                           Relay.Bundle.Component conversation,
+                                           Relay.Bundle.Component message) {
+
+      final Relay.Bundle bundle = new Bundle(
+          new Uuid((int) id),
+          Time.now(),
+          team,
+          user,
+          conversation,
+          message);
+
+      if (slots.length > 0) {
+        slots[slot(next)] = bundle;
+        ids[slot(next)] = id;
+      }
+
+      next++;
+
+      return bundle;
+    }
+
+    @Override
+    public synchronized Collection<Relay.Bundle> read(long after, long last, int count) {
+
+      // The first position holding a bundle after "after".
+      long low = Math.max(0, next - slots.length);
+      long high = next;
+      while (low < high) {
+        final long middle = (low + high) >>> 1;
+        if (ids[slot(middle)] <= after) {
+          low = middle + 1;
+        } else {
+          high = middle;
+        }
+      }
+
+      final Collection<Relay.Bundle> bundles = new ArrayList<>();
+
+      for (long position = low;
+           position < next && ids[slot(position)] <= last && bundles.size() < count;
+           position++) {
+        bundles.add(slots[slot(position)]);
+      }
+
+      return bundles;
+    }
+
+    @Override
+    public synchronized long newest() {
+      return next == 0 || slots.length == 0 ? 0 : ids[slot(next - 1)];
+    }
+
+    private int slot(long position) {
+      return (int) (position % slots.length);
+    }
+  }
+
+  // TEAM
+  //
+  // A team's secret and its own history. Each team's bundles are kept apart
+  // so that a busy team only pushes out its own history. Writes hold the
+  // team's lock while taking an id and storing the bundle, so each history
+  // gets its ids in order, and teams never wait on each other's writes.
+  private static final class Team {
+
+    final Secret secret;
+    final History history;
+
+    Team(Secret secret, History history) {
+      this.secret = secret;
+      this.history = history;
+    }
+  }
+
+  private static final Comparator<Relay.Bundle> BY_ID = new Comparator<Relay.Bundle>() {
+    @Override
+    public int compare(Relay.Bundle a, Relay.Bundle b) {
+      return Long.compare(sequence(a.id()), sequence(b.id()));
+    }
+  };
+
+  private final Map<Uuid, Team> teams = new ConcurrentHashMap<>();
+
+  // FEED
+  //
+  // Every team's history is read by every team, so bundles get their ids
+  // from one sequence shared by all teams ("ids") and a read merges the
+  // histories by id.
+  //
+  // Writes to different teams run at the same time, so they can finish out
+  // of id order. "written" is the highest id such that every write up to it
+  // has finished - stored, or failed and never to be stored. Ids that
+  // finished above it wait in "finished" until the gap below them closes.
+  // Reads stop at the value of "written" they saw when they started, so a
+  // slower write to another team can never land behind a reader's cursor.
+  // "feed" only guards this bookkeeping and is never held during history IO.
+  //
+  // Readers waiting for new bundles wait on "feed" and are woken whenever
+  // "written" goes up, whichever team wrote.
+  private final AtomicLong ids = new AtomicLong();
+  private final Object feed = new Object();
+  private long written = 0;
+  private final PriorityQueue<Long> finished = new PriorityQueue<>();
+
+  // The longest a reader may wait for new bundles, whatever it asks for, so
+  // that a connection is never held open forever.
+  static final long MAX_WAIT_MS = 30000;
 
   private final int maxHistory;
   private final int maxRead;
 
-  // Okay, some reasoning behind why I'm using a statically initialized linear
-  // generator for the ids for the relay server.
+  // Where to keep team logs on disk, or null to keep history in memory.
+  private final File directory;
+  private final long maxBytes;
+  private final long maxAge;
+
+  // Some reasoning behind using sequence numbers as the ids for the relay
+  // server.
   //
   //   Point A : The ids only need to be uniqiue for a single run time of the
   //             relay. Ids from the relay are only used as a position into its
-  //             history. If it repeats an id its not a problem.
+  //             history. If it repeats an id its not a problem. A relay that
+  //             keeps its history on disk carries on from the newest id in its
+  //             team logs.
   //
   //   Point B : The chance that the history would be so long that an id could
   //             be reused and appear along side's twin is way too small. The
@@ -121,21 +288,34 @@ public final class Server implements Relay {
   //             that there would need to be 2147483646 messages in memory. If
   //             each message was 160 bytes long the relay server would need
   //             over 319 GB of ram.
-  //
-  // As a side note, the ids start at 1 and not 0 to avoid the first id from
-  // matching the NULL id which is defined as (null, 0);
-
- private final Uuid.Generator idGenerator = new LinearUuidGenerator(null, 1, Integer.MAX_VALUE);
 
   // SERVER
   //
   // When initializing the server keep the following in mind.
-  //   - Keep "maxHistory" small enough to avoid using too much memory.
+  //   - Keep "maxHistory" small enough to avoid using too much memory. It is
+  //     the history kept for each team that does not ask for its own size.
   //   - Keep "maxRead" small enough to avoid any one client from connecting to
   //     the server for too long.
   public Server(int maxHistory, int maxRead) {
     this.maxHistory = Math.max(0, maxHistory);
     this.maxRead = Math.max(0, maxRead);
+    this.directory = null;
+    this.maxBytes = 0;
+    this.maxAge = 0;
+  }
+
+  // SERVER
+  //
+  // Keep each team's bundles in a MappedLog under "directory" so that they
+  // survive a restart. Rather than keeping a set number of bundles, a team's
+  // oldest bundles are dropped once its log is over "maxBytes" or they are
+  // older than "maxAge" milliseconds (zero for no age limit).
+  public Server(File directory, long maxBytes, long maxAge, int maxRead) {
+    this.maxHistory = 0;
+    this.maxRead = Math.max(0, maxRead);
+    this.directory = directory;
+    this.maxBytes = Math.max(0, maxBytes);
+    this.maxAge = Math.max(0, maxAge);
   }
 
   // ADD TEAM
@@ -144,15 +324,49 @@ public final class Server implements Relay {
   // team. If there is already a team entry, the secret will NOT be updated and the
   // call will return false.
   public boolean addTeam(Uuid id, Secret secret) {
+    return addTeam(id, secret, maxHistory);
+  }
+
+  // ADD TEAM
+  //
+  // The same as above but the team will keep up to "maxHistory" bundles rather
+  // than the relay's default. When the relay keeps its history on disk the
+  // size and age limits are used instead and "maxHistory" is ignored.
+  public boolean addTeam(Uuid id, Secret secret, int maxHistory) {
 
-    LOG.info("Adding team to relay %s", id);
+    LOG.info("Adding team to relay %s history=%d", id, maxHistory);
+
+    if (teams.containsKey(id)) {
+      LOG.info("Adding team failed - team id already exists");
+      return false;
+    }
+
+    final History history;
+
+    if (directory == null) {
+      history = new MemoryHistory(Math.max(0, maxHistory));
+    } else {
+      try {
+        history = MappedLog.open(new File(directory, id.toString()), maxBytes, maxAge);
+      } catch (IOException ex) {
+        LOG.error(ex, "Adding team failed - could not open log for team %s", id);
+        return false;
+      }
+    }
 
-    final boolean open = teamSecrets.get(id) == null;
+    // Carry on after the newest id already in the team's log.
+    final long newest = history.newest();
 
-    if (open) {
-      teamSecrets.put(id, secret);
+    for (long current = ids.get(); current < newest && !ids.compareAndSet(current, newest); ) {
+      current = ids.get();
     }
 
+    synchronized (feed) {
+      written = Math.max(written, newest);
+    }
+
+    final boolean open = teams.putIfAbsent(id, new Team(secret, history)) == null;
+
     LOG.info(open ?
              "Adding team was successful" :
              "Adding team failed - team id already exists");
@@ -172,7 +386,9 @@ public final class Server implements Relay {
                        Relay.Bundle.Component conversation,
                        Relay.Bundle.Component message) {
 
-    if (authenticate(teamId, teamSecret)) {
+    final Team team = authenticate(teamId, teamSecret);
+
+    if (team != null) {
 
       LOG.info(
           "Writing to server team=%s user=%s conversation=%s message=%s",
@@ -181,17 +397,21 @@ public final class Server implements Relay {
           conversation.id(),
           message.id());
 
-      if (history.size() >= maxHistory) {
-         history.remove();
+      long id = 0;
+
+      try {
+        synchronized (team) {
+          id = ids.incrementAndGet();
+          team.history.write(id, teamId, user, conversation, message);
+        }
+      } catch (IOException ex) {
+        LOG.error(ex, "Failed to write to history team=%s", teamId);
+        return false;
+      } finally {
+        finish(id);
       }
 
-      return history.offer(new Bundle(
-          idGenerator.make(),
-          Time.now(),
-          teamId,
-          user,
-          conversation,
-          message));
+      return true;
     } else {
 
       LOG.warning(
@@ -205,32 +425,85 @@ public final class Server implements Relay {
     }
   }
 
+  @Override
+  public int write(Uuid teamId, Secret teamSecret, List<? extends Relay.Bundle> bundles) {
+
+    final Team team = authenticate(teamId, teamSecret);
+
+    if (team == null) {
+      LOG.warning(
+          "Unauthorized write attempt to server team=%s bundles=%d",
+          teamId,
+          bundles.size());
+      return 0;
+    }
+
+    LOG.info("Writing to server team=%s bundles=%d", teamId, bundles.size());
+
+    // Ids taken by other teams in the meantime can fall between this batch's
+    // ids, so each one is kept to be finished.
+    final long[] taken = new long[bundles.size()];
+    int stored = 0;
+
+    try {
+      synchronized (team) {
+        for (final Relay.Bundle bundle : bundles) {
+          taken[stored] = ids.incrementAndGet();
+          team.history.write(taken[stored], teamId, bundle.user(), bundle.conversation(), bundle.message());
+          stored++;
+        }
+      }
+    } catch (IOException ex) {
+      LOG.error(ex, "Failed to write to history team=%s written=%d", teamId, stored);
+    } finally {
+      for (final long id : taken) {
+        finish(id);
+      }
+    }
+
+    return stored;
+  }
+
   @Override
   public Collection<Relay.Bundle> read(Uuid teamId, Secret teamSecret, Uuid root, int range) {
 
     final Collection<Relay.Bundle> found = new ArrayList<>();
 
-    if (authenticate(teamId, teamSecret)) {
+    final Team team = authenticate(teamId, teamSecret);
+
+    if (team != null) {
 
       LOG.info(
          "Request to read from server requested=%d allowed=%d",
           range,
           maxRead);
 
-      for (final Relay.Bundle message : history) {
+      final int count = Math.min(range, maxRead);
 
-        // Only add a message if there is room. We cannot stop
-        // searching in case we see the root later on.
-        if (found.size() < Math.min(range, maxRead)) {
-          found.add(message);
-        }
+      final long last;
+      synchronized (feed) {
+        last = written;
+      }
+
+      // Start from the oldest bundle held if "root" is not an id from this
+      // run of the relay.
+      final long after = root != null && root.root() == null && sequence(root) <= last ?
+          sequence(root) :
+          0;
+
+      final List<Relay.Bundle> merged = new ArrayList<>();
 
-        // If the start is found, drop all previous messages.
-        if (message.id().equals(root)) {
-          found.clear();
+      for (final Map.Entry<Uuid, Team> entry : teams.entrySet()) {
+        try {
+          merged.addAll(entry.getValue().history.read(after, last, count));
+        } catch (IOException ex) {
+          LOG.error(ex, "Failed to read from history team=%s", entry.getKey());
         }
       }
 
+      Collections.sort(merged, BY_ID);
+      found.addAll(merged.subList(0, Math.min(count, merged.size())));
+
       LOG.info(
           "Read request complete requested=%d fullfilled=%d",
           range,
@@ -246,7 +519,90 @@ public final class Server implements Relay {
     return found;
   }
 
-  private boolean authenticate(Uuid id, Secret secret) {
-    return id != null && secret != null && secret.equals(teamSecrets.get(id));
+  @Override
+  public Collection<Relay.Bundle> read(Uuid teamId, Secret teamSecret, Uuid root, int range, long timeout) {
+
+    final Team team = authenticate(teamId, teamSecret);
+
+    if (team == null) {
+      LOG.info(
+          "Unauthroized attempt to read from server team=%s",
+          teamId);
+      return new ArrayList<>();
+    }
+
+    final long deadline = System.currentTimeMillis() + Math.max(0, Math.min(timeout, MAX_WAIT_MS));
+
+    while (true) {
+
+      // Note the write count before reading so that a write that lands
+      // between the read and the wait still wakes the reader.
+      final long seen;
+      synchronized (feed) {
+        seen = written;
+      }
+
+      final Collection<Relay.Bundle> found = read(teamId, teamSecret, root, range);
+
+      if (!found.isEmpty() || System.currentTimeMillis() >= deadline) {
+        return found;
+      }
+
+      try {
+        await(seen, deadline);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        return found;
+      }
+    }
+  }
+
+  // FINISH
+  //
+  // Mark the write with the given id as done and move "written" past every
+  // id that is now finished with no unfinished id below it. Ids of zero
+  // (never taken) and ids already covered are ignored.
+  private void finish(long id) {
+    synchronized (feed) {
+
+      if (id > written) {
+        finished.add(id);
+      }
+
+      final long before = written;
+
+      while (!finished.isEmpty() && finished.peek() <= written + 1) {
+        written = Math.max(written, finished.poll());
+      }
+
+      if (written != before) {
+        feed.notifyAll();
+      }
+    }
+  }
+
+  // AWAIT
+  //
+  // Wait until any team has written since "seen" or the deadline passes.
+  private void await(long seen, long deadline) throws InterruptedException {
+    synchronized (feed) {
+      long remaining = deadline - System.currentTimeMillis();
+      while (written == seen && remaining > 0) {
+        feed.wait(remaining);
+        remaining = deadline - System.currentTimeMillis();
+      }
+    }
+  }
+
+  // AUTHENTICATE
+  //
+  // Get the team with the given id if the secret matches its secret, or null.
+  private Team authenticate(Uuid id, Secret secret) {
+    final Team team = id == null ? null : teams.get(id);
+    return team != null && team.secret.equals(secret) ? team : null;
+  }
+
+  private static long sequence(Uuid id) {
+    return id.id() & 0xFFFFFFFFL;
   }
 }
@@ -17,7 +17,9 @@ package codeu.chat.relay;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 import codeu.chat.common.NetworkCode;
 import codeu.chat.common.Relay;
@@ -115,7 +117,9 @@ public final class ServerFrontEnd {
 
     switch (Serializers.INTEGER.read(connection.in())) {
       case NetworkCode.RELAY_READ_REQUEST: handleReadMessage(connection); break;
+      case NetworkCode.RELAY_WAIT_READ_REQUEST: handleWaitReadMessage(connection); break;
       case NetworkCode.RELAY_WRITE_REQUEST: handleWriteMessage(connection); break;
+      case NetworkCode.RELAY_WRITE_BATCH_REQUEST: handleWriteBatchMessage(connection); break;
     }
 
     LOG.info("Handling Connection - end");
@@ -146,6 +150,33 @@ public final class ServerFrontEnd {
     LOG.info("Handling Read Message - end");
   }
 
+  private void handleWaitReadMessage(Connection connection) throws IOException {
+
+    LOG.info("Handling Wait Read Message - start");
+
+    final Uuid teamId = Uuid.SERIALIZER.read(connection.in());
+    final Secret teamSecret = Secret.SERIALIZER.read(connection.in());
+    final Uuid root = Uuid.SERIALIZER.read(connection.in());
+    final int range = Serializers.INTEGER.read(connection.in());
+    final long timeout = Serializers.LONG.read(connection.in());
+
+    LOG.info(
+        "Reading team=%s root=%s range=%d timeout=%d",
+        teamId,
+        root,
+        range,
+        timeout);
+
+    final Collection<Relay.Bundle> result = backEnd.read(teamId, teamSecret, root, range, timeout);
+
+    LOG.info("Reading result.size=%d", result.size());
+
+    Serializers.INTEGER.write(connection.out(), NetworkCode.RELAY_WAIT_READ_RESPONSE);
+    Serializers.collection(BUNDLE_SERIALIZER).write(connection.out(), result);
+
+    LOG.info("Handling Wait Read Message - end");
+  }
+
   private void handleWriteMessage(Connection connection) throws IOException {
 
     LOG.info("Handling Write Message - start");
@@ -176,4 +207,51 @@ public final class ServerFrontEnd {
 
     LOG.info("Handling Write Message - end");
   }
+
+  // The batch frame is the team id and secret, the number of bundles, and then
+  // the user, conversation, and message components of each bundle. The reply
+  // is how many of the bundles were written.
+  private void handleWriteBatchMessage(Connection connection) throws IOException {
+
+    LOG.info("Handling Write Batch Message - start");
+
+    final Uuid teamId = Uuid.SERIALIZER.read(connection.in());
+    final Secret teamSecret = Secret.SERIALIZER.read(connection.in());
+    final int count = Serializers.INTEGER.read(connection.in());
+
+    final List<Relay.Bundle> bundles = new ArrayList<>(Math.max(0, Math.min(count, 1024)));
+
+    for (int i = 0; i < count; i++) {
+
+      final Relay.Bundle.Component user = COMPONENT_SERIALIZER.read(connection.in());
+      final Relay.Bundle.Component conversation = COMPONENT_SERIALIZER.read(connection.in());
+      final Relay.Bundle.Component message = COMPONENT_SERIALIZER.read(connection.in());
+
+      bundles.add(new Relay.Bundle() {
+        @Override
+        public Uuid id() { return null; }
+        @Override
+        public Time time() { return null; }
+        @Override
+        public Uuid team() { return teamId; }
+        @Override
+        public Relay.Bundle.Component user() { return user; }
+        @Override
+        public Relay.Bundle.Component conversation() { return conversation; }
+        @Override
+        public Relay.Bundle.Component message() { return message; }
+      });
+    }
+
+    LOG.info("Writing team=%s bundles=%d", teamId, bundles.size());
+
+    final int written = backEnd.write(teamId, teamSecret, bundles);
+
+    LOG.info("Writing result written=%d", written);
+
+    Serializers.INTEGER.write(connection.out(), NetworkCode.RELAY_WRITE_BATCH_RESPONSE);
+    Serializers.INTEGER.write(connection.out(), written);
+
+    LOG.info("Handling Write Batch Message - end");
+  }
 }
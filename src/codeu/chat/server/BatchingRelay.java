@@ -0,0 +1,271 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import codeu.chat.common.Relay;
+import codeu.chat.common.Secret;
+import codeu.chat.util.Logger;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+// BATCHING RELAY
+//
+// Wraps another relay so that writes are sent in batches. "write" only puts
+// the bundle in a queue and returns. A background thread waits for the first
+// bundle, gathers whatever else arrives within "window" milliseconds (up to
+// "maxBatch" bundles) and sends them all with one call to the wrapped relay's
+// batch write. For a RemoteRelay that is one connection per batch instead of
+// one per message.
+//
+// If the relay does not take the whole batch, the rest of it is sent again
+// after a short wait, doubling the wait each time. After MAX_ATTEMPTS tries the
+// rest of the batch is dropped. If the queue fills up while the relay is
+// unreachable, new writes are rejected (return false) rather than blocking
+// the caller.
+//
+// Reads and "pack" go straight to the wrapped relay.
+public final class BatchingRelay implements Relay {
+
+  private final static Logger.Log LOG = Logger.newLog(BatchingRelay.class);
+
+  private static final int MAX_ATTEMPTS = 5;
+  private static final long FIRST_RETRY_MS = 100;
+
+  // A bundle waiting to be sent. The relay gives it its id and time.
+  private static final class Pending implements Relay.Bundle {
+
+    final Secret secret;
+
+    private final Uuid team;
+    private final Relay.Bundle.Component user;
+    private final Relay.Bundle.Component conversation;
+    private final Relay.Bundle.Component message;
+
+    Pending(Uuid team,
+            Secret secret,
+            Relay.Bundle.Component user,
+            Relay.Bundle.Component conversation,
+            Relay.Bundle.Component message) {
+      this.team = team;
+      this.secret = secret;
+      this.user = user;
+      this.conversation = conversation;
+      this.message = message;
+    }
+
+    @Override
+    public Uuid id() { return null; }
+
+    @Override
+    public Time time() { return null; }
+
+    @Override
+    public Uuid team() { return team; }
+
+    @Override
+    public Relay.Bundle.Component user() { return user; }
+
+    @Override
+    public Relay.Bundle.Component conversation() { return conversation; }
+
+    @Override
+    public Relay.Bundle.Component message() { return message; }
+  }
+
+  private final Relay relay;
+  private final int maxBatch;
+  private final long window;
+  private final BlockingQueue<Pending> queue;
+
+  private final Thread sender = new Thread("relay-writer") {
+    @Override
+    public void run() {
+      final List<Pending> batch = new ArrayList<>();
+      while (true) {
+        try {
+          gather(batch);
+          send(batch);
+        } catch (InterruptedException ex) {
+          LOG.info("Relay writer stopped with %d bundles queued", queue.size());
+          return;
+        } catch (Exception ex) {
+          LOG.error(ex, "Relay writer dropped %d bundles", batch.size());
+        }
+        batch.clear();
+      }
+    }
+  };
+
+  public BatchingRelay(Relay relay) {
+    this(relay, 64, 20, 4096);
+  }
+
+  public BatchingRelay(Relay relay, int maxBatch, long window, int maxQueue) {
+    this.relay = relay;
+    this.maxBatch = maxBatch;
+    this.window = window;
+    this.queue = new ArrayBlockingQueue<>(maxQueue);
+
+    sender.setDaemon(true);
+    sender.start();
+  }
+
+  // QUEUED
+  //
+  // How many bundles are waiting to be sent, not counting the batch being sent.
+  public int queued() {
+    return queue.size();
+  }
+
+  // CLOSE
+  //
+  // Stop the background thread. Anything still queued is not sent.
+  public void close() {
+    sender.interrupt();
+  }
+
+  @Override
+  public Relay.Bundle.Component pack(Uuid id, String text, Time time) {
+    return relay.pack(id, text, time);
+  }
+
+  @Override
+  public boolean write(Uuid teamId,
+                       Secret teamSecret,
+                       Relay.Bundle.Component user,
+                       Relay.Bundle.Component conversation,
+                       Relay.Bundle.Component message) {
+
+    final boolean queued = queue.offer(new Pending(teamId, teamSecret, user, conversation, message));
+
+    if (!queued) {
+      LOG.warning("Relay write queue is full, dropping message %s", message.id());
+    }
+
+    return queued;
+  }
+
+  @Override
+  public int write(Uuid teamId, Secret teamSecret, List<? extends Relay.Bundle> bundles) {
+    int written = 0;
+    for (final Relay.Bundle bundle : bundles) {
+      if (!write(teamId, teamSecret, bundle.user(), bundle.conversation(), bundle.message())) {
+        break;
+      }
+      written++;
+    }
+    return written;
+  }
+
+  @Override
+  public Collection<Relay.Bundle> read(Uuid teamId, Secret teamSecret, Uuid root, int range) {
+    return relay.read(teamId, teamSecret, root, range);
+  }
+
+  @Override
+  public Collection<Relay.Bundle> read(Uuid teamId, Secret teamSecret, Uuid root, int range, long timeout) {
+    return relay.read(teamId, teamSecret, root, range, timeout);
+  }
+
+  // GATHER
+  //
+  // Wait for a bundle and then collect more for up to "window" milliseconds or
+  // until the batch is full.
+  private void gather(List<Pending> batch) throws InterruptedException {
+
+    batch.add(queue.take());
+    queue.drainTo(batch, maxBatch - batch.size());
+
+    final long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(window);
+
+    while (batch.size() < maxBatch) {
+      final long remaining = end - System.nanoTime();
+      final Pending next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : null;
+      if (next == null) {
+        break;
+      }
+      batch.add(next);
+      queue.drainTo(batch, maxBatch - batch.size());
+    }
+  }
+
+  // SEND
+  //
+  // Send a batch. A batch holds bundles for one team, so if bundles for
+  // another team were gathered they are sent separately.
+  private void send(List<Pending> batch) throws InterruptedException {
+
+    int start = 0;
+
+    while (start < batch.size()) {
+
+      final Pending first = batch.get(start);
+
+      int end = start + 1;
+      while (end < batch.size() &&
+             Uuid.equals(batch.get(end).team(), first.team()) &&
+             batch.get(end).secret.equals(first.secret)) {
+        end++;
+      }
+
+      sendTeam(first.team(), first.secret, batch.subList(start, end));
+      start = end;
+    }
+  }
+
+  private void sendTeam(Uuid team, Secret secret, List<Pending> bundles) throws InterruptedException {
+
+    final long startMs = System.currentTimeMillis();
+
+    int sent = 0;
+    long wait = FIRST_RETRY_MS;
+
+    for (int attempt = 1; sent < bundles.size(); attempt++) {
+
+      sent += relay.write(team, secret, bundles.subList(sent, bundles.size()));
+
+      if (sent < bundles.size()) {
+
+        if (attempt == MAX_ATTEMPTS) {
+          LOG.error("Relay did not take %d of %d bundles after %d attempts, dropping them",
+                    bundles.size() - sent,
+                    bundles.size(),
+                    attempt);
+          return;
+        }
+
+        LOG.warning("Relay took %d of %d bundles, retrying in %d ms",
+                    sent,
+                    bundles.size(),
+                    wait);
+
+        Thread.sleep(wait);
+        wait *= 2;
+      }
+    }
+
+    LOG.info("Sent %d bundles to relay in %d ms queued=%d",
+             sent,
+             System.currentTimeMillis() - startMs,
+             queue.size());
+  }
+}
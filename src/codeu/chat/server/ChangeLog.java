@@ -0,0 +1,119 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import codeu.chat.util.Uuid;
+
+// CHANGE LOG
+//
+// Numbers every change to the model so that clients can ask for just the
+// changes they have not seen. Each change records what kind of thing changed
+// and its id, not the new value - the current value is looked up when a
+// client asks for it.
+//
+// Only the newest "capacity" changes are kept. A client that has fallen
+// further behind than that, or that is asking about an earlier run of the
+// server (a different epoch), has to start over from a full listing.
+public final class ChangeLog {
+
+  public static final int USER = 1;
+  public static final int CONVERSATION = 2;
+  public static final int MESSAGE = 3;
+  public static final int LIKE = 4;
+  public static final int ACCESS = 5;
+
+  public static final int DEFAULT_CAPACITY = 1 << 16;
+
+  public static final class Change {
+
+    public final long seq;
+    public final int type;
+    public final Uuid id;
+
+    private Change(long seq, int type, Uuid id) {
+      this.seq = seq;
+      this.type = type;
+      this.id = id;
+    }
+  }
+
+  private final long epoch = new Random().nextLong();
+
+  private final int[] types;
+  private final Uuid[] ids;
+
+  // The sequence number the next change will get. Zero means "nothing seen",
+  // so the first change is one.
+  private long next = 1;
+
+  public ChangeLog() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  public ChangeLog(int capacity) {
+    this.types = new int[capacity];
+    this.ids = new Uuid[capacity];
+  }
+
+  // EPOCH
+  //
+  // Different for every run of the server, as sequence numbers start over.
+  public long epoch() {
+    return epoch;
+  }
+
+  // APPEND
+  //
+  // Record a change. Call this after the change is made so that anyone who
+  // reads the record will find the new value.
+  public synchronized long append(int type, Uuid id) {
+    final int slot = (int) (next % types.length);
+    types[slot] = type;
+    ids[slot] = id;
+    return next++;
+  }
+
+  // LATEST
+  //
+  // The sequence number of the newest change, or zero if there are none.
+  public synchronized long latest() {
+    return next - 1;
+  }
+
+  // SINCE
+  //
+  // Up to "limit" changes that came after "seq", oldest first. Returns null
+  // if some of those changes are no longer kept.
+  public synchronized List<Change> since(long seq, int limit) {
+
+    final long oldest = Math.max(1, next - types.length);
+
+    if (seq + 1 < oldest || seq > next - 1) {
+      return null;
+    }
+
+    final List<Change> changes = new ArrayList<>();
+    for (long at = seq + 1; at < next && changes.size() < limit; at++) {
+      final int slot = (int) (at % types.length);
+      changes.add(new Change(at, types[slot], ids[slot]));
+    }
+
+    return changes;
+  }
+}
@@ -19,6 +19,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import codeu.chat.util.AccessLevel;
 import codeu.chat.common.*;
@@ -30,14 +31,48 @@ import com.google.gson.Gson;
 
 public final class Controller implements RawController, BasicController {
 
+  // LISTENER
+  //
+  // Told about changes once they have been committed. Listeners are called on
+  // the thread that made the change, so they should hand off any slow work.
+  public interface Listener {
+    void onNewMessage(Message message);
+  }
+
   private final static Logger.Log LOG = Logger.newLog(Controller.class);
 
+  private final Collection<Listener> listeners = new CopyOnWriteArrayList<>();
+
   private final Model model;
   private final Uuid.Generator uuidGenerator;
 
+  // Held while checking that an id is free and adding the new value to the
+  // model so that two writers can never claim the same id. It is only held for
+  // the check and the insert, so writers do not wait on each other for long.
+  private final Object idLock = new Object();
+
+  // Every change is appended to the log while the lock that orders it is
+  // still held, so the log sees changes in the same order as the model. The
+  // caller then waits for the log to be synced after letting go of the lock.
+  // The log may be null, in which case changes are only made in memory.
+  private final WriteAheadLog log;
+
   public Controller(Uuid serverId, Model model) {
+    this(serverId, model, null);
+  }
+
+  public Controller(Uuid serverId, Model model, WriteAheadLog log) {
     this.model = model;
     this.uuidGenerator = new RandomUuidGenerator(serverId, System.currentTimeMillis());
+    this.log = log;
+  }
+
+  public void addListener(Listener listener) {
+    listeners.add(listener);
+  }
+
+  public void removeListener(Listener listener) {
+    listeners.remove(listener);
   }
 
   // Used to load the saved messages
@@ -67,20 +102,20 @@ public final class Controller implements RawController, BasicController {
   public int likeMessage(Uuid lastMsgId) {
     Message msg = findMsgById(lastMsgId);
     if (msg != null) {
-      msg.likes = msg.likes + 1;
+      final long position;
+      synchronized (msg) {
+        msg.likes = msg.likes + 1;
+        position = log == null ? 0 : log.appendLike(msg.id, msg.likes);
+      }
+      model.changes().append(ChangeLog.LIKE, msg.id);
+      commit(position);
     }
 
     return msg.likes;
   }
 
   private Message findMsgById(Uuid msgId) {
-    for (Message msg : model.currentMessages) {
-      if (msg.id.equals(msgId)) {
-        return msg;
-      }
-    }
-
-    return null;
+    return model.messageById().first(msgId);
   }
 
   @Override
@@ -100,12 +135,27 @@ public final class Controller implements RawController, BasicController {
     final ConversationPayload foundConversation = model.conversationPayloadById().first(conversation);
 
     Message message = null;
+    final long position;
 
-    if (foundUser != null && foundConversation != null && isIdFree(id)) {
+    if (foundUser == null || foundConversation == null) {
+      return null;
+    }
+
+    // Messages in the same conversation must be linked one at a time, but
+    // messages in different conversations can be added at the same time.
+    synchronized (foundConversation) {
 
-      message = new Message(id, Uuid.NULL, Uuid.NULL, creationTime, author, body, foundConversation.id, 0);
+      synchronized (idLock) {
+        if (isIdFree(id)) {
+          message = new Message(id, Uuid.NULL, Uuid.NULL, creationTime, author, body, foundConversation.id, 0);
+          model.add(message);
+        }
+      }
+
+      if (message == null) {
+        return null;
+      }
 
-      model.add(message);
       LOG.info("Message added: %s", message.id);
 
       // Find and update the previous "last" message so that it's "next" value
@@ -120,6 +170,7 @@ public final class Controller implements RawController, BasicController {
       } else {
         final Message lastMessage = model.messageById().first(foundConversation.lastMessage);
         lastMessage.next = message.id;
+        model.changes().append(ChangeLog.MESSAGE, lastMessage.id);
       }
 
       // If the first message points to NULL it means that the conversation was empty and that
@@ -134,6 +185,14 @@ public final class Controller implements RawController, BasicController {
       // Update the conversation to point to the new last message as it has changed.
 
       foundConversation.lastMessage = message.id;
+
+      position = log == null ? 0 : log.appendMessage(message);
+    }
+
+    commit(position);
+
+    for (final Listener listener : listeners) {
+      listener.onNewMessage(message);
     }
 
     return message;
@@ -143,11 +202,19 @@ public final class Controller implements RawController, BasicController {
   public User newUser(Uuid id, String name, Time creationTime) {
 
     User user = null;
+    long position = 0;
 
-    if (isIdFree(id)) {
+    synchronized (idLock) {
+      if (isIdFree(id)) {
+        user = new User(id, name, creationTime);
+        model.add(user);
+        position = log == null ? 0 : log.appendUser(user);
+      }
+    }
 
-      user = new User(id, name, creationTime);
-      model.add(user);
+    if (user != null) {
+
+      commit(position);
 
       LOG.info(
           "newUser success (user.id=%s user.name=%s user.time=%s)",
@@ -170,22 +237,21 @@ public final class Controller implements RawController, BasicController {
   @Override
   public String changeUserAccess(Uuid user, AccessLevel newAccess, Uuid convoId) {
       ConversationHeader convo = findConvoById(convoId);
-      System.out.println(convo.title);
       if (convo != null) {
-        convo.usersInConvo.put(user, newAccess);
+        final long position;
+        synchronized (convo) {
+          convo.usersInConvo.put(user, newAccess);
+          position = log == null ? 0 : log.appendAccess(user, newAccess, convo.id);
+        }
+        model.changes().append(ChangeLog.ACCESS, convo.id);
+        commit(position);
       }
 
       return user.toString() + ":" + newAccess.toString();
   }
 
   public ConversationHeader findConvoById(Uuid convoId) {
-    for (ConversationHeader convo : model.currentConversations) {
-      if (convo.id.equals(convoId)) {
-        return convo;
-      }
-    }
-
-    return null;
+    return model.conversationById().first(convoId);
   }
 
   @Override
@@ -194,17 +260,42 @@ public final class Controller implements RawController, BasicController {
     final User foundOwner = model.userById().first(owner);
 
     ConversationHeader conversation = null;
+    long position = 0;
+
+    if (foundOwner != null) {
+      synchronized (idLock) {
+        if (isIdFree(id)) {
+          conversation = new ConversationHeader(id, owner, creationTime, title, defaultAccessLevel, usersInConvo);
+          model.add(conversation);
+          position = log == null ? 0 : log.appendConversation(conversation);
+        }
+      }
+    }
 
-    if (foundOwner != null && isIdFree(id)) {
-      conversation = new ConversationHeader(id, owner, creationTime, title, defaultAccessLevel, usersInConvo);
-
-      model.add(conversation);
+    if (conversation != null) {
+      commit(position);
       LOG.info("Conversation added: " + id);
     }
 
     return conversation;
   }
 
+  // COMMIT
+  //
+  // Wait for a change to reach the disk. If the log cannot be written the
+  // change is kept in memory, the log keeps retrying it and the error is
+  // logged - there is no way to report it back through the controller
+  // interfaces.
+  private void commit(long position) {
+    if (log != null) {
+      try {
+        log.commit(position);
+      } catch (IOException ex) {
+        LOG.error(ex, "Failed to write change to the log.");
+      }
+    }
+  }
+
   private Uuid createId() {
 
     Uuid candidate;
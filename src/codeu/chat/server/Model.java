@@ -16,27 +16,38 @@ package codeu.chat.server;
 
 import java.io.*;
 
-import java.util.ArrayList;
 import java.util.Comparator;
-import java.util.LinkedList;
-import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import codeu.chat.common.*;
 import codeu.chat.util.Json;
 import codeu.chat.util.Time;
 import codeu.chat.util.Uuid;
-import codeu.chat.util.store.Store;
+import codeu.chat.util.store.ArrayStore;
+import codeu.chat.util.store.ConcurrentStore;
+import codeu.chat.util.store.HashStore;
+import codeu.chat.util.store.InvertedIndex;
+import codeu.chat.util.store.LookupAccessor;
+import codeu.chat.util.store.OrderedStoreAccessor;
+import codeu.chat.util.store.SearchAccessor;
 import codeu.chat.util.store.StoreAccessor;
 import com.google.gson.Gson;
 
+// MODEL
+//
+// All the users, conversations, and messages known to the server. The model
+// is safe to use from many threads at once. Readers never block and never see
+// a half-finished insert, even while writers are adding to the model. Readers
+// may briefly see a new value in one index before it appears in another.
+//
+// Ids are only ever looked up exactly, so the id indexes are HashStores.
+// Time and text indexes need ordered range queries and are ConcurrentStores.
+// Messages within a conversation are almost always added in time order, so
+// they are kept in ArrayStores, which can also count and take the newest
+// messages cheaply. Message text is searched by word with an InvertedIndex.
 public final class Model {
 
-
-  public ArrayList<User> currentUsers = new ArrayList<>();
-  public ArrayList<Message> currentMessages = new ArrayList<>();
-  public ArrayList<ConversationHeader> currentConversations = new ArrayList<>();
-
-
   //Used to load the saved users and conversations
   public void refreshData() {
     Gson gson = new Gson();
@@ -61,23 +72,6 @@ public final class Model {
     }
   }
 
-  private static final Comparator<Uuid> UUID_COMPARE = new Comparator<Uuid>() {
-
-
-    @Override
-    public int compare(Uuid a, Uuid b) {
-
-      if (a == b) { return 0; }
-
-      if (a == null && b != null) { return -1; }
-
-      if (a != null && b == null) { return 1; }
-
-      final int order = Integer.compare(a.id(), b.id());
-      return order == 0 ? compare(a.root(), b.root()) : order;
-    }
-  };
-
   private static final Comparator<Time> TIME_COMPARE = new Comparator<Time>() {
     @Override
     public int compare(Time a, Time b) {
@@ -87,33 +81,44 @@ public final class Model {
 
   private static final Comparator<String> STRING_COMPARE = String.CASE_INSENSITIVE_ORDER;
 
-  private final Store<Uuid, User> userById = new Store<>(UUID_COMPARE);
-  private final Store<Time, User> userByTime = new Store<>(TIME_COMPARE);
-  private final Store<String, User> userByText = new Store<>(STRING_COMPARE);
+  // Every add is recorded here. Changes made to values after they are added
+  // (likes and access levels) are recorded by the controller.
+  private final ChangeLog changes = new ChangeLog();
+
+  private final HashStore<Uuid, User> userById = new HashStore<>();
+  private final ConcurrentStore<Time, User> userByTime = new ConcurrentStore<>(TIME_COMPARE);
+  private final ConcurrentStore<String, User> userByText = new ConcurrentStore<>(STRING_COMPARE);
 
-  private final Store<Uuid, ConversationHeader> conversationById = new Store<>(UUID_COMPARE);
-  private final Store<Time, ConversationHeader> conversationByTime = new Store<>(TIME_COMPARE);
-  private final Store<String, ConversationHeader> conversationByText = new Store<>(STRING_COMPARE);
+  private final HashStore<Uuid, ConversationHeader> conversationById = new HashStore<>();
+  private final ConcurrentStore<Time, ConversationHeader> conversationByTime = new ConcurrentStore<>(TIME_COMPARE);
+  private final ConcurrentStore<String, ConversationHeader> conversationByText = new ConcurrentStore<>(STRING_COMPARE);
 
-  private final Store<Uuid, ConversationPayload> conversationPayloadById = new Store<>(UUID_COMPARE);
+  private final HashStore<Uuid, ConversationPayload> conversationPayloadById = new HashStore<>();
 
-  private final Store<Uuid, Message> messageById = new Store<>(UUID_COMPARE);
-  private final Store<Time, Message> messageByTime = new Store<>(TIME_COMPARE);
-  private final Store<String, Message> messageByText = new Store<>(STRING_COMPARE);
+  private final HashStore<Uuid, Message> messageById = new HashStore<>();
+  private final ConcurrentStore<Time, Message> messageByTime = new ConcurrentStore<>(TIME_COMPARE);
+  private final InvertedIndex<Message> messageByTerm = new InvertedIndex<>();
+
+  // Each conversation's messages ordered by the time they were sent. Created
+  // with the conversation so that readers never have to add one.
+  private final ConcurrentMap<Uuid, ArrayStore<Time, Message>> messageByConversation = new ConcurrentHashMap<>();
 
   public void add(User user) {
     userById.insert(user.id, user);
     userByTime.insert(user.creation, user);
     userByText.insert(user.name, user);
 
-    //add the user to an array that is used to save to a text file
-    currentUsers.add(user);
+    changes.append(ChangeLog.USER, user.id);
   }
 
-  public StoreAccessor<Uuid, User> userById() {
+  public LookupAccessor<Uuid, User> userById() {
     return userById;
   }
 
+  public int users() {
+    return userById.keys();
+  }
+
   public StoreAccessor<Time, User> userByTime() {
     return userByTime;
   }
@@ -123,18 +128,30 @@ public final class Model {
   }
 
   public void add(ConversationHeader conversation) {
+    // Access levels can be changed while other threads are reading them, so
+    // make sure the map is safe for that. Conversations loaded from disk will
+    // not have come through the constructor.
+    if (!(conversation.usersInConvo instanceof ConcurrentHashMap)) {
+      conversation.usersInConvo = new ConcurrentHashMap<>(conversation.usersInConvo);
+    }
+
     conversationById.insert(conversation.id, conversation);
     conversationByTime.insert(conversation.creation, conversation);
     conversationByText.insert(conversation.title, conversation);
     conversationPayloadById.insert(conversation.id, new ConversationPayload(conversation.id));
+    messageByConversation.putIfAbsent(conversation.id, new ArrayStore<Time, Message>(TIME_COMPARE));
 
-    currentConversations.add(conversation);
+    changes.append(ChangeLog.CONVERSATION, conversation.id);
   }
 
-  public StoreAccessor<Uuid, ConversationHeader> conversationById() {
+  public LookupAccessor<Uuid, ConversationHeader> conversationById() {
     return conversationById;
   }
 
+  public int conversations() {
+    return conversationById.keys();
+  }
+
   public StoreAccessor<Time, ConversationHeader> conversationByTime() {
     return conversationByTime;
   }
@@ -143,28 +160,49 @@ public final class Model {
     return conversationByText;
   }
 
-  public StoreAccessor<Uuid, ConversationPayload> conversationPayloadById() {
+  public LookupAccessor<Uuid, ConversationPayload> conversationPayloadById() {
     return conversationPayloadById;
   }
 
   public void add(Message message) {
     messageById.insert(message.id, message);
     messageByTime.insert(message.creation, message);
-    messageByText.insert(message.content, message);
+    messageByTerm.add(message, message.content);
 
-    //add the message to an array that is used to save to a text file
-    currentMessages.add(message);
+    final ArrayStore<Time, Message> conversation = messageByConversation.get(message.convoId);
+    if (conversation != null) {
+      conversation.insert(message.creation, message);
+    }
+
+    changes.append(ChangeLog.MESSAGE, message.id);
   }
 
-  public StoreAccessor<Uuid, Message> messageById() {
+  public LookupAccessor<Uuid, Message> messageById() {
     return messageById;
   }
 
+  public int messages() {
+    return messageById.keys();
+  }
+
   public StoreAccessor<Time, Message> messageByTime() {
     return messageByTime;
   }
 
-  public StoreAccessor<String, Message> messageByText() {
-    return messageByText;
+  public SearchAccessor<Message> messageByTerm() {
+    return messageByTerm;
+  }
+
+  // MESSAGE BY CONVERSATION
+  //
+  // The messages in one conversation ordered by time, or null if there is no
+  // such conversation. Besides the usual lookups this can count the messages
+  // in any time range and return the newest messages in O(log n + k).
+  public OrderedStoreAccessor<Time, Message> messageByConversation(Uuid conversation) {
+    return messageByConversation.get(conversation);
+  }
+
+  public ChangeLog changes() {
+    return changes;
   }
 }
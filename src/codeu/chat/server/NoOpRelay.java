@@ -16,6 +16,7 @@ package codeu.chat.server;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 import codeu.chat.common.Relay;
 import codeu.chat.common.Secret;
@@ -56,6 +57,11 @@ public final class NoOpRelay implements Relay {
     return true;
   }
 
+  @Override
+  public int write(Uuid teamId, Secret teamSecret, List<? extends Relay.Bundle> bundles) {
+    return bundles.size();
+  }
+
   @Override
   public Collection<Relay.Bundle> read(Uuid teamId,
                                        Secret teamSecret,
@@ -64,4 +70,14 @@ public final class NoOpRelay implements Relay {
 
     return new ArrayList<Relay.Bundle>();
   }
+
+  @Override
+  public Collection<Relay.Bundle> read(Uuid teamId,
+                                       Secret teamSecret,
+                                       Uuid root,
+                                       int range,
+                                       long timeout) {
+
+    return new ArrayList<Relay.Bundle>();
+  }
 }
@@ -19,11 +19,13 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 import codeu.chat.common.NetworkCode;
 import codeu.chat.common.Relay;
 import codeu.chat.common.Secret;
 import codeu.chat.util.Logger;
+import codeu.chat.util.Metrics;
 import codeu.chat.util.Serializer;
 import codeu.chat.util.Serializers;
 import codeu.chat.util.Time;
@@ -35,6 +37,12 @@ public final class RemoteRelay implements Relay {
 
   private final static Logger.Log LOG = Logger.newLog(RemoteRelay.class);
 
+  // Round trips to the relay, from connecting to reading the reply.
+  private static final Metrics.Metric WRITE = Metrics.get("relay.write");
+  private static final Metrics.Metric WRITE_BATCH = Metrics.get("relay.write_batch");
+  private static final Metrics.Metric READ = Metrics.get("relay.read");
+  private static final Metrics.Metric WAIT_READ = Metrics.get("relay.wait_read");
+
   private static final class Component implements Relay.Bundle.Component {
 
     private final Uuid id;
@@ -120,6 +128,11 @@ public final class RemoteRelay implements Relay {
 
   private final ConnectionSource source;
 
+  // Relays that predate RELAY_WAIT_READ_REQUEST close the connection without
+  // answering it. Once a waiting read has failed and a plain read to the same
+  // relay has worked, every later read is sent as a plain read.
+  private volatile boolean waitUnsupported = false;
+
   public RemoteRelay(ConnectionSource source) {
     this.source = source;
   }
@@ -138,6 +151,8 @@ public final class RemoteRelay implements Relay {
 
     boolean result = false;
 
+    final long start = System.nanoTime();
+
     try (final Connection connection = source.connect()) {
 
       Serializers.INTEGER.write(connection.out(), NetworkCode.RELAY_WRITE_REQUEST);
@@ -151,18 +166,66 @@ public final class RemoteRelay implements Relay {
         result = Serializers.BOOLEAN.read(connection.in());
       } else {
         LOG.error("Server did not handle RELAY_WRITE_REQUEST");
+        WRITE.error();
       }
     } catch (Exception ex) {
+      WRITE.error();
       LOG.error(ex, "Unexpected error when sending RELAY_WRITE_REQUEST");;
     }
 
+    WRITE.record(start);
+
+    return result;
+  }
+
+  @Override
+  public int write(Uuid teamId, Secret teamSecret, List<? extends Relay.Bundle> bundles) {
+
+    int result = 0;
+
+    final long start = System.nanoTime();
+
+    try (final Connection connection = source.connect()) {
+
+      Serializers.INTEGER.write(connection.out(), NetworkCode.RELAY_WRITE_BATCH_REQUEST);
+      Uuid.SERIALIZER.write(connection.out(), teamId);
+      Secret.SERIALIZER.write(connection.out(), teamSecret);
+      Serializers.INTEGER.write(connection.out(), bundles.size());
+
+      for (final Relay.Bundle bundle : bundles) {
+        COMPONENT_SERIALIZER.write(connection.out(), bundle.user());
+        COMPONENT_SERIALIZER.write(connection.out(), bundle.conversation());
+        COMPONENT_SERIALIZER.write(connection.out(), bundle.message());
+      }
+
+      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.RELAY_WRITE_BATCH_RESPONSE) {
+        result = Serializers.INTEGER.read(connection.in());
+      } else {
+        LOG.error("Server did not handle RELAY_WRITE_BATCH_REQUEST");
+        WRITE_BATCH.error();
+      }
+    } catch (Exception ex) {
+      WRITE_BATCH.error();
+      LOG.error(ex, "Unexpected error when sending RELAY_WRITE_BATCH_REQUEST");
+    }
+
+    WRITE_BATCH.record(start);
+
     return result;
   }
 
   @Override
   public Collection<Relay.Bundle> read(Uuid teamId, Secret teamSecret, Uuid root, int range) {
+    final Collection<Relay.Bundle> result = plainRead(teamId, teamSecret, root, range);
+    return result == null ? new ArrayList<Relay.Bundle>() : result;
+  }
+
+  // Returns null if the relay could not be read.
+  private Collection<Relay.Bundle> plainRead(Uuid teamId, Secret teamSecret, Uuid root, int range) {
 
-    final Collection<Relay.Bundle> result = new ArrayList<>();
+    Collection<Relay.Bundle> result = null;
+
+    final long start = System.nanoTime();
 
     try (final Connection connection = source.connect()) {
 
@@ -173,14 +236,72 @@ public final class RemoteRelay implements Relay {
       Serializers.INTEGER.write(connection.out(), range);
 
       if (Serializers.INTEGER.read(connection.in()) == NetworkCode.RELAY_READ_RESPONSE) {
-        result.addAll(Serializers.collection(BUNDLE_SERIALIZER).read(connection.in()));
+        result = new ArrayList<>(Serializers.collection(BUNDLE_SERIALIZER).read(connection.in()));
       } else {
         LOG.error("Server did not handle RELAY_READ_REQUEST");
+        READ.error();
       }
     } catch (Exception ex) {
+      READ.error();
       LOG.error(ex, "Unexpected error when sending RELAY_READ_REQUEST");
     }
 
+    READ.record(start);
+
+    return result;
+  }
+
+  @Override
+  public Collection<Relay.Bundle> read(Uuid teamId, Secret teamSecret, Uuid root, int range, long timeout) {
+
+    if (waitUnsupported) {
+      return read(teamId, teamSecret, root, range);
+    }
+
+    Collection<Relay.Bundle> result = null;
+
+    final long start = System.nanoTime();
+
+    try (final Connection connection = source.connect()) {
+
+      Serializers.INTEGER.write(connection.out(), NetworkCode.RELAY_WAIT_READ_REQUEST);
+      Uuid.SERIALIZER.write(connection.out(), teamId);
+      Secret.SERIALIZER.write(connection.out(), teamSecret);
+      Uuid.SERIALIZER.write(connection.out(), root);
+      Serializers.INTEGER.write(connection.out(), range);
+      Serializers.LONG.write(connection.out(), timeout);
+
+      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.RELAY_WAIT_READ_RESPONSE) {
+        result = new ArrayList<>(Serializers.collection(BUNDLE_SERIALIZER).read(connection.in()));
+      } else {
+        LOG.error("Server did not handle RELAY_WAIT_READ_REQUEST");
+        WAIT_READ.error();
+      }
+    } catch (Exception ex) {
+      WAIT_READ.error();
+      LOG.error(ex, "Unexpected error when sending RELAY_WAIT_READ_REQUEST");
+    }
+
+    WAIT_READ.record(start);
+
+    if (result != null) {
+      return result;
+    }
+
+    // The relay may not know RELAY_WAIT_READ_REQUEST. Fall back to a plain
+    // read and, if that works, stop asking this relay to wait. If the relay
+    // is simply down both reads fail and waiting is tried again next time.
+    result = plainRead(teamId, teamSecret, root, range);
+
+    if (result == null) {
+      return new ArrayList<>();
+    }
+
+    if (!waitUnsupported) {
+      LOG.warning("Relay does not support RELAY_WAIT_READ_REQUEST, using RELAY_READ_REQUEST");
+      waitUnsupported = true;
+    }
+
     return result;
   }
 }
@@ -23,7 +23,8 @@ import java.util.*;
 import codeu.chat.common.*;
 import codeu.chat.util.*;
 import codeu.chat.util.connections.Connection;
-import com.google.gson.Gson;
+import codeu.chat.util.connections.ConnectionSource;
+import codeu.chat.util.connections.ServerConnectionSource;
 
 public final class Server {
 
@@ -35,33 +36,83 @@ public final class Server {
 
   private static final ServerInfo info = new ServerInfo();
 
+  // The relay is read with long polls - each read waits up to RELAY_WAIT_MS
+  // for new bundles, and the next read is sent as soon as the last one
+  // returns. A relay that does not support waiting is read with plain reads
+  // instead (see RemoteRelay). If a read comes back empty without waiting
+  // (e.g. the relay is down or does not support waiting) wait
+  // RELAY_REFRESH_MS before trying again so that the server does not spin.
   private static final int RELAY_REFRESH_MS = 5000;  // 5 seconds
+  private static final int RELAY_WAIT_MS = 20000;  // 20 seconds
+  private static final int RELAY_READ_SIZE = 32;
 
-  private static final int SAVE_DATA_BUFFER_MS = 30000; // 30 seconds. If you want to save more or less frequently change this number
+  // Every change is written to the log as it happens. This is how often the
+  // log is compacted into a snapshot so that it does not grow forever.
+  private static final int COMPACT_LOG_MS = 600000;  // 10 minutes
+
+  // Client requests are run on a pool of workers so that many can be handled
+  // at once. The model is safe to share between the workers, so no extra
+  // locking is done here. The queue in front of the workers is bounded - once
+  // it is full, accepting new connections and reading new requests will wait.
+  private static final int WORKER_THREADS = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+  private static final int WORKER_QUEUE_SIZE = 256;
 
   private final Timeline timeline = new Timeline();
+  private final WorkerPool workers = new WorkerPool(WORKER_THREADS, WORKER_QUEUE_SIZE);
 
   private final Map<Integer, Command> commands = new HashMap<>();
 
+  // A metric for each command, filled in once all commands are added. Each
+  // records the time from reading the request's type to sending the response.
+  private final Map<Integer, Metrics.Metric> commandMetrics = new HashMap<>();
+  private static final Metrics.Metric UNKNOWN_COMMAND = Metrics.get("command.UNKNOWN");
+
   private final Uuid id;
   private final Secret secret;
 
   private final Model model = new Model();
   private final View view = new View(model);
   private final Controller controller;
+  private final WriteAheadLog log;
+  private final Subscriptions subscriptions = new Subscriptions();
 
   private final Relay relay;
   private Uuid lastSeen = Uuid.NULL;
 
-  public Server(final Uuid id, final Secret secret, final Relay relay) {
+  public Server(final Uuid id, final Secret secret, final Relay relay, final File directory) throws IOException {
 
     this.id = id;
     this.secret = secret;
-    this.controller = new Controller(id, model);
     this.relay = relay;
 
-    model.refreshData();
-    controller.refreshData();
+    // Rebuild the model with a controller that does not log - the changes
+    // being replayed are already on disk.
+    final Controller restore = new Controller(id, model);
+
+    // Servers used to save everything as json. If there is no log yet, load
+    // the json files (if any) and compact them into the first snapshot.
+    final boolean firstRun = WriteAheadLog.isEmpty(directory);
+    final long restoreStart = System.currentTimeMillis();
+
+    if (firstRun) {
+      model.refreshData();
+      restore.refreshData();
+    }
+
+    this.log = WriteAheadLog.open(directory, restore, model);
+
+    LOG.info("Restored %d users, %d conversations, %d messages in %d ms",
+             model.users(),
+             model.conversations(),
+             model.messages(),
+             System.currentTimeMillis() - restoreStart);
+
+    if (firstRun) {
+      log.compact(model);
+    }
+
+    this.controller = new Controller(id, model, log);
+    this.controller.addListener(subscriptions);
 
     this.commands.put(NetworkCode.SERVER_INFO_REQUEST, new Command() {
       @Override
@@ -180,10 +231,6 @@ public final class Server {
         final Uuid convoId = Uuid.SERIALIZER.read(in);
         final Map<Uuid, AccessLevel> users = view.getUsersAccessInConvo(convoId);
 
-        for (Uuid al : users.keySet()) {
-          System.out.println(al + " : " + users.get(al));
-        }
-
         Serializers.INTEGER.write(out, NetworkCode.GET_USERS_ACCESS_RESPONSE);
         Serializers.MAP(Uuid.SERIALIZER, AccessLevel.SERIALIZER).write(out, users);
       }
@@ -232,75 +279,195 @@ public final class Server {
       }
     });
 
-    //This saves everything to their respective textfiles
-    this.timeline.scheduleNow(new Runnable() {
+    // Get User Page - A client wants the next chunk of the user list.
+    this.commands.put(NetworkCode.GET_USER_PAGE_REQUEST, new Command() {
       @Override
-      public void run() {
-        try {
-          LOG.info("Saving current state...");
+      public void onMessage(InputStream in, OutputStream out) throws IOException {
 
-          Gson gson = new Gson();
-          Json json = new Json();
-          String jsonUsers = gson.toJson(new UserCollection(model.currentUsers));
-          String jsonConversations = gson.toJson(new ConversationCollection(model.currentConversations));
-          String jsonMessages = gson.toJson(new MessageCollection(model.currentMessages));
+        final Uuid after = Serializers.nullable(Uuid.SERIALIZER).read(in);
+        final int limit = Serializers.INTEGER.read(in);
 
-          json.write("savedUsers.txt", jsonUsers);
-          json.write("savedConvos.txt", jsonConversations);
-          json.write("savedMessages.txt", jsonMessages);
+        final Page<User> page = view.getUserPage(after, limit);
 
-        } catch (Exception ex) {
+        Serializers.INTEGER.write(out, NetworkCode.GET_USER_PAGE_RESPONSE);
+        Page.serializer(User.SERIALIZER).write(out, page);
+      }
+    });
 
-          System.out.print(ex);
-          LOG.error("Failed to save data");
-        }
+    // Get Conversation Page - A client wants the next chunk of the conversation list.
+    this.commands.put(NetworkCode.GET_CONVERSATION_PAGE_REQUEST, new Command() {
+      @Override
+      public void onMessage(InputStream in, OutputStream out) throws IOException {
+
+        final Uuid after = Serializers.nullable(Uuid.SERIALIZER).read(in);
+        final int limit = Serializers.INTEGER.read(in);
+
+        final Page<ConversationHeader> page = view.getConversationPage(after, limit);
 
-        timeline.scheduleIn(SAVE_DATA_BUFFER_MS, this);
+        Serializers.INTEGER.write(out, NetworkCode.GET_CONVERSATION_PAGE_RESPONSE);
+        Page.serializer(ConversationHeader.SERIALIZER).write(out, page);
       }
     });
 
+    // Get Changes Since - A client wants what changed after the last time it asked.
+    this.commands.put(NetworkCode.GET_CHANGES_SINCE_REQUEST, new Command() {
+      @Override
+      public void onMessage(InputStream in, OutputStream out) throws IOException {
+
+        final long epoch = Serializers.readLong(in);
+        final long seq = Serializers.readLong(in);
+        final int limit = Serializers.INTEGER.read(in);
+
+        final Changes changes = view.getChangesSince(epoch, seq, limit);
 
-    this.timeline.scheduleNow(new Runnable() {
+        Serializers.INTEGER.write(out, NetworkCode.GET_CHANGES_SINCE_RESPONSE);
+        Changes.SERIALIZER.write(out, changes);
+      }
+    });
+
+    // Get Message Page - A client wants a run of messages from a conversation.
+    this.commands.put(NetworkCode.GET_MESSAGE_PAGE_REQUEST, new Command() {
       @Override
-      public void run() {
-        try {
+      public void onMessage(InputStream in, OutputStream out) throws IOException {
+
+        final Uuid conversation = Uuid.SERIALIZER.read(in);
+        final Uuid after = Serializers.nullable(Uuid.SERIALIZER).read(in);
+        final Time start = Serializers.nullable(Time.SERIALIZER).read(in);
+        final Time end = Serializers.nullable(Time.SERIALIZER).read(in);
+        final int limit = Serializers.INTEGER.read(in);
 
-          LOG.info("Reading update from relay...");
+        final Collection<Message> messages = view.getMessagePage(conversation, after, start, end, limit);
 
-          for (final Relay.Bundle bundle : relay.read(id, secret, lastSeen, 32)) {
-            onBundle(bundle);
-            lastSeen = bundle.id();
+        Serializers.INTEGER.write(out, NetworkCode.GET_MESSAGE_PAGE_RESPONSE);
+        Serializers.collection(Message.SERIALIZER).write(out, messages);
+      }
+    });
+
+    // Search Messages - A client wants the messages that best match some words.
+    this.commands.put(NetworkCode.SEARCH_MESSAGES_REQUEST, new Command() {
+      @Override
+      public void onMessage(InputStream in, OutputStream out) throws IOException {
+
+        final String query = Serializers.STRING.read(in);
+        final Uuid author = Serializers.nullable(Uuid.SERIALIZER).read(in);
+        final Uuid conversation = Serializers.nullable(Uuid.SERIALIZER).read(in);
+        final int limit = Serializers.INTEGER.read(in);
+
+        final Collection<Message> messages = view.searchMessages(query, author, conversation, limit);
+
+        Serializers.INTEGER.write(out, NetworkCode.SEARCH_MESSAGES_RESPONSE);
+        Serializers.collection(Message.SERIALIZER).write(out, messages);
+      }
+    });
+
+    // Stats - A client wants to see the server's metrics.
+    this.commands.put(NetworkCode.GET_STATS_REQUEST, new Command() {
+      @Override
+      public void onMessage(InputStream in, OutputStream out) throws IOException {
+
+        final Collection<Stat> stats = new ArrayList<>();
+        for (final Metrics.Metric metric : Metrics.all().values()) {
+          if (metric.count() > 0 || metric.errors() > 0) {
+            stats.add(Stat.of(metric));
           }
+        }
 
-        } catch (Exception ex) {
+        Serializers.INTEGER.write(out, NetworkCode.GET_STATS_RESPONSE);
+        Serializers.collection(Stat.SERIALIZER).write(out, stats);
+      }
+    });
 
-          LOG.error(ex, "Failed to read update from relay.");
+    for (final int type : commands.keySet()) {
+      commandMetrics.put(type, Metrics.get("command." + NetworkCode.name(type)));
+    }
 
+    // Compact the log into a snapshot every so often so that start-up only
+    // needs to replay the changes made since the last compaction.
+    this.timeline.scheduleIn(COMPACT_LOG_MS, new Runnable() {
+      @Override
+      public void run() {
+        try {
+          LOG.info("Compacting log...");
+          log.compact(model);
+        } catch (Exception ex) {
+          LOG.error(ex, "Failed to compact log");
         }
 
-        timeline.scheduleIn(RELAY_REFRESH_MS, this);
+        timeline.scheduleIn(COMPACT_LOG_MS, this);
       }
     });
+
+
+    // Reads from the relay block, so they get their own thread rather than
+    // holding up the timeline.
+    final Thread relayReader = new Thread("relay-reader") {
+      @Override
+      public void run() {
+        while (true) {
+          try {
+            readRelay();
+          } catch (InterruptedException ex) {
+            return;
+          } catch (Exception ex) {
+            LOG.error(ex, "Failed to read update from relay.");
+          }
+        }
+      }
+    };
+
+    relayReader.setDaemon(true);
+    relayReader.start();
+  }
+
+  // READ RELAY
+  //
+  // Read one batch of bundles from the relay. A full batch means there is
+  // probably more waiting, and a partial one means the relay has nothing
+  // newer, so either way the next read goes out straight away and waits on
+  // the relay until there is something to read.
+  private void readRelay() throws InterruptedException {
+
+    final long start = System.currentTimeMillis();
+
+    final Collection<Relay.Bundle> bundles = relay.read(id, secret, lastSeen, RELAY_READ_SIZE, RELAY_WAIT_MS);
+
+    for (final Relay.Bundle bundle : bundles) {
+      onBundle(bundle);
+      lastSeen = bundle.id();
+    }
+
+    if (bundles.isEmpty() && System.currentTimeMillis() - start < RELAY_WAIT_MS / 2) {
+      Thread.sleep(RELAY_REFRESH_MS);
+    } else if (!bundles.isEmpty()) {
+      LOG.info("Read %d bundles from relay", bundles.size());
+    }
   }
 
-  public void handleConnection(final Connection connection) {
-    timeline.scheduleNow(new Runnable() {
+  public void handleConnection(final Connection socket) {
+    workers.execute(new Runnable() {
       @Override
       public void run() {
+
+        boolean keepOpen = false;
+        Connection connection = socket;
+
         try {
 
           LOG.info("Handling connection...");
 
+          connection = buffered(socket);
+
           final int type = Serializers.INTEGER.read(connection.in());
-          final Command command = commands.get(type);
 
-          if (command == null) {
-            // The message type cannot be handled so return a dummy message.
-            Serializers.INTEGER.write(connection.out(), NetworkCode.NO_MESSAGE);
-            LOG.info("Connection rejected");
+          if (type == NetworkCode.MULTIPLEX_REQUEST) {
+            Serializers.INTEGER.write(connection.out(), NetworkCode.MULTIPLEX_RESPONSE);
+            startMultiplexed(connection);
+            keepOpen = true;
+          } else if (type == NetworkCode.SUBSCRIBE_REQUEST) {
+            subscriptions.subscribe(connection);
+            keepOpen = true;
           } else {
-            command.onMessage(connection.in(), connection.out());
-            LOG.info("Connection accepted");
+            handleCommand(type, connection);
           }
 
         } catch (Exception ex) {
@@ -309,20 +476,190 @@ public final class Server {
 
         }
 
-        try {
-          connection.close();
-        } catch (Exception ex) {
-          LOG.error(ex, "Exception while closing connection.");
+        if (!keepOpen) {
+          close(connection);
         }
       }
     });
   }
 
+  // START MULTIPLEXED
+  //
+  // The client wants to keep this connection open and send many requests over
+  // it. Reading request frames blocks, so it is done on its own thread and each
+  // request is given to the workers just like a one-shot connection would be.
+  private void startMultiplexed(final Connection connection) throws IOException {
+
+    final ConnectionSource requests = ServerConnectionSource.multiplexed(connection);
+
+    final Thread reader = new Thread() {
+      @Override
+      public void run() {
+        try {
+          while (true) {
+            final Connection request = requests.connect();
+            workers.execute(new Runnable() {
+              @Override
+              public void run() {
+                try {
+                  handleCommand(Serializers.INTEGER.read(request.in()), request);
+                } catch (Exception ex) {
+                  LOG.error(ex, "Exception while handling request.");
+                }
+                close(request);
+              }
+            });
+          }
+        } catch (IOException ex) {
+          LOG.info("Multiplexed connection closed (%s)", ex.toString());
+        }
+
+        close(requests);
+      }
+    };
+
+    reader.setDaemon(true);
+    reader.start();
+
+    LOG.info("Multiplexed connection accepted");
+  }
+
+  private void handleCommand(int type, Connection connection) throws IOException {
+
+    final long start = System.nanoTime();
+
+    // Build the whole response in memory so that it goes out in one write
+    // rather than a write per byte. Multiplexed requests already collect
+    // their response in a buffer.
+    final OutputStream out = connection.out();
+    final BufferOutputStream response = out instanceof BufferOutputStream ?
+        (BufferOutputStream) out :
+        new BufferOutputStream();
+
+    // Multiplexed requests are read from a buffer that knows how much is left,
+    // anything else has to be counted as it is read.
+    final InputStream in = connection.in();
+    final CountingInputStream counted = in instanceof BufferInputStream ? null : new CountingInputStream(in);
+    final int available = in.available();
+
+    final Command command = commands.get(type);
+    final Metrics.Metric metric = command == null ? UNKNOWN_COMMAND : commandMetrics.get(type);
+
+    try {
+
+      if (command == null) {
+        // The message type cannot be handled so return a dummy message.
+        Serializers.INTEGER.write(response, NetworkCode.NO_MESSAGE);
+        LOG.info("Connection rejected");
+      } else {
+        command.onMessage(counted == null ? in : counted, response);
+        LOG.info("Connection accepted");
+      }
+
+      final int size = response.size();
+
+      if (response != out) {
+        response.writeTo(out);
+        out.flush();
+      }
+
+      // Count the request's type as part of its size.
+      metric.record(start,
+                    4 + (counted == null ? available - in.available() : counted.count),
+                    size);
+
+    } catch (IOException | RuntimeException ex) {
+      metric.error();
+      metric.record(start);
+      throw ex;
+    }
+  }
+
+  // COUNTING INPUT STREAM
+  //
+  // Counts the bytes a command reads from its request.
+  private static final class CountingInputStream extends FilterInputStream {
+
+    long count = 0;
+
+    CountingInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      final int value = in.read();
+      if (value >= 0) {
+        count++;
+      }
+      return value;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+      final int read = in.read(bytes, offset, length);
+      if (read > 0) {
+        count += read;
+      }
+      return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      final long skipped = in.skip(n);
+      count += skipped;
+      return skipped;
+    }
+  }
+
+  // BUFFERED
+  //
+  // Read requests through a buffer so that decoding them does not read from
+  // the socket one byte at a time. All reads of the connection, including
+  // after switching to multiplexed mode, must go through the returned
+  // connection so that nothing the buffer has read ahead is lost. Requests
+  // that were read into memory already (see SelectorConnectionSource) are
+  // left as they are.
+  private static Connection buffered(final Connection connection) throws IOException {
+
+    if (connection.in() instanceof BufferInputStream) {
+      return connection;
+    }
+
+    final InputStream in = new BufferedInputStream(connection.in());
+
+    return new Connection() {
+
+      @Override
+      public InputStream in() {
+        return in;
+      }
+
+      @Override
+      public OutputStream out() throws IOException {
+        return connection.out();
+      }
+
+      @Override
+      public void close() throws IOException {
+        connection.close();
+      }
+    };
+  }
+
+  private static void close(Closeable connection) {
+    try {
+      connection.close();
+    } catch (Exception ex) {
+      LOG.error(ex, "Exception while closing connection.");
+    }
+  }
+
   private void onBundle(Relay.Bundle bundle) {
 
     final Relay.Bundle.Component relayUser = bundle.user();
     final Relay.Bundle.Component relayConversation = bundle.conversation();
-    final Relay.Bundle.Component relayMessage = bundle.user();
+    final Relay.Bundle.Component relayMessage = bundle.message();
 
     User user = model.userById().first(relayUser.id());
 
@@ -0,0 +1,321 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.ConversationPayload;
+import codeu.chat.common.Message;
+import codeu.chat.common.User;
+import codeu.chat.util.Logger;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+// SNAPSHOT
+//
+// A binary copy of the full model used to make start-up fast. Unlike the
+// write ahead log, a snapshot is not replayed through the controller. It is
+// read as a stream and each value is added straight to the model: messages
+// are stored conversation by conversation in the order they are linked, so
+// the loader can fill in each message's "next" and the conversation's first
+// and last message as it goes, without any id checks or lookups.
+//
+// Layout:
+//
+//   MAGIC VERSION
+//   USER <user>                                  (repeated)
+//   CONVERSATION <header>                        (repeated)
+//   MESSAGES <conversation id> <count>           (repeated, one per conversation)
+//       <id> <creation> <author> <content> <likes>   (count times)
+//   END <crc32 of everything from MAGIC to END, END included>
+//
+// Messages only store what cannot be worked out from their position - their
+// conversation, "next", and "previous" are filled in when loading.
+final class Snapshot {
+
+  private final static Logger.Log LOG = Logger.newLog(Snapshot.class);
+
+  private static final int MAGIC = 0x43485331;  // "CHS1"
+  private static final int VERSION = 1;
+
+  private static final int END = 0;
+  private static final int USER = 1;
+  private static final int CONVERSATION = 2;
+  private static final int MESSAGES = 3;
+
+  private Snapshot() { }
+
+  // WRITE
+  //
+  // Write the model to the given file. The file is synced to disk before
+  // returning.
+  public static void write(Model model, File file) throws IOException {
+
+    try (final FileOutputStream stream = new FileOutputStream(file)) {
+
+      final CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(stream), new CRC32());
+      final DataOutputStream out = new DataOutputStream(checked);
+
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+
+      for (final User user : model.userById().all()) {
+        out.write(USER);
+        User.SERIALIZER.write(out, user);
+      }
+
+      for (final ConversationHeader conversation : model.conversationById().all()) {
+        out.write(CONVERSATION);
+        // Access changes lock the conversation, hold it so the map does not
+        // change while it is being written.
+        synchronized (conversation) {
+          ConversationHeader.SERIALIZER.write(out, conversation);
+        }
+      }
+
+      for (final ConversationPayload payload : model.conversationPayloadById().all()) {
+
+        // Walk the chain first so the count is known. New messages may be
+        // added while walking; they are in the journal and will be replayed
+        // after the snapshot is loaded.
+        final List<Message> messages = new ArrayList<>();
+        for (Message message = model.messageById().first(payload.firstMessage);
+             message != null;
+             message = model.messageById().first(message.next)) {
+          messages.add(message);
+        }
+
+        out.write(MESSAGES);
+        writeUuid(out, payload.id);
+        out.writeInt(messages.size());
+
+        for (final Message message : messages) {
+          writeUuid(out, message.id);
+          out.writeLong(message.creation.inMs());
+          writeUuid(out, message.author);
+          final byte[] content = message.content.getBytes(StandardCharsets.UTF_8);
+          out.writeInt(content.length);
+          out.write(content);
+          out.writeInt(message.likes);
+        }
+      }
+
+      out.write(END);
+      out.flush();
+
+      // The checksum covers everything up to and including the END marker.
+      out.writeLong(checked.getChecksum().getValue());
+      out.flush();
+
+      stream.getChannel().force(true);
+    }
+  }
+
+  // VERIFY
+  //
+  // Check a snapshot's checksum without loading anything. The last eight
+  // bytes of the file are the crc32 of everything before them.
+  public static boolean verify(File file) {
+
+    final long length = file.length();
+
+    if (length < 8) {
+      return false;
+    }
+
+    try (final DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+
+      final CRC32 crc = new CRC32();
+      final byte[] chunk = new byte[1 << 16];
+
+      for (long remaining = length - 8; remaining > 0; ) {
+        final int read = in.read(chunk, 0, (int) Math.min(chunk.length, remaining));
+        if (read < 0) {
+          return false;
+        }
+        crc.update(chunk, 0, read);
+        remaining -= read;
+      }
+
+      return in.readLong() == crc.getValue();
+
+    } catch (IOException ex) {
+      LOG.error(ex, "Failed to verify snapshot %s", file);
+      return false;
+    }
+  }
+
+  // READ
+  //
+  // Load a snapshot into an empty model. The checksum is checked before
+  // anything is added, so a damaged snapshot leaves the model empty. Logs how
+  // long loading took so that restart time can be tracked.
+  public static void read(File file, Model model) throws IOException {
+
+    final long start = System.nanoTime();
+
+    if (!verify(file)) {
+      throw new IOException(String.format("Checksum does not match for %s", file));
+    }
+
+    int users = 0;
+    int conversations = 0;
+    int messages = 0;
+
+    try (final InputStream stream = new BufferedInputStream(new FileInputStream(file), 1 << 16)) {
+
+      final DataInputStream in = new DataInputStream(stream);
+
+      if (in.readInt() != MAGIC) {
+        throw new IOException(String.format("%s is not a snapshot", file));
+      }
+
+      final int version = in.readInt();
+      if (version != VERSION) {
+        throw new IOException(String.format("Unsupported snapshot version %d in %s", version, file));
+      }
+
+      for (int type = in.read(); type != END; type = in.read()) {
+
+        if (type == USER) {
+
+          model.add(User.SERIALIZER.read(in));
+          users += 1;
+
+        } else if (type == CONVERSATION) {
+
+          model.add(ConversationHeader.SERIALIZER.read(in));
+          conversations += 1;
+
+        } else if (type == MESSAGES) {
+
+          messages += readMessages(in, model, file);
+
+        } else {
+          throw new IOException(String.format("Unexpected entry %d in %s", type, file));
+        }
+      }
+    }
+
+    final long ms = Math.max(1, (System.nanoTime() - start) / 1000000);
+
+    LOG.info(
+        "Loaded snapshot %s: %d users, %d conversations, %d messages, %d bytes in %d ms (%d messages/s, %d KB/s)",
+        file,
+        users,
+        conversations,
+        messages,
+        file.length(),
+        ms,
+        messages * 1000L / ms,
+        file.length() * 1000L / 1024 / ms);
+  }
+
+  // READ MESSAGES
+  //
+  // Read one conversation's messages, linking each one to the one before it
+  // and pointing the conversation at the first and last message.
+  private static int readMessages(DataInputStream in, Model model, File file) throws IOException {
+
+    final Uuid conversation = readUuid(in);
+    final int count = in.readInt();
+
+    final ConversationPayload payload = model.conversationPayloadById().first(conversation);
+
+    if (payload == null) {
+      throw new IOException(String.format("Messages for unknown conversation %s in %s", conversation, file));
+    }
+
+    Message previous = null;
+
+    for (int i = 0; i < count; i++) {
+
+      final Uuid id = readUuid(in);
+      final Time creation = Time.fromMs(in.readLong());
+      final Uuid author = readUuid(in);
+      final byte[] content = new byte[in.readInt()];
+      in.readFully(content);
+      final int likes = in.readInt();
+
+      // As with messages made by the controller, "previous" is not tracked.
+      final Message message = new Message(
+          id, Uuid.NULL, Uuid.NULL, creation, author, new String(content, StandardCharsets.UTF_8), conversation, likes);
+      model.add(message);
+
+      if (previous == null) {
+        payload.firstMessage = id;
+      } else {
+        previous.next = id;
+      }
+
+      previous = message;
+    }
+
+    if (previous != null) {
+      payload.lastMessage = previous.id;
+    }
+
+    return count;
+  }
+
+  // Messages make up most of a snapshot so their values are written with the
+  // data streams directly rather than going through the serializers one byte
+  // at a time. Uuids use the same layout as Uuid.SERIALIZER.
+
+  private static void writeUuid(DataOutputStream out, Uuid value) throws IOException {
+
+    int length = 0;
+    for (Uuid current = value; current != null; current = current.root()) {
+      length += 1;
+    }
+
+    out.write(length);
+
+    for (Uuid current = value; current != null; current = current.root()) {
+      out.writeInt(current.id());
+    }
+  }
+
+  private static Uuid readUuid(DataInputStream in) throws IOException {
+
+    final int[] chain = new int[in.readUnsignedByte()];
+
+    for (int i = 0; i < chain.length; i++) {
+      chain[i] = in.readInt();
+    }
+
+    Uuid head = null;
+
+    for (int i = chain.length - 1; i >= 0; i--) {
+      head = new Uuid(head, chain[i]);
+    }
+
+    return head;
+  }
+}
@@ -0,0 +1,198 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import codeu.chat.common.Message;
+import codeu.chat.common.NetworkCode;
+import codeu.chat.util.BufferOutputStream;
+import codeu.chat.util.Logger;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Uuid;
+import codeu.chat.util.connections.Connection;
+
+// SUBSCRIPTIONS
+//
+// Clients that want to hear about new messages as they happen instead of
+// polling for them. A client subscribes by sending the conversations and
+// users it is interested in. The server keeps the connection open and writes
+// a NEW_MESSAGE_EVENT for every new message in one of those conversations or
+// written by one of those users. To change what it is interested in, the
+// client closes the subscription and opens a new one.
+//
+// Each subscriber has its own bounded queue and writer thread so that a slow
+// client never holds up the controller. If a client falls so far behind that
+// its queue fills up, it is disconnected - it can subscribe again and fetch
+// what it missed with a page request.
+//
+// Clients never write after subscribing, so the only way to notice one has
+// gone is a failed write. When there has been nothing to send for
+// "keepAliveMs" the writer sends a KEEP_ALIVE_EVENT, so a client that went
+// away while its subscription was quiet is dropped within a couple of
+// keep-alives rather than holding a thread and a socket forever.
+final class Subscriptions implements Controller.Listener {
+
+  private final static Logger.Log LOG = Logger.newLog(Subscriptions.class);
+
+  private static final int QUEUE_SIZE = 1024;
+
+  private static final long KEEP_ALIVE_MS = 15000;
+
+  private final Set<Subscriber> subscribers =
+      Collections.newSetFromMap(new ConcurrentHashMap<Subscriber, Boolean>());
+
+  private final long keepAliveMs;
+
+  public Subscriptions() {
+    this(KEEP_ALIVE_MS);
+  }
+
+  Subscriptions(long keepAliveMs) {
+    this.keepAliveMs = keepAliveMs;
+  }
+
+  // SUBSCRIBE
+  //
+  // Read a subscribe request from the connection (after its type) and start
+  // sending events over it. The connection is owned by the subscription from
+  // here on and is closed when the client goes away.
+  public void subscribe(Connection connection) throws IOException {
+
+    final InputStream in = connection.in();
+
+    final Set<Uuid> conversations = new HashSet<>(Serializers.collection(Uuid.SERIALIZER).read(in));
+    final Set<Uuid> users = new HashSet<>(Serializers.collection(Uuid.SERIALIZER).read(in));
+
+    final OutputStream out = connection.out();
+    Serializers.INTEGER.write(out, NetworkCode.SUBSCRIBE_RESPONSE);
+    out.flush();
+
+    final Subscriber subscriber = new Subscriber(connection, conversations, users);
+    subscribers.add(subscriber);
+    subscriber.start();
+
+    LOG.info("Subscribed to %d conversations and %d users", conversations.size(), users.size());
+  }
+
+  public int size() {
+    return subscribers.size();
+  }
+
+  @Override
+  public void onNewMessage(Message message) {
+    for (final Subscriber subscriber : subscribers) {
+      if (subscriber.wants(message) && !subscriber.queue.offer(message)) {
+        LOG.warning("Subscriber fell too far behind, disconnecting it");
+        subscriber.disconnect();
+      }
+    }
+  }
+
+  private final class Subscriber extends Thread {
+
+    private final Connection connection;
+    private final Set<Uuid> conversations;
+    private final Set<Uuid> users;
+
+    private final BlockingQueue<Message> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+
+    Subscriber(Connection connection, Set<Uuid> conversations, Set<Uuid> users) {
+      this.connection = connection;
+      this.conversations = conversations;
+      this.users = users;
+      setName("subscriber");
+      setDaemon(true);
+    }
+
+    boolean wants(Message message) {
+      return conversations.contains(message.convoId) || users.contains(message.author);
+    }
+
+    // DISCONNECT
+    //
+    // Stop the subscriber from any thread. Interrupting does not stop a
+    // write that is blocked on a client that stopped reading, so the
+    // connection is closed as well to make that write fail.
+    void disconnect() {
+      subscribers.remove(this);
+      interrupt();
+      try {
+        connection.close();
+      } catch (IOException ex) {
+        LOG.error(ex, "Exception while closing subscription.");
+      }
+    }
+
+    @Override
+    public void run() {
+
+      final BufferOutputStream events = new BufferOutputStream();
+      final List<Message> batch = new ArrayList<>();
+
+      try {
+        final OutputStream out = connection.out();
+
+        while (!isInterrupted()) {
+
+          // Wait for one message, then send it along with anything else that
+          // has queued up in the meantime. If none comes, send a keep-alive.
+          final Message first = queue.poll(keepAliveMs, TimeUnit.MILLISECONDS);
+
+          events.reset();
+
+          if (first == null) {
+            Serializers.INTEGER.write(events, NetworkCode.KEEP_ALIVE_EVENT);
+          } else {
+            batch.add(first);
+            queue.drainTo(batch);
+          }
+
+          for (final Message message : batch) {
+            Serializers.INTEGER.write(events, NetworkCode.NEW_MESSAGE_EVENT);
+            Message.SERIALIZER.write(events, message);
+          }
+          batch.clear();
+
+          events.writeTo(out);
+          out.flush();
+        }
+      } catch (InterruptedException ex) {
+        // Stopped.
+      } catch (IOException ex) {
+        LOG.info("Subscriber went away (%s)", ex.toString());
+      }
+
+      subscribers.remove(this);
+
+      try {
+        connection.close();
+      } catch (IOException ex) {
+        LOG.error(ex, "Exception while closing subscription.");
+      }
+    }
+  }
+}
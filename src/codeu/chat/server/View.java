@@ -18,7 +18,10 @@ import codeu.chat.util.AccessLevel;
 import codeu.chat.common.*;
 
 import codeu.chat.util.Logger;
+import codeu.chat.util.Time;
 import codeu.chat.util.Uuid;
+import codeu.chat.util.store.LookupAccessor;
+import codeu.chat.util.store.SearchAccessor;
 import codeu.chat.util.store.StoreAccessor;
 
 public final class View implements BasicView, SinglesView {
@@ -42,6 +45,28 @@ public final class View implements BasicView, SinglesView {
     return all(model.conversationById());
   }
 
+  @Override
+  public Page<User> getUserPage(Uuid after, int limit) {
+    final User cursor = after == null ? null : model.userById().first(after);
+    return page(model.userByTime(), USER_ID, after, cursor == null ? null : cursor.creation, limit);
+  }
+
+  @Override
+  public Page<ConversationHeader> getConversationPage(Uuid after, int limit) {
+    final ConversationHeader cursor = after == null ? null : model.conversationById().first(after);
+    return page(model.conversationByTime(), CONVERSATION_ID, after, cursor == null ? null : cursor.creation, limit);
+  }
+
+  @Override
+  public Iterator<User> iterateUsers() {
+    return model.userByTime().all().iterator();
+  }
+
+  @Override
+  public Iterator<ConversationHeader> iterateConversations() {
+    return model.conversationByTime().all().iterator();
+  }
+
   @Override
   public Collection<ConversationPayload> getConversationPayloads(Collection<Uuid> ids) {
     return intersect(model.conversationPayloadById(), ids);
@@ -58,18 +83,117 @@ public final class View implements BasicView, SinglesView {
   }
 
   public ConversationHeader findConvoById(Uuid convoId) {
-    for (ConversationHeader convo : model.currentConversations) {
-      if (convo.id.equals(convoId)) {
-        return convo;
+    return model.conversationById().first(convoId);
+  }
+
+  @Override
+  public Collection<Message> getMessages(Collection<Uuid> ids) {
+    return intersect(model.messageById(), ids);
+  }
+
+  @Override
+  public Collection<Message> getMessagePage(Uuid conversation, Uuid after, Time start, Time end, int limit) {
+
+    final Collection<Message> page = new ArrayList<>();
+    final StoreAccessor<Time, Message> messages = model.messageByConversation(conversation);
+
+    if (messages == null) {
+      return page;
+    }
+
+    final Message cursor = after == null ? null : model.messageById().first(after);
+
+    if (after != null && (cursor == null || !cursor.convoId.equals(conversation))) {
+      LOG.warning("Unknown cursor %s for conversation %s", after, conversation);
+      return page;
+    }
+
+    // Start at the cursor's time. Messages sent at the same time are kept in
+    // the order they were added, so skip them up to and including the cursor.
+    Time from = start;
+    if (cursor != null && (from == null || cursor.creation.compareTo(from) > 0)) {
+      from = cursor.creation;
+    }
+
+    final Iterable<Message> candidates =
+        from == null && end == null ? messages.all() :
+        from == null ? messages.before(end) :
+        end == null ? messages.after(from) :
+        messages.range(from, end);
+
+    final int max = Math.max(0, Math.min(limit, MAX_MESSAGE_PAGE));
+    boolean skipping = cursor != null;
+
+    for (final Message message : candidates) {
+
+      if (page.size() >= max) {
+        break;
+      }
+
+      if (skipping && message.creation.compareTo(cursor.creation) == 0) {
+        skipping = !message.id.equals(cursor.id);
+        continue;
       }
+
+      skipping = false;
+      page.add(message);
     }
 
-    return null;
+    return page;
   }
 
   @Override
-  public Collection<Message> getMessages(Collection<Uuid> ids) {
-    return intersect(model.messageById(), ids);
+  public List<Message> searchMessages(String query, final Uuid author, final Uuid conversation, int limit) {
+
+    final SearchAccessor.Filter<Message> filter = author == null && conversation == null ?
+        null :
+        new SearchAccessor.Filter<Message>() {
+          @Override
+          public boolean accept(Message message) {
+            return (author == null || author.equals(message.author)) &&
+                   (conversation == null || conversation.equals(message.convoId));
+          }
+        };
+
+    return model.messageByTerm().search(query, filter, Math.min(limit, MAX_SEARCH_RESULTS));
+  }
+
+  @Override
+  public Changes getChangesSince(long epoch, long seq, int limit) {
+
+    final ChangeLog log = model.changes();
+    final List<ChangeLog.Change> changes =
+        epoch == log.epoch() ? log.since(seq, Math.max(1, Math.min(limit, MAX_CHANGES))) : null;
+
+    if (changes == null) {
+      return Changes.reset(log.epoch(), log.latest());
+    }
+
+    // Send each changed value once, as it is now.
+    final Set<Uuid> users = new LinkedHashSet<>();
+    final Set<Uuid> conversations = new LinkedHashSet<>();
+    final Set<Uuid> messages = new LinkedHashSet<>();
+
+    long last = seq;
+
+    for (final ChangeLog.Change change : changes) {
+      if (change.type == ChangeLog.USER) {
+        users.add(change.id);
+      } else if (change.type == ChangeLog.CONVERSATION || change.type == ChangeLog.ACCESS) {
+        conversations.add(change.id);
+      } else {
+        messages.add(change.id);
+      }
+      last = change.seq;
+    }
+
+    return new Changes(log.epoch(),
+                       last,
+                       false,
+                       last < log.latest(),
+                       lookup(model.userById(), users),
+                       lookup(model.conversationById(), conversations),
+                       lookup(model.messageById(), messages));
   }
 
   @Override
@@ -81,7 +205,52 @@ public final class View implements BasicView, SinglesView {
   @Override
   public Message findMessage(Uuid id) { return model.messageById().first(id); }
 
-  private static <S,T> Collection<T> all(StoreAccessor<S,T> store) {
+  private interface Id<T> {
+    Uuid of(T value);
+  }
+
+  private static final Id<User> USER_ID = new Id<User>() {
+    @Override
+    public Uuid of(User user) { return user.id; }
+  };
+
+  private static final Id<ConversationHeader> CONVERSATION_ID = new Id<ConversationHeader>() {
+    @Override
+    public Uuid of(ConversationHeader conversation) { return conversation.id; }
+  };
+
+  // PAGE
+  //
+  // Walk the store from the cursor's time, stopping as soon as the page is
+  // full, so that a page costs the same no matter how large the store is.
+  // Values created at the same time are kept in the order they were added, so
+  // skip them up to and including the cursor.
+  private static <T> Page<T> page(StoreAccessor<Time, T> byTime, Id<T> id, Uuid after, Time from, int limit) {
+
+    final List<T> items = new ArrayList<>();
+
+    if (after != null && from == null) {
+      LOG.warning("Unknown page token %s", after);
+      return new Page<>(items, null);
+    }
+
+    final Iterator<T> values = (from == null ? byTime.all() : byTime.after(from)).iterator();
+    final int max = Math.max(1, Math.min(limit, MAX_LIST_PAGE));
+
+    if (after != null) {
+      while (values.hasNext() && !after.equals(id.of(values.next()))) {
+        // Skip up to the cursor.
+      }
+    }
+
+    while (items.size() < max && values.hasNext()) {
+      items.add(values.next());
+    }
+
+    return new Page<>(items, values.hasNext() ? id.of(items.get(items.size() - 1)) : null);
+  }
+
+  private static <S,T> Collection<T> all(LookupAccessor<S,T> store) {
 
     final Collection<T> all = new ArrayList<>();
 
@@ -97,7 +266,19 @@ public final class View implements BasicView, SinglesView {
   public ServerInfo getInfo() {
     return info;
   }
-  private static <T> Collection<T> intersect(StoreAccessor<Uuid, T> store, Collection<Uuid> ids) {
+
+  private static <T> Collection<T> lookup(LookupAccessor<Uuid, T> store, Collection<Uuid> ids) {
+    final Collection<T> found = new ArrayList<>(ids.size());
+    for (final Uuid id : ids) {
+      final T value = store.first(id);
+      if (value != null) {
+        found.add(value);
+      }
+    }
+    return found;
+  }
+
+  private static <T> Collection<T> intersect(LookupAccessor<Uuid, T> store, Collection<Uuid> ids) {
 
     // Use a set to hold the found users as this will prevent duplicate ids from
     // yielding duplicates in the result.
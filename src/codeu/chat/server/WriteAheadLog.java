@@ -0,0 +1,619 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.Message;
+import codeu.chat.common.User;
+import codeu.chat.util.AccessLevel;
+import codeu.chat.util.Logger;
+import codeu.chat.util.Metrics;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Uuid;
+
+// WRITE AHEAD LOG
+//
+// Every change the controller makes to the model is appended to the log as a
+// small binary record before the change is reported back to the client. On
+// start-up the log is replayed to rebuild the model.
+//
+// Records are not written to disk one at a time. Appending only copies the
+// record into a buffer - a background thread writes everything buffered so
+// far and syncs it to disk in one go. Callers that need their change to be
+// durable wait on "commit" which returns once the sync that covers their
+// record is done. This way one sync is shared by everyone who appended while
+// the previous sync was running.
+//
+// If a batch can not be written or synced, the log does not drop it. The
+// batch goes back in front of the buffer and the journal is switched to a
+// new generation, so the retry never lands after a part-written batch. The
+// syncer keeps retrying every RETRY_MS until a sync works. Until then
+// "commit" fails straight away rather than waiting, so callers know their
+// change is not yet on disk.
+//
+// The log is split into generations. Each generation has its own journal file
+// and may have a snapshot file. "compact" starts a new generation and writes
+// the full state of the model as that generation's snapshot (see Snapshot).
+// Files from before the previous snapshot are then deleted, so there is
+// always one snapshot to fall back to. To recover, load the newest snapshot
+// whose checksum matches and replay every journal from that generation on.
+// Records are written so that replaying a change that is already in the
+// snapshot has no effect.
+//
+// Each record on disk is: length, crc32 of the body, body. The body is a one
+// byte record type followed by the record's values written with the normal
+// serializers. A record that is cut short or fails its checksum (e.g. the
+// server died during a write) ends the replay of that file.
+public final class WriteAheadLog implements Closeable {
+
+  private final static Logger.Log LOG = Logger.newLog(WriteAheadLog.class);
+
+  private static final Metrics.Metric SYNC = Metrics.get("wal.sync");
+  private static final Metrics.Metric COMPACT = Metrics.get("wal.compact");
+
+  private static final int USER_RECORD = 1;
+  private static final int CONVERSATION_RECORD = 2;
+  private static final int MESSAGE_RECORD = 3;
+  private static final int LIKE_RECORD = 4;
+  private static final int ACCESS_RECORD = 5;
+
+  private static final String JOURNAL_PREFIX = "journal-";
+  private static final String SNAPSHOT_PREFIX = "snapshot-";
+  private static final String SUFFIX = ".log";
+  private static final String SNAPSHOT_SUFFIX = ".snap";
+
+  // How long the syncer waits before trying again after a failed sync.
+  static final long RETRY_MS = 1000;
+
+  private final File directory;
+
+  // Guards the buffer and the counters. Never held while doing file IO.
+  private final Object lock = new Object();
+
+  // Held while writing to the journal so that a batch and a switch to a new
+  // generation can never overlap.
+  private final Object ioLock = new Object();
+
+  private ByteArrayOutputStream buffered = new ByteArrayOutputStream();
+  private long appended = 0;
+  private long synced = 0;
+
+  // Why the last sync failed, or null if it worked.
+  private IOException failure = null;
+
+  private long generation;
+  private FileChannel journal;
+
+  // The generation of the snapshot the model was last loaded from or written
+  // to, or -1 if there is none. Only used by "compact".
+  private long lastSnapshot;
+
+  private volatile boolean running = true;
+
+  private final Thread syncer = new Thread() {
+    @Override
+    public void run() {
+      while (running) {
+        try {
+          synchronized (lock) {
+            while (running && buffered.size() == 0) {
+              lock.wait();
+            }
+          }
+          sync();
+        } catch (InterruptedException ex) {
+          // Woken by "close", loop around and check "running".
+        } catch (IOException ex) {
+          LOG.error(ex, "Failed to sync write ahead log, retrying in %d ms.", RETRY_MS);
+          try {
+            Thread.sleep(RETRY_MS);
+          } catch (InterruptedException stop) {
+            // Woken by "close", loop around and check "running".
+          }
+        }
+      }
+    }
+  };
+
+  private WriteAheadLog(File directory, long generation, long snapshot) throws IOException {
+    this.directory = directory;
+    this.generation = generation;
+    this.lastSnapshot = snapshot;
+    this.journal = openJournal(directory, generation);
+
+    syncer.setDaemon(true);
+    syncer.start();
+  }
+
+  // OPEN
+  //
+  // Rebuild the model from the log files in the given directory, then open the
+  // log for new records. The log always starts a new generation so that a
+  // damaged end of the previous journal is never appended to. The controller
+  // given here is only used for replaying and should not log its own changes.
+  public static WriteAheadLog open(File directory, Controller controller, Model model) throws IOException {
+
+    final List<Long> snapshots = generations(directory, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+    final List<Long> journals = generations(directory, JOURNAL_PREFIX, SUFFIX);
+
+    // Use the newest snapshot that is not damaged.
+    long snapshot = -1;
+
+    for (int i = snapshots.size() - 1; i >= 0 && snapshot < 0; i--) {
+      final File file = file(directory, SNAPSHOT_PREFIX, snapshots.get(i), SNAPSHOT_SUFFIX);
+      if (Snapshot.verify(file)) {
+        snapshot = snapshots.get(i);
+      } else {
+        LOG.error("Snapshot %s is damaged, falling back to the generation before it", file);
+      }
+    }
+
+    // Without a snapshot, every change must still be in the journals, which
+    // is only true if the first journal is still there.
+    if (snapshot < 0 && !snapshots.isEmpty() && (journals.isEmpty() || journals.get(0) != 0)) {
+      throw new IOException("No usable snapshot in " + directory);
+    }
+
+    if (snapshot >= 0) {
+      Snapshot.read(file(directory, SNAPSHOT_PREFIX, snapshot, SNAPSHOT_SUFFIX), model);
+    }
+
+    long last = snapshot;
+
+    for (final long journal : journals) {
+      if (journal >= snapshot) {
+        replay(file(directory, JOURNAL_PREFIX, journal, SUFFIX), controller, model);
+        last = Math.max(last, journal);
+      }
+    }
+
+    // Damaged snapshots may be newer than every journal.
+    if (!snapshots.isEmpty()) {
+      last = Math.max(last, snapshots.get(snapshots.size() - 1));
+    }
+
+    return new WriteAheadLog(directory, last + 1, snapshot);
+  }
+
+  // IS EMPTY
+  //
+  // Check if there is anything to recover in the given directory.
+  public static boolean isEmpty(File directory) {
+    return latest(directory, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX) < 0 &&
+           latest(directory, JOURNAL_PREFIX, SUFFIX) < 0;
+  }
+
+  public long appendUser(User user) {
+    final ByteArrayOutputStream record = start(USER_RECORD);
+    try {
+      User.SERIALIZER.write(record, user);
+    } catch (IOException ex) {
+      throw new IllegalStateException(ex);  // Writing to memory cannot fail
+    }
+    return append(record);
+  }
+
+  public long appendConversation(ConversationHeader conversation) {
+    final ByteArrayOutputStream record = start(CONVERSATION_RECORD);
+    try {
+      ConversationHeader.SERIALIZER.write(record, conversation);
+    } catch (IOException ex) {
+      throw new IllegalStateException(ex);
+    }
+    return append(record);
+  }
+
+  public long appendMessage(Message message) {
+    final ByteArrayOutputStream record = start(MESSAGE_RECORD);
+    try {
+      Message.SERIALIZER.write(record, message);
+    } catch (IOException ex) {
+      throw new IllegalStateException(ex);
+    }
+    return append(record);
+  }
+
+  // APPEND LIKE
+  //
+  // Record the total number of likes rather than the increment so that
+  // replaying the record more than once gives the same result.
+  public long appendLike(Uuid message, int likes) {
+    final ByteArrayOutputStream record = start(LIKE_RECORD);
+    try {
+      Uuid.SERIALIZER.write(record, message);
+      Serializers.INTEGER.write(record, likes);
+    } catch (IOException ex) {
+      throw new IllegalStateException(ex);
+    }
+    return append(record);
+  }
+
+  public long appendAccess(Uuid user, AccessLevel access, Uuid conversation) {
+    final ByteArrayOutputStream record = start(ACCESS_RECORD);
+    try {
+      Uuid.SERIALIZER.write(record, user);
+      AccessLevel.SERIALIZER.write(record, access);
+      Uuid.SERIALIZER.write(record, conversation);
+    } catch (IOException ex) {
+      throw new IllegalStateException(ex);
+    }
+    return append(record);
+  }
+
+  // COMMIT
+  //
+  // Wait until the record at the given position (as returned by one of the
+  // append methods) has been synced to disk. Throws the reason if the log is
+  // failing to sync. The record is still kept and written once the log can
+  // sync again.
+  public void commit(long position) throws IOException {
+    synchronized (lock) {
+      while (synced < position && failure == null) {
+        try {
+          lock.wait();
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          throw new IOException("Interrupted while waiting for the log to sync");
+        }
+      }
+      if (synced < position) {
+        throw failure;
+      }
+    }
+  }
+
+  // COMPACT
+  //
+  // Start a new generation and write the current state of the model as its
+  // snapshot. Once the snapshot is safely on disk, the previous snapshot is
+  // kept in case this one is damaged, and the files from before it are no
+  // longer needed and are deleted.
+  public void compact(Model model) throws IOException {
+
+    final long start = System.nanoTime();
+    final long snapshotGeneration;
+
+    synchronized (ioLock) {
+      sync();
+      journal.close();
+      generation += 1;
+      journal = openJournal(directory, generation);
+      snapshotGeneration = generation;
+    }
+
+    final File snapshot = file(directory, SNAPSHOT_PREFIX, snapshotGeneration, SNAPSHOT_SUFFIX);
+    final File temp = new File(directory, snapshot.getName() + ".tmp");
+
+    Snapshot.write(model, temp);
+
+    if (!temp.renameTo(snapshot)) {
+      throw new IOException("Failed to rename " + temp + " to " + snapshot);
+    }
+
+    final long previous = lastSnapshot;
+    lastSnapshot = snapshotGeneration;
+
+    if (previous >= 0) {
+      deleteBefore(previous, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+      deleteBefore(previous, JOURNAL_PREFIX, SUFFIX);
+    }
+
+    COMPACT.record(start, 0, snapshot.length());
+
+    LOG.info("Compacted write ahead log into %s", snapshot);
+  }
+
+  @Override
+  public void close() throws IOException {
+    synchronized (ioLock) {
+      sync();
+      running = false;
+      syncer.interrupt();
+      journal.close();
+    }
+  }
+
+  // SYNC
+  //
+  // Write everything that has been buffered to the journal and force it to
+  // disk, then wake everyone waiting on those records.
+  private void sync() throws IOException {
+    synchronized (ioLock) {
+
+      final byte[] batch;
+      final long position;
+
+      synchronized (lock) {
+        batch = buffered.toByteArray();
+        position = appended;
+        buffered = new ByteArrayOutputStream();
+      }
+
+      if (batch.length == 0) {
+        return;
+      }
+
+      final long start = System.nanoTime();
+
+      try {
+        final ByteBuffer buffer = ByteBuffer.wrap(batch);
+        while (buffer.hasRemaining()) {
+          journal.write(buffer);
+        }
+        journal.force(false);
+      } catch (IOException ex) {
+        SYNC.error();
+        synchronized (lock) {
+          // Put the batch back in front of anything appended since so that it
+          // is retried in order.
+          final byte[] newer = buffered.toByteArray();
+          buffered = new ByteArrayOutputStream(batch.length + newer.length);
+          buffered.write(batch, 0, batch.length);
+          buffered.write(newer, 0, newer.length);
+          failure = ex;
+          lock.notifyAll();
+        }
+        reopen();
+        throw ex;
+      }
+
+      SYNC.record(start, 0, batch.length);
+
+      synchronized (lock) {
+        synced = position;
+        failure = null;
+        lock.notifyAll();
+      }
+    }
+  }
+
+  // REOPEN
+  //
+  // Move to a new generation after a failed write. Part of the batch may have
+  // reached the old journal and replay stops at the first damaged record, so
+  // nothing more can go after it. If the new journal can not be opened either,
+  // the next sync fails on the closed channel and tries again.
+  private void reopen() {
+    synchronized (ioLock) {
+      try {
+        journal.close();
+      } catch (IOException ex) {
+        LOG.warning("Failed to close journal %d: %s", generation, ex);
+      }
+      generation += 1;
+      try {
+        journal = openJournal(directory, generation);
+      } catch (IOException ex) {
+        LOG.error(ex, "Failed to open journal %d", generation);
+      }
+    }
+  }
+
+  private static ByteArrayOutputStream start(int type) {
+    final ByteArrayOutputStream record = new ByteArrayOutputStream();
+    record.write(type);
+    return record;
+  }
+
+  private long append(ByteArrayOutputStream record) {
+
+    final byte[] frame = frame(record.toByteArray());
+
+    synchronized (lock) {
+      buffered.write(frame, 0, frame.length);
+      appended += 1;
+      lock.notifyAll();
+      return appended;
+    }
+  }
+
+  private static byte[] frame(byte[] body) {
+
+    final CRC32 crc = new CRC32();
+    crc.update(body, 0, body.length);
+
+    final ByteArrayOutputStream frame = new ByteArrayOutputStream(body.length + 8);
+    final DataOutputStream out = new DataOutputStream(frame);
+
+    try {
+      out.writeInt(body.length);
+      out.writeInt((int) crc.getValue());
+      out.write(body);
+    } catch (IOException ex) {
+      throw new IllegalStateException(ex);
+    }
+
+    return frame.toByteArray();
+  }
+
+  // REPLAY
+  //
+  // Apply every record in a log file to the model. Creating something that
+  // already exists is ignored by the controller, likes and access levels are
+  // set rather than changed, so it is safe to replay a change twice.
+  private static void replay(File file, Controller controller, Model model) throws IOException {
+
+    int records = 0;
+
+    try (final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      while (true) {
+
+        final int length;
+        try {
+          length = in.readInt();
+        } catch (EOFException ex) {
+          break;  // Clean end of file
+        }
+
+        final byte[] body;
+        final int expectedCrc;
+        try {
+          expectedCrc = in.readInt();
+          body = new byte[length];
+          in.readFully(body);
+        } catch (EOFException | NegativeArraySizeException ex) {
+          LOG.warning("Ignoring partial record at the end of %s", file);
+          break;
+        }
+
+        final CRC32 crc = new CRC32();
+        crc.update(body, 0, body.length);
+
+        if ((int) crc.getValue() != expectedCrc) {
+          LOG.warning("Ignoring damaged record at the end of %s", file);
+          break;
+        }
+
+        apply(new ByteArrayInputStream(body), controller, model);
+        records += 1;
+      }
+    }
+
+    LOG.info("Replayed %d records from %s", records, file);
+  }
+
+  private static void apply(InputStream in, Controller controller, Model model) throws IOException {
+
+    final int type = in.read();
+
+    if (type == USER_RECORD) {
+
+      final User user = User.SERIALIZER.read(in);
+      controller.newUser(user.id, user.name, user.creation);
+
+    } else if (type == CONVERSATION_RECORD) {
+
+      final ConversationHeader conversation = ConversationHeader.SERIALIZER.read(in);
+      final ConversationHeader found = model.conversationById().first(conversation.id);
+
+      if (found == null) {
+        controller.newConversation(conversation.id,
+                                   conversation.title,
+                                   conversation.owner,
+                                   conversation.creation,
+                                   conversation.defaultAccessLevel.toString(),
+                                   conversation.usersInConvo);
+      } else {
+        found.usersInConvo.putAll(conversation.usersInConvo);
+      }
+
+    } else if (type == MESSAGE_RECORD) {
+
+      final Message message = Message.SERIALIZER.read(in);
+
+      if (model.messageById().first(message.id) == null) {
+        controller.newMessage(message.id,
+                              message.author,
+                              message.convoId,
+                              message.content,
+                              message.creation);
+      }
+
+      setLikes(model, message.id, message.likes);
+
+    } else if (type == LIKE_RECORD) {
+
+      final Uuid id = Uuid.SERIALIZER.read(in);
+      setLikes(model, id, Serializers.INTEGER.read(in));
+
+    } else if (type == ACCESS_RECORD) {
+
+      final Uuid user = Uuid.SERIALIZER.read(in);
+      final AccessLevel access = AccessLevel.SERIALIZER.read(in);
+      final ConversationHeader conversation = model.conversationById().first(Uuid.SERIALIZER.read(in));
+
+      if (conversation != null) {
+        conversation.usersInConvo.put(user, access);
+      }
+
+    } else {
+      throw new IOException(String.format("Unknown record type %d", type));
+    }
+  }
+
+  private static void setLikes(Model model, Uuid id, int likes) {
+    final Message message = model.messageById().first(id);
+    if (message != null && likes > message.likes) {
+      message.likes = likes;
+    }
+  }
+
+  private void deleteBefore(long generation, String prefix, String suffix) {
+    for (final long older : generations(directory, prefix, suffix)) {
+      if (older < generation) {
+        file(directory, prefix, older, suffix).delete();
+      }
+    }
+  }
+
+  private static FileChannel openJournal(File directory, long generation) throws IOException {
+    final FileChannel channel = new RandomAccessFile(file(directory, JOURNAL_PREFIX, generation, SUFFIX), "rw").getChannel();
+    channel.position(channel.size());
+    return channel;
+  }
+
+  private static File file(File directory, String prefix, long generation, String suffix) {
+    return new File(directory, prefix + generation + suffix);
+  }
+
+  private static long latest(File directory, String prefix, String suffix) {
+    final List<Long> all = generations(directory, prefix, suffix);
+    return all.isEmpty() ? -1 : all.get(all.size() - 1);
+  }
+
+  // GENERATIONS
+  //
+  // Find all the generations that have a file with the given prefix and
+  // suffix, in ascending order.
+  private static List<Long> generations(File directory, String prefix, String suffix) {
+
+    final List<Long> found = new ArrayList<>();
+    final String[] names = directory.list();
+
+    if (names != null) {
+      for (final String name : names) {
+        if (name.startsWith(prefix) && name.endsWith(suffix)) {
+          try {
+            found.add(Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length())));
+          } catch (NumberFormatException ex) {
+            // Not one of our files.
+          }
+        }
+      }
+    }
+
+    Collections.sort(found);
+    return found;
+  }
+}
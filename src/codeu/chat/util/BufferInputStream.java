@@ -0,0 +1,109 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.io.EOFException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// BUFFER INPUT STREAM
+//
+// An input stream over bytes that have already been received in full (e.g.
+// a request frame). Serializers check for this stream and read ints, longs
+// and strings straight out of the buffer instead of one byte at a time.
+//
+// Not thread safe.
+public final class BufferInputStream extends InputStream {
+
+  private final ByteBuffer buffer;
+
+  public BufferInputStream(ByteBuffer buffer) {
+    this.buffer = buffer;
+  }
+
+  public static BufferInputStream wrap(byte[] bytes) {
+    return new BufferInputStream(ByteBuffer.wrap(bytes));
+  }
+
+  @Override
+  public int read() {
+    return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+  }
+
+  @Override
+  public int read(byte[] bytes, int offset, int length) {
+    if (length == 0) {
+      return 0;
+    }
+    if (!buffer.hasRemaining()) {
+      return -1;
+    }
+    final int count = Math.min(length, buffer.remaining());
+    buffer.get(bytes, offset, count);
+    return count;
+  }
+
+  @Override
+  public long skip(long n) {
+    final int count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+    buffer.position(buffer.position() + count);
+    return count;
+  }
+
+  @Override
+  public int available() {
+    return buffer.remaining();
+  }
+
+  public int readInt() throws EOFException {
+    require(4);
+    return buffer.getInt();
+  }
+
+  public long readLong() throws EOFException {
+    require(8);
+    return buffer.getLong();
+  }
+
+  public void readFully(byte[] bytes) throws EOFException {
+    require(bytes.length);
+    buffer.get(bytes);
+  }
+
+  // READ UTF8
+  //
+  // Decode the next "length" bytes as UTF-8. When the buffer is backed by an
+  // array the string is decoded in place without copying the bytes first.
+  public String readUtf8(int length) throws EOFException {
+    require(length);
+    if (buffer.hasArray()) {
+      final String value = new String(
+          buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+      buffer.position(buffer.position() + length);
+      return value;
+    } else {
+      final byte[] bytes = new byte[length];
+      buffer.get(bytes);
+      return new String(bytes, StandardCharsets.UTF_8);
+    }
+  }
+
+  private void require(int bytes) throws EOFException {
+    if (bytes < 0 || buffer.remaining() < bytes) {
+      throw new EOFException();
+    }
+  }
+}
@@ -0,0 +1,145 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+// BUFFER OUTPUT STREAM
+//
+// An output stream that collects everything written to it in a growable
+// ByteBuffer so that it can be sent with one bulk write. Serializers check
+// for this stream and write ints, longs and strings straight into the buffer
+// instead of one byte at a time, without boxing or temporary arrays.
+//
+// Not thread safe - use one stream per message being written.
+public final class BufferOutputStream extends OutputStream {
+
+  private static final int INITIAL_CAPACITY = 256;
+
+  private ByteBuffer buffer;
+  private CharsetEncoder encoder;
+
+  public BufferOutputStream() {
+    this(INITIAL_CAPACITY);
+  }
+
+  public BufferOutputStream(int capacity) {
+    buffer = ByteBuffer.allocate(Math.max(capacity, 16));
+  }
+
+  @Override
+  public void write(int b) {
+    ensure(1);
+    buffer.put((byte) b);
+  }
+
+  @Override
+  public void write(byte[] bytes, int offset, int length) {
+    ensure(length);
+    buffer.put(bytes, offset, length);
+  }
+
+  public void writeInt(int value) {
+    ensure(4);
+    buffer.putInt(value);
+  }
+
+  public void writeLong(long value) {
+    ensure(8);
+    buffer.putLong(value);
+  }
+
+  // WRITE UTF8
+  //
+  // Write the UTF-8 bytes of the string with their length in front, the same
+  // layout as Serializers.STRING. The string is encoded straight into the
+  // buffer and the length filled in afterwards.
+  public void writeUtf8(String value) {
+
+    final int start = buffer.position();
+    writeInt(0);
+
+    if (encoder == null) {
+      // Strings from the network may hold unpaired surrogates. getBytes
+      // replaces those with '?', so do the same here.
+      encoder = StandardCharsets.UTF_8.newEncoder()
+          .onMalformedInput(CodingErrorAction.REPLACE)
+          .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+    encoder.reset();
+
+    final CharBuffer chars = CharBuffer.wrap(value);
+
+    while (encoder.encode(chars, buffer, true).isOverflow()) {
+      ensure(Math.max(16, chars.remaining() * 3));
+    }
+    while (encoder.flush(buffer).isOverflow()) {
+      ensure(16);
+    }
+
+    buffer.putInt(start, buffer.position() - start - 4);
+  }
+
+  // SIZE
+  //
+  // The number of bytes written since the stream was made or last reset.
+  public int size() {
+    return buffer.position();
+  }
+
+  // RESET
+  //
+  // Forget everything written so the buffer can be reused.
+  public void reset() {
+    buffer.clear();
+  }
+
+  public byte[] toByteArray() {
+    final byte[] bytes = new byte[buffer.position()];
+    System.arraycopy(buffer.array(), 0, bytes, 0, bytes.length);
+    return bytes;
+  }
+
+  // AS BYTE BUFFER
+  //
+  // A read-only view of the bytes written so far. It shares the stream's
+  // memory, so it is only valid until the stream is written to again.
+  public ByteBuffer asByteBuffer() {
+    return ByteBuffer.wrap(buffer.array(), 0, buffer.position()).asReadOnlyBuffer();
+  }
+
+  // WRITE TO
+  //
+  // Send everything written so far to the given stream in one write.
+  public void writeTo(OutputStream out) throws IOException {
+    out.write(buffer.array(), 0, buffer.position());
+  }
+
+  private void ensure(int bytes) {
+    if (buffer.remaining() < bytes) {
+      final int needed = buffer.position() + bytes;
+      final ByteBuffer bigger = ByteBuffer.allocate(Math.max(needed, buffer.capacity() * 2));
+      buffer.flip();
+      bigger.put(buffer);
+      buffer = bigger;
+    }
+  }
+}
@@ -0,0 +1,118 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// HISTOGRAM
+//
+// Counts values (e.g. latencies in nanoseconds) in buckets without taking a
+// lock, so many threads can record at once. Each power of two is split into
+// SUB_BUCKETS buckets, so a percentile read back is within 1 / SUB_BUCKETS of
+// the real value. Values below SUB_BUCKETS get a bucket each.
+public final class Histogram {
+
+  private static final int SUB_BITS = 2;
+  private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+  private final AtomicLongArray buckets = new AtomicLongArray(64 * SUB_BUCKETS);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong sum = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+
+  public void record(long value) {
+
+    final long clamped = Math.max(0, value);
+
+    buckets.incrementAndGet(bucket(clamped));
+    count.incrementAndGet();
+    sum.addAndGet(clamped);
+
+    long current = max.get();
+    while (clamped > current && !max.compareAndSet(current, clamped)) {
+      current = max.get();
+    }
+  }
+
+  public long count() {
+    return count.get();
+  }
+
+  public long sum() {
+    return sum.get();
+  }
+
+  public long max() {
+    return max.get();
+  }
+
+  public long mean() {
+    final long n = count.get();
+    return n == 0 ? 0 : sum.get() / n;
+  }
+
+  // PERCENTILE
+  //
+  // The upper bound of the bucket holding the value at "fraction" (e.g. 0.99)
+  // of the way through everything recorded, or zero if nothing has been
+  // recorded. As recording does not stop while this runs, the result is only
+  // as exact as the buckets.
+  public long percentile(double fraction) {
+
+    long total = 0;
+    for (int i = 0; i < buckets.length(); i++) {
+      total += buckets.get(i);
+    }
+
+    if (total == 0) {
+      return 0;
+    }
+
+    final long target = Math.max(1, (long) Math.ceil(total * fraction));
+
+    long seen = 0;
+    for (int i = 0; i < buckets.length(); i++) {
+      seen += buckets.get(i);
+      if (seen >= target) {
+        return Math.min(upper(i), max.get());
+      }
+    }
+
+    return max.get();
+  }
+
+  // Values below SUB_BUCKETS map to themselves. Above that, the bucket is the
+  // position of the top bit and the SUB_BITS bits below it.
+  static int bucket(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    final int top = 63 - Long.numberOfLeadingZeros(value);
+    final int sub = (int) (value >>> (top - SUB_BITS)) & (SUB_BUCKETS - 1);
+    return (top - SUB_BITS + 1) * SUB_BUCKETS + sub;
+  }
+
+  // The largest value that falls in a bucket.
+  static long upper(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    final int top = bucket / SUB_BUCKETS + SUB_BITS - 1;
+    final long sub = bucket % SUB_BUCKETS;
+    final long low = (1L << top) | (sub << (top - SUB_BITS));
+    return low + (1L << (top - SUB_BITS)) - 1;
+  }
+}
@@ -14,9 +14,46 @@
 
 package codeu.chat.util;
 
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.logging.Level;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+// LOGGER
+//
+// Logging goes through a background thread so that a log call costs the
+// caller as little as possible:
+//
+//   - The level is checked before anything else. A call below the current
+//     level returns straight away. So does any call before an output has been
+//     enabled.
+//   - The caller is not looked up. Each line is tagged with the class the log
+//     was made for and the name of the calling thread.
+//   - The message is not formatted by the caller. The format string and its
+//     parameters are put in a bounded queue, and the writer thread formats
+//     them and writes them to every output. Parameters should be values that
+//     do not change once logged (ids, numbers, strings, times).
+//
+// When the queue is full the OverflowPolicy decides what happens. DROP (the
+// default) throws the record away and counts it, so a slow disk never slows
+// down the server. BLOCK makes the caller wait for room.
+//
+// Every REPORT_MS the writer logs how many records it wrote and dropped
+// since the last report, if any. "written" and "dropped" give the totals.
 public final class Logger {
 
   public interface Log {
@@ -32,82 +69,289 @@ public final class Logger {
 
   }
 
-  private static final java.util.logging.Logger logger =
-      java.util.logging.Logger.getLogger("codeu.chat");
+  public enum Level {
+    VERBOSE, INFO, WARNING, ERROR
+  }
+
+  public enum OverflowPolicy {
+    DROP, BLOCK
+  }
+
+  private static final int QUEUE_SIZE = 8192;
+  private static final long REPORT_MS = 60000;
+
+  private static final class Record {
+
+    final Level level;
+    final long time;
+    final String thread;
+    final String source;
+    final String message;
+    final Object[] params;
+    final Throwable error;
+
+    Record(Level level, String source, Throwable error, String message, Object[] params) {
+      this.level = level;
+      this.time = System.currentTimeMillis();
+      this.thread = Thread.currentThread().getName();
+      this.source = source;
+      this.error = error;
+      this.message = message;
+      this.params = params;
+    }
+  }
+
+  private static final BlockingQueue<Record> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+  private static final List<Writer> outputs = new CopyOnWriteArrayList<>();
+
+  private static final AtomicLong queued = new AtomicLong();
+  private static final AtomicLong written = new AtomicLong();
+  private static final AtomicLong dropped = new AtomicLong();
+
+  private static volatile Level level = Level.INFO;
+  private static volatile OverflowPolicy policy = OverflowPolicy.DROP;
+
+  // Set once the first output is added. Until then every call is dropped
+  // without being counted.
+  private static volatile boolean enabled = false;
+
+  private static final Thread writer = new Thread("logger") {
+    @Override
+    public void run() {
+
+      final List<Record> batch = new ArrayList<>();
+      final StringBuilder line = new StringBuilder();
+      final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+
+      long reportAt = System.currentTimeMillis() + REPORT_MS;
+      long reportedWritten = 0;
+      long reportedDropped = 0;
+
+      while (true) {
+        try {
+
+          final Record first = queue.poll(Math.max(1, reportAt - System.currentTimeMillis()),
+                                          TimeUnit.MILLISECONDS);
+
+          if (first != null) {
+            batch.add(first);
+            queue.drainTo(batch);
+            write(batch, line, format);
+            written.addAndGet(batch.size());
+            batch.clear();
+          }
+
+          if (System.currentTimeMillis() >= reportAt) {
+
+            final long nowWritten = written.get();
+            final long nowDropped = dropped.get();
+
+            // The report is written directly and not counted so that an
+            // idle logger goes quiet.
+            if (nowWritten != reportedWritten || nowDropped != reportedDropped) {
+              write(Collections.singletonList(new Record(
+                  Level.INFO,
+                  Logger.class.getName(),
+                  null,
+                  "Wrote %d records (%d/s), dropped %d",
+                  new Object[] {
+                      nowWritten - reportedWritten,
+                      (nowWritten - reportedWritten) * 1000 / REPORT_MS,
+                      nowDropped - reportedDropped })), line, format);
+            }
+
+            reportedWritten = nowWritten;
+            reportedDropped = nowDropped;
+            reportAt = System.currentTimeMillis() + REPORT_MS;
+          }
+
+        } catch (InterruptedException ex) {
+          // Nothing interrupts the writer, keep going.
+        } catch (Exception ex) {
+          // Never let a bad record or output take down the writer.
+          ex.printStackTrace();
+        }
+      }
+    }
+  };
 
   static {
-    logger.setLevel(java.util.logging.Level.INFO);
+    writer.setDaemon(true);
+    writer.start();
 
-    // Stop this logger from sending its messages up to the root. This will
-    // make our logger the new root logger.
-    logger.setUseParentHandlers(false);
+    // Write out whatever is still queued when the program exits.
+    Runtime.getRuntime().addShutdownHook(new Thread() {
+      @Override
+      public void run() {
+        flush();
+      }
+    });
   }
 
   public static void enableFileOutput(String file) throws IOException {
-
-    final java.util.logging.Handler handler =
-        new java.util.logging.FileHandler(file, true /* append */);
-    handler.setFormatter(new java.util.logging.SimpleFormatter());
-    logger.addHandler(handler);
+    addOutput(new BufferedWriter(new OutputStreamWriter(
+        new FileOutputStream(file, true /* append */),
+        StandardCharsets.UTF_8)));
   }
 
   public static void enableConsoleOutput() {
+    addOutput(new PrintWriter(System.err));
+  }
+
+  // ADD OUTPUT
+  //
+  // Also write every record to "output". Only the writer thread uses it.
+  static void addOutput(Writer output) {
+    outputs.add(output);
+    enabled = true;
+  }
+
+  static void removeOutput(Writer output) {
+    outputs.remove(output);
+  }
+
+  public static void setLevel(Level newLevel) {
+    level = newLevel;
+  }
 
-    final java.util.logging.Handler handler =
-        new java.util.logging.ConsoleHandler();
-    handler.setFormatter(new java.util.logging.SimpleFormatter());
-    logger.addHandler(handler);
+  public static void setOverflowPolicy(OverflowPolicy newPolicy) {
+    policy = newPolicy;
+  }
+
+  // WRITTEN
+  //
+  // The number of records written to the outputs so far.
+  public static long written() {
+    return written.get();
+  }
+
+  // DROPPED
+  //
+  // The number of records thrown away because the queue was full.
+  public static long dropped() {
+    return dropped.get();
+  }
+
+  // FLUSH
+  //
+  // Wait (up to a second) for everything queued so far to be written.
+  public static void flush() {
+    final long target = queued.get();
+    final long end = System.currentTimeMillis() + 1000;
+    while (written.get() < target && System.currentTimeMillis() < end) {
+      try {
+        Thread.sleep(1);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
   }
 
   public static Log newLog(Class<?> c) {
 
-    final java.util.logging.Logger log =
-        java.util.logging.Logger.getLogger(c.getName());
+    final String source = c.getName();
 
-    // Note: This Logger calls the standard java Logger, so the class/method lookup
-    // needs to go one level deeper.  Otherwise it will appear that all the log
-    // calls are coming from this object. Use logp() (log precise) to do this.
     return new Log() {
 
       @Override
       public void verbose(String message, Object... params) {
-        log.logp(java.util.logging.Level.FINE,
-            Thread.currentThread().getStackTrace()[2].getClassName(),
-            Thread.currentThread().getStackTrace()[2].getMethodName(),
-            String.format(message, params));
+        log(Level.VERBOSE, source, null, message, params);
       }
 
       @Override
       public void info(String message, Object... params) {
-        log.logp(java.util.logging.Level.INFO,
-            Thread.currentThread().getStackTrace()[2].getClassName(),
-            Thread.currentThread().getStackTrace()[2].getMethodName(),
-            String.format(message, params));
+        log(Level.INFO, source, null, message, params);
       }
 
       @Override
       public void warning(String message, Object... params) {
-        log.logp(java.util.logging.Level.WARNING,
-                 Thread.currentThread().getStackTrace()[2].getClassName(),
-                 Thread.currentThread().getStackTrace()[2].getMethodName(),
-                 String.format(message, params));
+        log(Level.WARNING, source, null, message, params);
       }
 
       @Override
       public void error(String message, Object... params) {
-        log.logp(java.util.logging.Level.SEVERE,
-                 Thread.currentThread().getStackTrace()[2].getClassName(),
-                 Thread.currentThread().getStackTrace()[2].getMethodName(),
-                 String.format(message, params));
+        log(Level.ERROR, source, null, message, params);
       }
 
       @Override
       public void error(Throwable error, String message, Object... params) {
-        log.logp(java.util.logging.Level.SEVERE,
-                 Thread.currentThread().getStackTrace()[2].getClassName(),
-                 Thread.currentThread().getStackTrace()[2].getMethodName(),
-                 String.format(message, params), error);
+        log(Level.ERROR, source, error, message, params);
       }
     };
   }
+
+  private static void log(Level recordLevel,
+                          String source,
+                          Throwable error,
+                          String message,
+                          Object[] params) {
+
+    if (!enabled || recordLevel.compareTo(level) < 0) {
+      return;
+    }
+
+    final Record record = new Record(recordLevel, source, error, message, params);
+
+    if (policy == OverflowPolicy.BLOCK) {
+      try {
+        queue.put(record);
+        queued.incrementAndGet();
+      } catch (InterruptedException ex) {
+        dropped.incrementAndGet();
+        Thread.currentThread().interrupt();
+      }
+    } else if (queue.offer(record)) {
+      queued.incrementAndGet();
+    } else {
+      dropped.incrementAndGet();
+    }
+  }
+
+  // WRITE
+  //
+  // Format a batch of records and write them to every output. Called only by
+  // the writer thread.
+  private static void write(List<Record> batch, StringBuilder line, SimpleDateFormat format) {
+
+    for (final Writer output : outputs) {
+      try {
+        for (final Record record : batch) {
+          line.setLength(0);
+          format(record, line, format);
+          output.append(line);
+        }
+        output.flush();
+      } catch (IOException ex) {
+        ex.printStackTrace();
+      }
+    }
+  }
+
+  private static void format(Record record, StringBuilder line, SimpleDateFormat format) {
+
+    line.append(format.format(new Date(record.time)))
+        .append(' ')
+        .append(record.level)
+        .append(" [")
+        .append(record.thread)
+        .append("] ")
+        .append(record.source)
+        .append(": ");
+
+    try {
+      line.append(String.format(record.message, record.params));
+    } catch (RuntimeException ex) {
+      // A bad format string should not lose the record.
+      line.append(record.message).append(" (").append(ex).append(')');
+    }
+
+    line.append(System.lineSeparator());
+
+    if (record.error != null) {
+      final StringWriter trace = new StringWriter();
+      record.error.printStackTrace(new PrintWriter(trace));
+      line.append(trace);
+    }
+  }
 }
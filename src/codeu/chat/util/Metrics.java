@@ -0,0 +1,106 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// METRICS
+//
+// Named counters and latency histograms shared by the whole process. Like
+// "Logger.newLog", code asks for its metric by name once and keeps it:
+//
+//   private static final Metrics.Metric READS = Metrics.get("relay.read");
+//
+// and then records into it with "READS.record(start, bytesIn, bytesOut)".
+// Nothing takes a lock, so recording is cheap enough to do on every request.
+public final class Metrics {
+
+  // METRIC
+  //
+  // The count, errors, bytes in and out, and latency (in nanoseconds) of one
+  // kind of operation.
+  public static final class Metric {
+
+    public final String name;
+
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong bytesIn = new AtomicLong();
+    private final AtomicLong bytesOut = new AtomicLong();
+    private final Histogram latency = new Histogram();
+
+    private Metric(String name) {
+      this.name = name;
+    }
+
+    // RECORD
+    //
+    // Record one operation that started at "start" (from System.nanoTime)
+    // and ended now.
+    public void record(long start) {
+      latency.record(System.nanoTime() - start);
+    }
+
+    // RECORD DURATION
+    //
+    // Record one operation that took "nanos" nanoseconds.
+    public void recordDuration(long nanos) {
+      latency.record(nanos);
+    }
+
+    public void record(long start, long in, long out) {
+      record(start);
+      bytesIn.addAndGet(in);
+      bytesOut.addAndGet(out);
+    }
+
+    public void error() {
+      errors.incrementAndGet();
+    }
+
+    public long count() { return latency.count(); }
+
+    public long errors() { return errors.get(); }
+
+    public long bytesIn() { return bytesIn.get(); }
+
+    public long bytesOut() { return bytesOut.get(); }
+
+    public Histogram latency() { return latency; }
+  }
+
+  private static final ConcurrentMap<String, Metric> metrics = new ConcurrentHashMap<>();
+
+  public static Metric get(String name) {
+    final Metric metric = metrics.get(name);
+    if (metric != null) {
+      return metric;
+    }
+    final Metric created = new Metric(name);
+    final Metric existing = metrics.putIfAbsent(name, created);
+    return existing == null ? created : existing;
+  }
+
+  // ALL
+  //
+  // Every metric so far, by name.
+  public static SortedMap<String, Metric> all() {
+    return new TreeMap<String, Metric>(metrics);
+  }
+}
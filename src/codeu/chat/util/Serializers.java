@@ -15,10 +15,18 @@
 package codeu.chat.util;
 
 import java.io.*;
+import java.nio.charset.Charset;
 import java.util.*;
 
+// SERIALIZERS
+//
+// Serializers for the basic types. They work on any stream, but when given a
+// BufferOutputStream or BufferInputStream they read and write whole values
+// in bulk instead of one byte at a time. Strings are always UTF-8.
 public final class Serializers {
 
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
   public static final Serializer<Boolean> BOOLEAN = new Serializer<Boolean>() {
 
     @Override
@@ -36,24 +44,12 @@ public final class Serializers {
 
     @Override
     public void write(OutputStream out, Integer value) throws IOException {
-
-      for (int i = 24; i >= 0; i -= 8) {
-        out.write(0xFF & (value >>> i));
-      }
-
+      writeInt(out, value);
     }
 
     @Override
     public Integer read(InputStream in) throws IOException {
-
-      int value = 0;
-
-      for (int i = 0; i < 4; i++) {
-        value = (value << 8) | in.read();
-      }
-
-      return value;
-
+      return readInt(in);
     }
   };
 
@@ -61,24 +57,12 @@ public final class Serializers {
 
     @Override
     public void write(OutputStream out, Long value) throws IOException {
-
-      for (int i = 56; i >= 0; i -= 8) {
-        out.write((int)(0xFF & (value >>> i)));
-      }
-
+      writeLong(out, value);
     }
 
     @Override
     public Long read(InputStream in) throws IOException {
-
-      long value = 0;
-
-      for (int i = 0; i < 8; i++) {
-        value = (value << 8) | in.read();
-      }
-
-      return value;
-
+      return readLong(in);
     }
   };
 
@@ -87,7 +71,7 @@ public final class Serializers {
     @Override
     public void write(OutputStream out, byte[] value) throws IOException {
 
-      INTEGER.write(out, value.length);
+      writeInt(out, value.length);
       out.write(value);
 
     }
@@ -95,11 +79,25 @@ public final class Serializers {
     @Override
     public byte[] read(InputStream input) throws IOException {
 
-      final int length = INTEGER.read(input);
+      final int length = readInt(input);
+
+      if (length < 0) {
+        throw new IOException(String.format("Invalid length %d", length));
+      }
+
       final byte[] array = new byte[length];
 
-      for (int i = 0; i < length; i++) {
-        array[i] = (byte)input.read();
+      if (input instanceof BufferInputStream) {
+        ((BufferInputStream) input).readFully(array);
+        return array;
+      }
+
+      for (int read = 0; read < length; ) {
+        final int count = input.read(array, read, length - read);
+        if (count < 0) {
+          throw new EOFException();
+        }
+        read += count;
       }
 
       return array;
@@ -112,18 +110,86 @@ public final class Serializers {
     @Override
     public void write(OutputStream out, String value) throws IOException {
 
-      BYTES.write(out, value.getBytes());
+      if (out instanceof BufferOutputStream) {
+        ((BufferOutputStream) out).writeUtf8(value);
+      } else {
+        BYTES.write(out, value.getBytes(UTF_8));
+      }
 
     }
 
     @Override
     public String read(InputStream input) throws IOException {
 
-      return new String(BYTES.read(input));
+      if (input instanceof BufferInputStream) {
+        final BufferInputStream buffer = (BufferInputStream) input;
+        return buffer.readUtf8(buffer.readInt());
+      }
+
+      return new String(BYTES.read(input), UTF_8);
 
     }
   };
 
+  // WRITE INT / READ INT / WRITE LONG / READ LONG
+  //
+  // Primitive versions of INTEGER and LONG for serializers that write a lot
+  // of numbers (e.g. Uuid) and should not box every one of them.
+
+  public static void writeInt(OutputStream out, int value) throws IOException {
+
+    if (out instanceof BufferOutputStream) {
+      ((BufferOutputStream) out).writeInt(value);
+      return;
+    }
+
+    for (int i = 24; i >= 0; i -= 8) {
+      out.write(0xFF & (value >>> i));
+    }
+  }
+
+  public static int readInt(InputStream in) throws IOException {
+
+    if (in instanceof BufferInputStream) {
+      return ((BufferInputStream) in).readInt();
+    }
+
+    int value = 0;
+
+    for (int i = 0; i < 4; i++) {
+      value = (value << 8) | in.read();
+    }
+
+    return value;
+  }
+
+  public static void writeLong(OutputStream out, long value) throws IOException {
+
+    if (out instanceof BufferOutputStream) {
+      ((BufferOutputStream) out).writeLong(value);
+      return;
+    }
+
+    for (int i = 56; i >= 0; i -= 8) {
+      out.write((int)(0xFF & (value >>> i)));
+    }
+  }
+
+  public static long readLong(InputStream in) throws IOException {
+
+    if (in instanceof BufferInputStream) {
+      return ((BufferInputStream) in).readLong();
+    }
+
+    long value = 0;
+
+    for (int i = 0; i < 8; i++) {
+      value = (value << 8) | in.read();
+    }
+
+    return value;
+  }
+
 
   public static <T> Serializer<Collection<T>> collection(final Serializer<T> serializer) {
 
@@ -27,14 +27,14 @@ public final class Time implements Comparable<Time> {
     @Override
     public void write(OutputStream out, Time value) throws IOException {
 
-      Serializers.LONG.write(out, value.inMs());
+      Serializers.writeLong(out, value.inMs());
 
     }
 
     @Override
     public Time read(InputStream in) throws IOException {
 
-      return Time.fromMs(Serializers.LONG.read(in));
+      return Time.fromMs(Serializers.readLong(in));
 
     }
   };
@@ -14,9 +14,10 @@
 
 package codeu.chat.util;
 
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 // TIMELINE
 //
@@ -24,110 +25,85 @@ import java.util.concurrent.PriorityBlockingQueue;
 // when work needs to be ordered by time. The timeline manages its own threads
 // and there is no way to know outside of the code that is executed when the
 // code has been executed.
+//
+// Events wait in a DelayQueue, which hands out an event only once its time
+// has come. The executor threads take events from it directly. An idle thread
+// sleeps until the earliest event is due and is woken early only if an event
+// is added ahead of it. Events due at the same time run in the order they were
+// added. With one thread (the default) events run one at a time in that order.
+// With more, events that are due together may run at the same time.
 public final class Timeline {
 
   private final static Logger.Log LOG = Logger.newLog(Timeline.class);
 
-  private static final class Event implements Comparable<Event> {
+  // How long events wait past their scheduled time before they start to run.
+  private static final Metrics.Metric WAIT = Metrics.get("timeline.wait");
+
+  private static final class Event implements Delayed {
 
     public final long time;
+    public final long order;
     public final Runnable callback;
 
-    public Event(long time, Runnable callback) {
+    public Event(long time, long order, Runnable callback) {
       this.time = time;
+      this.order = order;
       this.callback = callback;
     }
 
     @Override
-    public int compareTo(Event other) {
-      return Long.compare(time, other.time);
+    public long getDelay(TimeUnit unit) {
+      return unit.convert(time - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
     }
-  }
-
-  private final BlockingQueue<Event> backlog = new PriorityBlockingQueue<>();
-  private final BlockingQueue<Runnable> todo = new LinkedBlockingQueue<>();
 
-  private boolean running = true;
-
-  // This thread is used to track the time of events and moves events from the
-  // "backlog" queue to the "todo" queue when it is time to execute. They are
-  // separated to allow this thread to be safely interrupted.
-  private final Thread scheduler = new Thread() {
     @Override
-    public void run() {
-      while (running) {
+    public int compareTo(Delayed other) {
+      final Event event = (Event) other;
+      final int byTime = Long.compare(time, event.time);
+      return byTime == 0 ? Long.compare(order, event.order) : byTime;
+    }
+  }
 
-        Event next;
+  private final DelayQueue<Event> queue = new DelayQueue<>();
+  private final AtomicLong added = new AtomicLong();
+  private final Thread[] executors;
 
-        try {
-          next = backlog.take();
-        } catch (InterruptedException ex) {
-          // Rather than try to handle the exception here, set "next"
-          // to null and let the normal flow handle the case.
-          next = null;
-        }
+  private volatile boolean running = true;
 
-        long sleep = 0;
-
-        if (next != null) {
-
-          final long now = System.currentTimeMillis();
-
-          // Check which queue the event should be added to. If it
-          // is time to execute, it should be added to the "todo"
-          // queue. If it is not time, it should be added back to the
-          // "backlog".
-          // If the item is added back to the backlog, we know how long
-          // it will be until it will be executed. That means we can sleep
-          // until then.
-          if (next.time <= now) {
-            forceAdd(todo, next.callback);
-            sleep = 0;
-          } else {
-            // Put it back (it's not time).
-            forceAdd(backlog, next);
-            sleep = next.time - now;
-          }
-        }
+  public Timeline() {
+    this(1);
+  }
 
-        if (sleep > 0) {
-          try {
-            Thread.sleep(sleep);
-          } catch (InterruptedException ex) {
-            // There are two cases this will happen:
-            //  1. A new item was added and we are being woken to
-            //     check if we need to update the time.
-            //  2. It is time to exit and we need to wake-up so that
-            //     we can check that "running" is "false".
+  // TIMELINE
+  //
+  // Create a timeline that runs events on "threads" threads.
+  public Timeline(int threads) {
+
+    executors = new Thread[Math.max(1, threads)];
+
+    for (int i = 0; i < executors.length; i++) {
+      executors[i] = new Thread("timeline-" + i) {
+        @Override
+        public void run() {
+          while (running) {
+            try {
+              final Event event = queue.take();
+              WAIT.recordDuration((System.currentTimeMillis() - event.time) * 1000000);
+              event.callback.run();
+            } catch (InterruptedException ex) {
+              // Woken by "stop", loop around and check "running".
+            } catch (Exception ex) {
+              // Catch all exceptions here to stop any rogue action from
+              // take down the timeline.
+              LOG.warning(
+                  "An exception was seen on the timeline (%s)",
+                  ex.toString());
+            }
           }
         }
-      }
+      };
+      executors[i].start();
     }
-  };
-
-  // This thread is used to run the code that was given to the time line. This
-  // worker does not need to know anything about the time. Once an event gets to
-  // here - it is considered "on time" and will be executed.
-  private final Thread executor = new Thread() {
-    @Override
-    public void run() {
-      while (running) {
-        try {
-          todo.take().run();
-        } catch (Exception ex) {
-          // Catch all exceptions here to stop any rogue action from
-          // take down the timeline.
-          LOG.warning(
-              "An exception was seen on the timeline (%s)",
-              ex.toString());
-        }
-      }
-    }
-  };
-
-  public Timeline() {
-    scheduler.start();
-    executor.start();
   }
 
   // SCHEDULE NOW
@@ -150,30 +126,31 @@ public final class Timeline {
   // Add an event to the timeline so that will occur approximately at a fixed
   // point in time.
   public void scheduleAt(long timeMs, Runnable callback) {
-    final Event event = new Event(timeMs, callback);
-    forceAdd(backlog, event);
-    scheduler.interrupt();  // wake it up
+    queue.put(new Event(timeMs, added.getAndIncrement(), callback));
   }
 
   // STOP
   //
-  // Tell the timeline to shutdown. This is a non-blocking call.
+  // Tell the timeline to shutdown. This is a non-blocking call. Events that
+  // have not started yet will not run.
   public void stop() {
     running = false;
 
     // Interrupt does not force a thread to exit. It signals the
     // thead that it is time to stop execution. As the threads may
-    // be sleeping, this will force them awake.
-    executor.interrupt();
-    scheduler.interrupt();
+    // be waiting for an event, this will force them awake.
+    for (final Thread executor : executors) {
+      executor.interrupt();
+    }
   }
 
   // JOIN
   //
   // Wait for the timeline to shutdown. This is a blocking call.
   public void join() {
-    forceJoin(executor);
-    forceJoin(scheduler);
+    for (final Thread executor : executors) {
+      forceJoin(executor);
+    }
   }
 
   private static void forceJoin(Thread thread) {
@@ -186,10 +163,4 @@ public final class Timeline {
       }
     }
   }
-
-  private static <T> void forceAdd(BlockingQueue<T> queue, T value) {
-    while (!queue.offer(value)) {
-      LOG.warning("Failed to add to queue, trying again...");
-    }
-  }
 }
@@ -18,9 +18,15 @@ import java.lang.StringBuilder;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.Objects;
 
-public final class Uuid implements java.io.Serializable {
+// UUID
+//
+// An id made of a chain of 32 bit links (e.g. "100.101.7"). Ids made by the
+// same generator share their root link, so each new id only costs one small
+// object. Uuids are used as keys in every index, so the hash code is computed
+// once and kept - this makes hashing a single field read and lets "equals"
+// reject most ids that differ without walking either chain.
+public final class Uuid implements java.io.Serializable, Comparable<Uuid> {
 
   public static final Uuid NULL = new Uuid(0);
 
@@ -44,7 +50,7 @@ public final class Uuid implements java.io.Serializable {
       }
 
       for (Uuid current = value; current != null; current = current.root()) {
-        Serializers.INTEGER.write(out, current.id());
+        Serializers.writeInt(out, current.id());
       }
     }
 
@@ -57,7 +63,7 @@ public final class Uuid implements java.io.Serializable {
       final int[] chain = new int[length];
 
       for (int i = 0; i < length; i++) {
-        chain[i] = Serializers.INTEGER.read(in);
+        chain[i] = Serializers.readInt(in);
       }
 
       Uuid head = null;
@@ -88,6 +94,12 @@ public final class Uuid implements java.io.Serializable {
   private final Uuid root;
   private final int id;
 
+  // Computed on first use rather than in the constructor as Uuids loaded with
+  // Gson never run a constructor. Zero means "not computed yet" - a real hash
+  // of zero is just computed again each time. Transient so that it is not
+  // saved with the other fields.
+  private transient int hash;
+
   public Uuid(Uuid root, int id) {
     this.root = root;
     this.id = id;
@@ -112,7 +124,36 @@ public final class Uuid implements java.io.Serializable {
   }
 
   @Override
-  public int hashCode() { return hash(this); }
+  public int hashCode() {
+    int h = hash;
+    if (h == 0) {
+      h = hash(this);
+      hash = h;
+    }
+    return h;
+  }
+
+  // COMPARE TO
+  //
+  // Order Uuids by their last link and then by their roots. This is not a
+  // meaningful order, but it is consistent with "equals" so Uuids can be
+  // used as keys in sorted collections.
+  @Override
+  public int compareTo(Uuid other) {
+    return compare(this, other);
+  }
+
+  private static int compare(Uuid a, Uuid b) {
+
+    if (a == b) { return 0; }
+
+    if (a == null) { return -1; }
+
+    if (b == null) { return 1; }
+
+    final int order = Integer.compare(a.id, b.id);
+    return order == 0 ? compare(a.root, b.root) : order;
+  }
 
   @Override
   public String toString() {
@@ -146,21 +187,17 @@ public final class Uuid implements java.io.Serializable {
 
     // Check id before checking the root as the ids are more likely to differ
     // and will short-circuit the logic preventing us from wasting time checking
-    // the full chain.
-    return a.id() == b.id() && equals(a.root(), b.root());
+    // the full chain. Different hashes mean different ids, and as ids from
+    // one generator share a root instance the root check usually stops at
+    // "a == b".
+    return a.id == b.id && a.hashCode() == b.hashCode() && equals(a.root, b.root);
 
   }
 
-  // Compute a hash code for the Uuids by walking up the chain.
+  // Compute a hash code for the Uuids by combining the root's (cached) hash
+  // with this link's id.
   private static int hash(Uuid id) {
-
-    int hash = 0;
-
-    for (Uuid current = id; current != null; current = current.root()) {
-      hash ^= Objects.hash(current.id());
-    }
-
-    return hash;
+    return (id.root == null ? 0 : id.root.hashCode()) * 31 + id.id;
   }
 
   // Compute human-readable representation for Uuids
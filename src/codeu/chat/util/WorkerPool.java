@@ -0,0 +1,121 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+// WORKER POOL
+//
+// A fixed number of threads that run work as soon as a thread is free. Unlike
+// the Timeline, there is no notion of time - work is run in the order it was
+// given. The queue of waiting work is bounded. When it is full, "execute" will
+// block the caller until there is room. This pushes back on whoever is producing
+// the work (e.g. the thread accepting connections) rather than letting the
+// backlog grow without limit.
+public final class WorkerPool {
+
+  private final static Logger.Log LOG = Logger.newLog(WorkerPool.class);
+
+  private final BlockingQueue<Runnable> todo;
+  private final Collection<Thread> workers = new ArrayList<>();
+
+  private volatile boolean running = true;
+
+  public WorkerPool(int threads, int queueSize) {
+
+    this.todo = new ArrayBlockingQueue<>(Math.max(1, queueSize));
+
+    for (int i = 0; i < Math.max(1, threads); i++) {
+      final Thread worker = new Thread() {
+        @Override
+        public void run() {
+          while (running) {
+            try {
+              todo.take().run();
+            } catch (InterruptedException ex) {
+              // Woken up by "stop", loop around and check "running".
+            } catch (Exception ex) {
+              // Catch all exceptions here to stop any rogue action from
+              // taking down the worker.
+              LOG.warning(
+                  "An exception was seen in the worker pool (%s)",
+                  ex.toString());
+            }
+          }
+        }
+      };
+
+      worker.setDaemon(true);
+      worker.start();
+      workers.add(worker);
+    }
+  }
+
+  // EXECUTE
+  //
+  // Add work to the pool. If the queue is full this will block until one of
+  // the workers takes something off the queue.
+  public void execute(Runnable work) {
+    boolean interrupted = false;
+    while (true) {
+      try {
+        todo.put(work);
+        break;
+      } catch (InterruptedException ex) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  // QUEUED
+  //
+  // The amount of work waiting for a free worker.
+  public int queued() {
+    return todo.size();
+  }
+
+  // STOP
+  //
+  // Tell the workers to shutdown. This is a non-blocking call. Work that has
+  // not started yet will not be run.
+  public void stop() {
+    running = false;
+    for (final Thread worker : workers) {
+      worker.interrupt();
+    }
+  }
+
+  // JOIN
+  //
+  // Wait for all workers to shutdown. This is a blocking call.
+  public void join() {
+    for (final Thread worker : workers) {
+      while (true) {
+        try {
+          worker.join();
+          break;
+        } catch (InterruptedException ex) {
+          // Do nothing - allow this to try again.
+        }
+      }
+    }
+  }
+}
@@ -42,6 +42,14 @@ public final class ClientConnectionSource implements ConnectionSource {
   @Override
   public void close() throws IOException { }
 
+  // MULTIPLEXED
+  //
+  // Create a connection source that sends every request over one long-lived
+  // connection to the host instead of opening a new socket per request.
+  public static ConnectionSource multiplexed(String host, int port) {
+    return new MultiplexedClientConnectionSource(new ClientConnectionSource(host, port));
+  }
+
   private static Connection fromSocket(final Socket socket) throws IOException {
 
     return new Connection() {
@@ -0,0 +1,69 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.connections;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import codeu.chat.util.Serializer;
+import codeu.chat.util.Serializers;
+
+// FRAME
+//
+// A single request or response on a multiplexed connection. The payload is
+// exactly what would have been sent over a one-shot connection (the network
+// code followed by its arguments). The request id is chosen by the client and
+// echoed back by the server so that responses can arrive in any order.
+final class Frame {
+
+  public static final Serializer<Frame> SERIALIZER = new Serializer<Frame>() {
+
+    @Override
+    public void write(OutputStream out, Frame value) throws IOException {
+      Serializers.INTEGER.write(out, value.requestId);
+      Serializers.BYTES.write(out, value.payload);
+    }
+
+    @Override
+    public Frame read(InputStream in) throws IOException {
+
+      // Use "readFully" so that a closed stream is reported as an EOFException
+      // rather than being read as a series of -1 bytes.
+      final DataInputStream data = new DataInputStream(in);
+
+      final int requestId = data.readInt();
+      final int length = data.readInt();
+
+      if (length < 0) {
+        throw new IOException(String.format("Invalid frame length %d", length));
+      }
+
+      final byte[] payload = new byte[length];
+      data.readFully(payload);
+
+      return new Frame(requestId, payload);
+    }
+  };
+
+  public final int requestId;
+  public final byte[] payload;
+
+  public Frame(int requestId, byte[] payload) {
+    this.requestId = requestId;
+    this.payload = payload;
+  }
+}
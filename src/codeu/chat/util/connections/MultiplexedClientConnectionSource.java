@@ -0,0 +1,298 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.connections;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import codeu.chat.common.NetworkCode;
+import codeu.chat.util.BufferInputStream;
+import codeu.chat.util.BufferOutputStream;
+import codeu.chat.util.Logger;
+import codeu.chat.util.Serializers;
+
+// MULTIPLEXED CLIENT CONNECTION SOURCE
+//
+// A connection source that shares a single long-lived connection between all
+// requests. Each call to "connect" returns a light-weight connection that
+// buffers the request and only sends it (as one frame) when the caller starts
+// reading the response. Any number of these connections can be in flight at
+// once - a background thread reads response frames and hands each one to the
+// caller waiting on its request id.
+//
+// Callers use the returned connections exactly as they would use a one-shot
+// connection, so existing code does not need to change to take advantage of it.
+public final class MultiplexedClientConnectionSource implements ConnectionSource {
+
+  private final static Logger.Log LOG = Logger.newLog(MultiplexedClientConnectionSource.class);
+
+  // How long a caller will wait for its response before giving up.
+  private static final long RESPONSE_TIMEOUT_MS = 30000;  // 30 seconds
+
+  // Put in a caller's queue when the shared connection fails so that it does
+  // not wait for the full timeout.
+  private static final Frame BROKEN = new Frame(-1, null);
+
+  private final ConnectionSource source;
+
+  private final Object lock = new Object();
+  private final Map<Integer, BlockingQueue<Frame>> pending = new HashMap<>();
+
+  private Connection shared;
+  private OutputStream sharedOut;
+  private int nextRequestId = 0;
+
+  public MultiplexedClientConnectionSource(ConnectionSource source) {
+    this.source = source;
+  }
+
+  @Override
+  public Connection connect() throws IOException {
+    return new RequestConnection();
+  }
+
+  @Override
+  public void close() throws IOException {
+    synchronized (lock) {
+      if (shared != null) {
+        shared.close();
+      }
+    }
+    source.close();
+  }
+
+  // SEND
+  //
+  // Send a request over the shared connection. If there is no shared
+  // connection, a new one will be opened. Returns the queue that the response
+  // will be delivered to (or null if the caller does not want a response).
+  private BlockingQueue<Frame> send(byte[] request, boolean wantResponse) throws IOException {
+
+    synchronized (lock) {
+
+      if (shared == null) {
+        open();
+      }
+
+      final int requestId = nextRequestId++;
+
+      final BlockingQueue<Frame> response = wantResponse ? new ArrayBlockingQueue<Frame>(1) : null;
+
+      if (wantResponse) {
+        pending.put(requestId, response);
+      }
+
+      try {
+        Frame.SERIALIZER.write(sharedOut, new Frame(requestId, request));
+        sharedOut.flush();
+      } catch (IOException ex) {
+        pending.remove(requestId);
+        fail(shared);
+        throw ex;
+      }
+
+      return response;
+    }
+  }
+
+  private void cancel(BlockingQueue<Frame> response) {
+    synchronized (lock) {
+      pending.values().remove(response);
+    }
+  }
+
+  // OPEN
+  //
+  // Open a new shared connection, switch it into multiplexed mode, and start
+  // the thread that reads responses from it. Must be called while holding the
+  // lock.
+  private void open() throws IOException {
+
+    final Connection connection = source.connect();
+
+    final OutputStream out = new BufferedOutputStream(connection.out());
+    final InputStream in = new BufferedInputStream(connection.in());
+
+    Serializers.INTEGER.write(out, NetworkCode.MULTIPLEX_REQUEST);
+    out.flush();
+
+    if (Serializers.INTEGER.read(in) != NetworkCode.MULTIPLEX_RESPONSE) {
+      connection.close();
+      throw new IOException("Server does not support multiplexed connections");
+    }
+
+    shared = connection;
+    sharedOut = out;
+
+    final Thread reader = new Thread() {
+      @Override
+      public void run() {
+        try {
+          while (true) {
+            final Frame frame = Frame.SERIALIZER.read(in);
+
+            final BlockingQueue<Frame> response;
+            synchronized (lock) {
+              response = pending.remove(frame.requestId);
+            }
+
+            // A missing entry means that the caller gave up or did not want
+            // the response, so the frame can be dropped.
+            if (response != null) {
+              response.offer(frame);
+            }
+          }
+        } catch (IOException ex) {
+          LOG.info("Multiplexed connection closed (%s)", ex.toString());
+        }
+
+        fail(connection);
+      }
+    };
+
+    reader.setDaemon(true);
+    reader.start();
+
+    LOG.info("Multiplexed connection opened.");
+  }
+
+  // FAIL
+  //
+  // Drop the given shared connection and wake everyone that was waiting on it.
+  // The next request will open a new shared connection.
+  private void fail(Connection connection) {
+
+    final Iterable<BlockingQueue<Frame>> waiting;
+
+    synchronized (lock) {
+
+      if (shared != connection) {
+        // Already replaced by a newer connection.
+        return;
+      }
+
+      shared = null;
+      sharedOut = null;
+
+      waiting = new ArrayList<>(pending.values());
+      pending.clear();
+    }
+
+    try {
+      connection.close();
+    } catch (IOException ex) {
+      LOG.error(ex, "Exception while closing multiplexed connection.");
+    }
+
+    for (final BlockingQueue<Frame> response : waiting) {
+      response.offer(BROKEN);
+    }
+  }
+
+  // REQUEST CONNECTION
+  //
+  // The connection given to callers. The request is written to a local buffer
+  // and is sent when the caller first reads from the input stream. Closing the
+  // connection does not close the shared connection.
+  private final class RequestConnection implements Connection {
+
+    private final BufferOutputStream request = new BufferOutputStream();
+
+    private final InputStream response = new InputStream() {
+      @Override
+      public int read() throws IOException {
+        return exchange().read();
+      }
+
+      @Override
+      public int read(byte[] buffer, int offset, int length) throws IOException {
+        return exchange().read(buffer, offset, length);
+      }
+
+      @Override
+      public int available() throws IOException {
+        return exchange().available();
+      }
+    };
+
+    private boolean sent = false;
+    private InputStream received;
+
+    @Override
+    public InputStream in() {
+      return response;
+    }
+
+    @Override
+    public OutputStream out() {
+      return request;
+    }
+
+    @Override
+    public void close() throws IOException {
+      // A request that was written but never read is still sent so that
+      // writes behave the same as on a one-shot connection.
+      if (!sent && request.size() > 0) {
+        sent = true;
+        send(request.toByteArray(), false);
+      }
+    }
+
+    private InputStream exchange() throws IOException {
+
+      if (received != null) {
+        return received;
+      }
+
+      if (sent) {
+        throw new IOException("Connection already closed");
+      }
+
+      sent = true;
+
+      final BlockingQueue<Frame> queue = send(request.toByteArray(), true);
+
+      final Frame frame;
+      try {
+        frame = queue.poll(RESPONSE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException ex) {
+        cancel(queue);
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while waiting for response");
+      }
+
+      if (frame == null) {
+        cancel(queue);
+        throw new IOException("Timed out waiting for response");
+      }
+
+      if (frame == BROKEN) {
+        throw new IOException("Multiplexed connection was lost");
+      }
+
+      received = BufferInputStream.wrap(frame.payload);
+      return received;
+    }
+  }
+}
@@ -0,0 +1,95 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.connections;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import codeu.chat.util.BufferInputStream;
+import codeu.chat.util.BufferOutputStream;
+
+// MULTIPLEXED SERVER CONNECTION SOURCE
+//
+// The server side of a multiplexed connection. Given a connection that has
+// already agreed to switch into multiplexed mode, each call to "connect" reads
+// the next request frame and returns it as its own connection. Reading from
+// that connection reads the request, and closing it sends everything written
+// to it back to the client as the response frame for that request.
+//
+// The returned connections can be handled and closed on any thread and in any
+// order. Writing the responses is serialized so frames never interleave.
+public final class MultiplexedServerConnectionSource implements ConnectionSource {
+
+  private final Connection connection;
+  private final InputStream in;
+  private final OutputStream out;
+
+  public MultiplexedServerConnectionSource(Connection connection) throws IOException {
+    this.connection = connection;
+    this.in = new BufferedInputStream(connection.in());
+    this.out = new BufferedOutputStream(connection.out());
+  }
+
+  // CONNECT
+  //
+  // Block until the next request arrives. An IOException (normally an
+  // EOFException) means that the client has gone away.
+  @Override
+  public Connection connect() throws IOException {
+
+    final Frame request = Frame.SERIALIZER.read(in);
+
+    final InputStream requestIn = BufferInputStream.wrap(request.payload);
+    final BufferOutputStream responseOut = new BufferOutputStream();
+
+    return new Connection() {
+
+      private boolean closed = false;
+
+      @Override
+      public InputStream in() {
+        return requestIn;
+      }
+
+      @Override
+      public OutputStream out() {
+        return responseOut;
+      }
+
+      @Override
+      public void close() throws IOException {
+        if (!closed) {
+          closed = true;
+          respond(new Frame(request.requestId, responseOut.toByteArray()));
+        }
+      }
+    };
+  }
+
+  @Override
+  public void close() throws IOException {
+    connection.close();
+  }
+
+  private void respond(Frame response) throws IOException {
+    synchronized (out) {
+      Frame.SERIALIZER.write(out, response);
+      out.flush();
+    }
+  }
+}
@@ -0,0 +1,641 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.connections;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import codeu.chat.common.NetworkCode;
+import codeu.chat.util.BufferInputStream;
+import codeu.chat.util.BufferOutputStream;
+import codeu.chat.util.Logger;
+
+// SELECTOR CONNECTION SOURCE
+//
+// A server connection source that accepts and reads on one selector thread
+// without blocking. Nothing is handed out by "connect" until a whole request
+// has arrived, so a client that sends slowly (or stops half way) costs a
+// buffer rather than a thread.
+//
+// This only works for requests that say how long they are, which means
+// multiplexed connections. When a client asks to multiplex, the selector
+// thread answers the handshake itself and from then on decodes request frames
+// (see Frame). Each frame is returned from "connect" as its own connection,
+// just like MultiplexedServerConnectionSource would return it. Closing that
+// connection queues the response frame, which the selector thread writes out
+// as the socket can take it.
+//
+// Any other connection (a one-shot request or a subscription) is returned
+// from "connect" as a normal blocking connection once its first four bytes
+// have arrived. Such a request does not say how long it is, so it can not be
+// read here. Instead all reads on it must finish within HANDOFF_TIMEOUT_MS of
+// it being handed out, so that a client that stalls (or sends one byte at a
+// time) can hold a thread for a limited time only.
+//
+// At most READY_SIZE requests wait to be taken by "connect". When that many
+// are waiting, the selector thread stops accepting and reading until one is
+// taken. This way a server whose workers are all busy pushes back on its
+// clients instead of queuing their requests without limit.
+public final class SelectorConnectionSource implements ConnectionSource {
+
+  private final static Logger.Log LOG = Logger.newLog(SelectorConnectionSource.class);
+
+  private static final int HANDOFF_TIMEOUT_MS = 10000;
+
+  private static final int READY_SIZE = 256;
+
+  // Larger frames close the connection.
+  private static final int MAX_FRAME = 16 * 1024 * 1024;
+
+  private static final int READ_SIZE = 8192;
+
+  // Returned by "connect" once the source is closed.
+  private static final Connection CLOSED = new Connection() {
+    @Override
+    public InputStream in() { return null; }
+    @Override
+    public OutputStream out() { return null; }
+    @Override
+    public void close() { }
+  };
+
+  // CLIENT
+  //
+  // What the selector thread knows about one client. Only the selector thread
+  // touches "in" and "multiplexed". Responses are added to "responses" from
+  // any thread and written by the selector thread.
+  private final class Client {
+
+    final SocketChannel channel;
+    final SelectionKey key;
+
+    ByteBuffer in = ByteBuffer.allocate(READ_SIZE);
+    boolean multiplexed = false;
+
+    final Queue<ByteBuffer> responses = new ConcurrentLinkedQueue<>();
+    ByteBuffer writing = null;
+
+    Client(SocketChannel channel, SelectionKey key) {
+      this.channel = channel;
+      this.key = key;
+    }
+  }
+
+  private final ServerSocketChannel server;
+  private final Selector selector;
+  private final BlockingQueue<Connection> ready;
+  private final long handOffTimeoutMs;
+
+  // Clients with responses to write. Added to by any thread, drained by the
+  // selector thread.
+  private final Queue<Client> writers = new ConcurrentLinkedQueue<>();
+
+  // Clients to give out as blocking connections. Only the selector thread
+  // uses this.
+  private final Queue<Client> handingOff = new ArrayDeque<>();
+
+  private volatile boolean running = true;
+
+  // Set by the selector thread when "ready" is full and it has stopped
+  // accepting and reading. Cleared by the selector thread once "connect" has
+  // made room.
+  private volatile boolean paused = false;
+
+  private final Thread loop = new Thread("selector") {
+    @Override
+    public void run() {
+      try {
+        while (running) {
+          // Checked before selecting so that room made just after pausing,
+          // before "connect" could see "paused", is not missed.
+          if (paused && ready.remainingCapacity() > 0) {
+            resumeReads();
+          }
+          // Keys can be left selected by the "selectNow" in "handOffs".
+          if (selector.selectedKeys().isEmpty()) {
+            selector.select();
+          } else {
+            selector.selectNow();
+          }
+          startWrites();
+          handleKeys();
+          handOffs();
+        }
+      } catch (IOException | ClosedSelectorException ex) {
+        if (running) {
+          LOG.error(ex, "Selector loop failed");
+        }
+      }
+      // Nothing waiting can be handled now, make sure there is room to say
+      // that the source is closed.
+      ready.clear();
+      ready.offer(CLOSED);
+    }
+  };
+
+  private SelectorConnectionSource(ServerSocketChannel server,
+                                   Selector selector,
+                                   int readySize,
+                                   long handOffTimeoutMs) {
+    this.server = server;
+    this.selector = selector;
+    this.ready = new ArrayBlockingQueue<>(Math.max(1, readySize));
+    this.handOffTimeoutMs = handOffTimeoutMs;
+
+    loop.setDaemon(true);
+    loop.start();
+  }
+
+  public static SelectorConnectionSource forPort(int port) throws IOException {
+    return forPort(port, READY_SIZE, HANDOFF_TIMEOUT_MS);
+  }
+
+  // Used by tests to make the limits small.
+  static SelectorConnectionSource forPort(int port, int readySize, long handOffTimeoutMs)
+      throws IOException {
+
+    final ServerSocketChannel server = ServerSocketChannel.open();
+    server.bind(new InetSocketAddress(port));
+    server.configureBlocking(false);
+
+    final Selector selector = Selector.open();
+    server.register(selector, SelectionKey.OP_ACCEPT);
+
+    return new SelectorConnectionSource(server, selector, readySize, handOffTimeoutMs);
+  }
+
+  // Used by tests that bind port 0.
+  int port() {
+    return server.socket().getLocalPort();
+  }
+
+  // CONNECT
+  //
+  // Block until a whole request frame or a new non-multiplexed connection is
+  // ready.
+  @Override
+  public Connection connect() throws IOException {
+
+    final Connection connection;
+
+    try {
+      connection = ready.take();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for a connection");
+    }
+
+    if (connection == CLOSED) {
+      ready.offer(CLOSED);
+      throw new IOException("Connection source is closed");
+    }
+
+    // There is room again, let the selector thread read more.
+    if (paused) {
+      selector.wakeup();
+    }
+
+    return connection;
+  }
+
+  @Override
+  public void close() throws IOException {
+    running = false;
+    selector.close();
+    server.close();
+  }
+
+  private void handleKeys() {
+
+    final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+
+    while (keys.hasNext()) {
+
+      final SelectionKey key = keys.next();
+      keys.remove();
+
+      try {
+
+        // Keys selected before pausing may still say they are ready.
+        if (key.isValid() && key.isAcceptable() && !paused) {
+          accept();
+        }
+        if (key.isValid() && key.isReadable() && !paused) {
+          read((Client) key.attachment());
+        }
+        if (key.isValid() && key.isWritable()) {
+          write((Client) key.attachment());
+        }
+
+      } catch (IOException | CancelledKeyException ex) {
+        if (key.attachment() != null) {
+          drop((Client) key.attachment(), ex);
+        } else {
+          LOG.error(ex, "Failed to accept connection");
+        }
+      }
+    }
+  }
+
+  private void accept() throws IOException {
+
+    final SocketChannel channel = server.accept();
+
+    if (channel == null) {
+      return;
+    }
+
+    channel.configureBlocking(false);
+    channel.socket().setTcpNoDelay(true);
+
+    final SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+    key.attach(new Client(channel, key));
+  }
+
+  // READ
+  //
+  // Read whatever the client has sent and hand out every request that is now
+  // complete.
+  private void read(Client client) throws IOException {
+
+    if (client.channel.read(client.in) < 0) {
+      drop(client, null);
+      return;
+    }
+
+    frames(client);
+  }
+
+  // FRAMES
+  //
+  // Hand out every complete request in the client's buffer, for as long as
+  // there is room in "ready". What is left stays in the buffer until the
+  // selector thread resumes.
+  private void frames(Client client) throws IOException {
+
+    client.in.flip();
+
+    try {
+
+      if (!client.multiplexed) {
+
+        if (client.in.remaining() < 4) {
+          return;
+        }
+
+        if (client.in.getInt(client.in.position()) != NetworkCode.MULTIPLEX_REQUEST) {
+          client.key.cancel();
+          handingOff.add(client);
+          return;
+        }
+
+        client.in.getInt();
+        client.multiplexed = true;
+        respond(client, intBuffer(NetworkCode.MULTIPLEX_RESPONSE));
+      }
+
+      while (client.in.remaining() >= 8) {
+
+        if (ready.remainingCapacity() == 0) {
+          pauseReads();
+          break;
+        }
+
+        final int start = client.in.position();
+        final int requestId = client.in.getInt(start);
+        final int length = client.in.getInt(start + 4);
+
+        if (length < 0 || length > MAX_FRAME) {
+          throw new IOException(String.format("Invalid frame length %d", length));
+        }
+
+        if (client.in.remaining() < 8 + length) {
+          // Only grow once the buffer is full of this frame, and then only
+          // double it, so that memory follows what has actually arrived
+          // rather than what the header claims.
+          if (client.in.remaining() == client.in.capacity()) {
+            final ByteBuffer bigger = ByteBuffer.allocate(Math.min(8 + length, client.in.capacity() * 2));
+            bigger.put(client.in);
+            bigger.flip();
+            client.in = bigger;
+          }
+          break;
+        }
+
+        final byte[] payload = new byte[length];
+        client.in.position(start + 8);
+        client.in.get(payload);
+
+        ready.offer(request(client, requestId, payload));
+      }
+
+    } finally {
+      if (client.key.isValid()) {
+        client.in.compact();
+        // Give back the space a large frame needed once it has been read.
+        if (client.in.position() == 0 && client.in.capacity() > READ_SIZE) {
+          client.in = ByteBuffer.allocate(READ_SIZE);
+        }
+      }
+    }
+  }
+
+  // PAUSE READS
+  //
+  // Stop accepting and reading until "connect" makes room in "ready". Writes
+  // carry on so that responses still go out.
+  private void pauseReads() {
+    paused = true;
+    for (final SelectionKey key : selector.keys()) {
+      try {
+        if (key.isValid()) {
+          key.interestOps(key.interestOps() & SelectionKey.OP_WRITE);
+        }
+      } catch (CancelledKeyException ex) {
+        // Being dropped or handed off already.
+      }
+    }
+  }
+
+  // RESUME READS
+  //
+  // Accept and read again, starting with the requests that were already read
+  // into a client's buffer when the selector thread paused.
+  private void resumeReads() {
+
+    paused = false;
+
+    for (final SelectionKey key : selector.keys()) {
+
+      if (paused) {
+        return;  // "ready" filled up again.
+      }
+
+      try {
+        if (!key.isValid()) {
+          continue;
+        }
+        if (key.attachment() == null) {
+          key.interestOps(SelectionKey.OP_ACCEPT);
+        } else {
+          key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+          final Client client = (Client) key.attachment();
+          if (client.multiplexed) {
+            frames(client);
+          }
+        }
+      } catch (IOException | CancelledKeyException ex) {
+        if (key.attachment() != null) {
+          drop((Client) key.attachment(), ex);
+        }
+      }
+    }
+  }
+
+  // REQUEST
+  //
+  // A connection for one request frame. Closing it sends the response frame.
+  private Connection request(final Client client, final int requestId, byte[] payload) {
+
+    final InputStream requestIn = BufferInputStream.wrap(payload);
+    final BufferOutputStream responseOut = new BufferOutputStream();
+
+    return new Connection() {
+
+      private boolean closed = false;
+
+      @Override
+      public InputStream in() {
+        return requestIn;
+      }
+
+      @Override
+      public OutputStream out() {
+        return responseOut;
+      }
+
+      @Override
+      public void close() {
+        if (!closed) {
+          closed = true;
+
+          final ByteBuffer frame = ByteBuffer.allocate(8 + responseOut.size());
+          frame.putInt(requestId);
+          frame.putInt(responseOut.size());
+          frame.put(responseOut.asByteBuffer());
+          frame.flip();
+
+          respond(client, frame);
+        }
+      }
+    };
+  }
+
+  // RESPOND
+  //
+  // Queue bytes to send to a client. Safe to call from any thread.
+  private void respond(Client client, ByteBuffer bytes) {
+    client.responses.add(bytes);
+    writers.add(client);
+    selector.wakeup();
+  }
+
+  // START WRITES
+  //
+  // Write what we can for every client with new responses and ask to be told
+  // when the rest can be written.
+  private void startWrites() {
+    Client client;
+    while ((client = writers.poll()) != null) {
+      if (client.key.isValid()) {
+        try {
+          write(client);
+        } catch (IOException | CancelledKeyException ex) {
+          drop(client, ex);
+        }
+      }
+    }
+  }
+
+  private void write(Client client) throws IOException {
+
+    while (true) {
+
+      if (client.writing == null || !client.writing.hasRemaining()) {
+        client.writing = client.responses.poll();
+      }
+
+      if (client.writing == null) {
+        client.key.interestOps(paused ? 0 : SelectionKey.OP_READ);
+        return;
+      }
+
+      client.channel.write(client.writing);
+
+      if (client.writing.hasRemaining()) {
+        client.key.interestOps((paused ? 0 : SelectionKey.OP_READ) | SelectionKey.OP_WRITE);
+        return;
+      }
+    }
+  }
+
+  // HAND OFFS
+  //
+  // These clients did not ask to multiplex, so their requests can not be read
+  // without blocking. Their keys are cancelled already. Take their sockets off
+  // the selector and give them out as blocking connections with the bytes
+  // read so far put back in front.
+  private void handOffs() throws IOException {
+
+    if (handingOff.isEmpty()) {
+      return;
+    }
+
+    selector.selectNow();  // Finish cancelling so the channels can block again.
+
+    while (!handingOff.isEmpty()) {
+
+      if (ready.remainingCapacity() == 0) {
+        pauseReads();
+        return;
+      }
+
+      final Client client = handingOff.poll();
+      try {
+        ready.offer(handOff(client));
+      } catch (IOException ex) {
+        drop(client, ex);
+      }
+    }
+  }
+
+  private Connection handOff(Client client) throws IOException {
+
+    final byte[] start = new byte[client.in.remaining()];
+    client.in.get(start);
+
+    client.channel.configureBlocking(true);
+
+    final SocketChannel channel = client.channel;
+    final InputStream in = new SequenceInputStream(
+        new ByteArrayInputStream(start),
+        new DeadlineInputStream(channel.socket(), System.currentTimeMillis() + handOffTimeoutMs));
+    final OutputStream out = channel.socket().getOutputStream();
+
+    return new Connection() {
+
+      @Override
+      public InputStream in() {
+        return in;
+      }
+
+      @Override
+      public OutputStream out() {
+        return out;
+      }
+
+      @Override
+      public void close() throws IOException {
+        channel.close();
+      }
+    };
+  }
+
+  // DEADLINE INPUT STREAM
+  //
+  // Reads from a socket, failing once the deadline has passed. Each read
+  // only waits for as long as is left, so a client can not get more time by
+  // sending a byte just before each read would time out.
+  private static final class DeadlineInputStream extends InputStream {
+
+    private final Socket socket;
+    private final InputStream in;
+    private final long deadline;
+
+    DeadlineInputStream(Socket socket, long deadline) throws IOException {
+      this.socket = socket;
+      this.in = socket.getInputStream();
+      this.deadline = deadline;
+    }
+
+    @Override
+    public int read() throws IOException {
+      waitLeft();
+      return in.read();
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      waitLeft();
+      return in.read(buffer, offset, length);
+    }
+
+    @Override
+    public int available() throws IOException {
+      return in.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+
+    private void waitLeft() throws IOException {
+      final long left = deadline - System.currentTimeMillis();
+      if (left <= 0) {
+        throw new SocketTimeoutException("Request was not read in time");
+      }
+      socket.setSoTimeout((int) Math.min(Integer.MAX_VALUE, left));
+    }
+  }
+
+  private void drop(Client client, Exception ex) {
+    if (ex != null) {
+      LOG.info("Closing connection (%s)", ex.toString());
+    }
+    client.key.cancel();
+    try {
+      client.channel.close();
+    } catch (IOException closeEx) {
+      LOG.error(closeEx, "Failed to close connection");
+    }
+  }
+
+  private static ByteBuffer intBuffer(int value) {
+    final ByteBuffer buffer = ByteBuffer.allocate(4);
+    buffer.putInt(value);
+    buffer.flip();
+    return buffer;
+  }
+}
@@ -67,4 +67,22 @@ public final class ServerConnectionSource implements ConnectionSource {
   public static ConnectionSource forPort(int port) throws IOException {
     return new ServerConnectionSource(new ServerSocket(port));
   }
+
+  // NON BLOCKING
+  //
+  // Host a port without giving each client its own blocked thread. Requests
+  // from multiplexed clients are read in full before "connect" returns them.
+  // See SelectorConnectionSource.
+  public static ConnectionSource nonBlocking(int port) throws IOException {
+    return SelectorConnectionSource.forPort(port);
+  }
+
+  // MULTIPLEXED
+  //
+  // Wrap a connection that has switched into multiplexed mode so that each
+  // request frame sent over it is returned from "connect" as its own
+  // connection.
+  public static ConnectionSource multiplexed(Connection connection) throws IOException {
+    return new MultiplexedServerConnectionSource(connection);
+  }
 }
@@ -0,0 +1,227 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.store;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+// ARRAY STORE
+//
+// A store that keeps its keys and values in sorted arrays. Lookups and range
+// queries are a binary search followed by a walk over the matching slots, so
+// they cost O(log n + k) and counting any range costs O(log n).
+//
+// It is built for values that are mostly inserted in key order, such as the
+// messages in a conversation. Inserting at the end only writes the next free
+// slot (the arrays double when they are full). Inserting anywhere else copies
+// the arrays, which costs O(n).
+//
+// Writers are serialized. Readers never block: every read works on a snapshot
+// of the arrays and their length, which writers publish after each insert.
+// Writers only ever write past the end of a published snapshot or into a new
+// copy, so a snapshot never changes once a reader has it.
+public final class ArrayStore<KEY, VALUE> implements OrderedStoreAccessor<KEY, VALUE> {
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  private static final class Slots {
+
+    final Object[] keys;
+    final Object[] values;
+    final int size;
+
+    Slots(Object[] keys, Object[] values, int size) {
+      this.keys = keys;
+      this.values = values;
+      this.size = size;
+    }
+  }
+
+  private final Comparator<KEY> comparator;
+
+  private volatile Slots slots = new Slots(new Object[0], new Object[0], 0);
+
+  public ArrayStore(Comparator<KEY> comparator) {
+    this.comparator = comparator;
+  }
+
+  // INSERT
+  //
+  // Values with equal keys are kept in the order they were inserted.
+  public synchronized void insert(KEY key, VALUE value) {
+
+    final Slots current = slots;
+    final int at = upper(current, key);
+
+    Object[] keys = current.keys;
+    Object[] values = current.values;
+
+    if (at == current.size && at < keys.length) {
+      // The common case - the slot past the end is free and no reader can see
+      // it yet.
+      keys[at] = key;
+      values[at] = value;
+    } else {
+      final int capacity = at == current.size ?
+          Math.max(INITIAL_CAPACITY, 2 * keys.length) :
+          Math.max(keys.length, current.size + 1);
+
+      keys = new Object[capacity];
+      values = new Object[capacity];
+
+      System.arraycopy(current.keys, 0, keys, 0, at);
+      System.arraycopy(current.values, 0, values, 0, at);
+      System.arraycopy(current.keys, at, keys, at + 1, current.size - at);
+      System.arraycopy(current.values, at, values, at + 1, current.size - at);
+
+      keys[at] = key;
+      values[at] = value;
+    }
+
+    slots = new Slots(keys, values, current.size + 1);
+  }
+
+  @Override
+  public VALUE first(KEY key) {
+    final Slots current = slots;
+    final int at = lower(current, key);
+    return at < current.size && comparator.compare(key(current, at), key) == 0 ?
+        value(current, at) :
+        null;
+  }
+
+  @Override
+  public Iterable<VALUE> all() {
+    final Slots current = slots;
+    return slice(current, 0, current.size);
+  }
+
+  @Override
+  public Iterable<VALUE> at(KEY key) {
+    final Slots current = slots;
+    return slice(current, lower(current, key), upper(current, key));
+  }
+
+  @Override
+  public Iterable<VALUE> after(KEY start) {
+    final Slots current = slots;
+    return slice(current, lower(current, start), current.size);
+  }
+
+  @Override
+  public Iterable<VALUE> before(KEY end) {
+    final Slots current = slots;
+    return slice(current, 0, upper(current, end));
+  }
+
+  @Override
+  public Iterable<VALUE> range(KEY start, KEY end) {
+    final Slots current = slots;
+    return slice(current, lower(current, start), upper(current, end));
+  }
+
+  @Override
+  public int size() {
+    return slots.size;
+  }
+
+  @Override
+  public int count(KEY start, KEY end) {
+    final Slots current = slots;
+    return Math.max(0, upper(current, end) - lower(current, start));
+  }
+
+  @Override
+  public Iterable<VALUE> last(int n) {
+    final Slots current = slots;
+    return slice(current, Math.max(0, current.size - Math.max(0, n)), current.size);
+  }
+
+  // LOWER
+  //
+  // The first slot whose key is not less than the given key.
+  private int lower(Slots current, KEY key) {
+    int low = 0;
+    int high = current.size;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (comparator.compare(key(current, mid), key) < 0) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  // UPPER
+  //
+  // The first slot whose key is greater than the given key.
+  private int upper(Slots current, KEY key) {
+    int low = 0;
+    int high = current.size;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (comparator.compare(key(current, mid), key) <= 0) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <KEY> KEY key(Slots current, int at) {
+    return (KEY) current.keys[at];
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <VALUE> VALUE value(Slots current, int at) {
+    return (VALUE) current.values[at];
+  }
+
+  private static <VALUE> Iterable<VALUE> slice(final Slots current, final int from, final int to) {
+
+    return new Iterable<VALUE>() {
+      @Override
+      public Iterator<VALUE> iterator() {
+        return new Iterator<VALUE>() {
+
+          private int next = from;
+
+          @Override
+          public boolean hasNext() {
+            return next < to;
+          }
+
+          @Override
+          public VALUE next() {
+            if (!hasNext()) {
+              throw new NoSuchElementException();
+            }
+            return ArrayStore.<VALUE>value(current, next++);
+          }
+
+          @Override
+          public void remove() {
+            // do nothing
+          }
+        };
+      }
+    };
+  }
+}
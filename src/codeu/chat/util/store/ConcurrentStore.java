@@ -0,0 +1,101 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.store;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+// CONCURRENT STORE
+//
+// A store that can be read and written from many threads at once. It keeps
+// the same ordering rules as Store: values are ordered by key and values with
+// equal keys are kept in the order they were inserted.
+//
+// Each key maps to a lock-free queue of the values that share that key. The
+// keys are kept in a skip list so that lookups and range queries never block
+// and never see a half-finished insert. Iterators are weakly consistent: they
+// will not fail if values are inserted while iterating, but may or may not
+// include those new values.
+public final class ConcurrentStore<KEY, VALUE> implements StoreAccessor<KEY, VALUE> {
+
+  private final ConcurrentNavigableMap<KEY, Queue<VALUE>> index;
+
+  private final Comparator<KEY> comparator;
+
+  public ConcurrentStore(Comparator<KEY> comparator) {
+    this.index = new ConcurrentSkipListMap<>(comparator);
+    this.comparator = comparator;
+  }
+
+  public void insert(KEY key, VALUE value) {
+
+    Queue<VALUE> values = index.get(key);
+
+    if (values == null) {
+      final Queue<VALUE> created = new ConcurrentLinkedQueue<>();
+      values = index.putIfAbsent(key, created);
+      values = values == null ? created : values;
+    }
+
+    values.add(value);
+  }
+
+  @Override
+  public VALUE first(KEY key) {
+    final Queue<VALUE> values = index.get(key);
+    return values == null ? null : values.peek();
+  }
+
+  @Override
+  public Iterable<VALUE> all() {
+    return new QueueIterable<>(index.values());
+  }
+
+  @Override
+  public Iterable<VALUE> at(KEY key) {
+    final Queue<VALUE> values = index.get(key);
+    return values == null ? Collections.<VALUE>emptyList() : values;
+  }
+
+  @Override
+  public Iterable<VALUE> after(KEY start) {
+    return new QueueIterable<>(index.tailMap(start, true).values());
+  }
+
+  @Override
+  public Iterable<VALUE> before(KEY end) {
+    return new QueueIterable<>(index.headMap(end, true).values());
+  }
+
+  @Override
+  public Iterable<VALUE> range(KEY start, KEY end) {
+    // Sub maps do not allow the start to come after the end, but it is valid
+    // to ask for that range - there is just nothing in it.
+    return comparator.compare(start, end) > 0 ?
+        Collections.<VALUE>emptyList() :
+        new QueueIterable<>(index.subMap(start, true, end, true).values());
+  }
+
+  // SIZE
+  //
+  // The number of distinct keys in the store.
+  public int keys() {
+    return index.size();
+  }
+}
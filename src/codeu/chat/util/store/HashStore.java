@@ -0,0 +1,68 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.store;
+
+import java.util.Collections;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+
+// HASH STORE
+//
+// A store for values that are only ever looked up by an exact, unique key
+// (e.g. ids). Lookups are a single hash probe instead of a walk down a skip
+// list, which matters once the store holds a lot of values.
+//
+// Keys have no order, so it is only a LookupAccessor and has no range
+// queries. "all" returns values in the order they were inserted. Like
+// ConcurrentStore, the store can be read and written from many threads at
+// once and iterators are weakly consistent.
+//
+// If a key is inserted more than once, "first" and "at" keep returning the
+// value that was inserted first, while "all" returns every value.
+public final class HashStore<KEY, VALUE> implements LookupAccessor<KEY, VALUE> {
+
+  private final ConcurrentMap<KEY, VALUE> index = new ConcurrentHashMap<>();
+  private final Queue<VALUE> values = new ConcurrentLinkedQueue<>();
+
+  public void insert(KEY key, VALUE value) {
+    index.putIfAbsent(key, value);
+    values.add(value);
+  }
+
+  @Override
+  public VALUE first(KEY key) {
+    return index.get(key);
+  }
+
+  @Override
+  public Iterable<VALUE> all() {
+    return Collections.unmodifiableCollection(values);
+  }
+
+  @Override
+  public Iterable<VALUE> at(KEY key) {
+    final VALUE value = index.get(key);
+    return value == null ? Collections.<VALUE>emptyList() : Collections.singletonList(value);
+  }
+
+  // SIZE
+  //
+  // The number of distinct keys in the store.
+  public int keys() {
+    return index.size();
+  }
+}
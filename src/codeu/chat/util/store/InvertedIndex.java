@@ -0,0 +1,371 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.store;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+// INVERTED INDEX
+//
+// A full-text index that maps each word to the values whose text contains it.
+// Text is split into words at anything that is not a letter or a digit, and
+// words are compared without case.
+//
+// Every value is given a document number in the order it is added. A word's
+// posting list is the document numbers that contain it, each followed by how
+// many times the word appears. Document numbers only grow, so the list is
+// stored as the gap from the previous number, and the gaps and counts are
+// written as variable-length integers. Most postings fit in two bytes.
+//
+// Searches are ranked with tf-idf: a value scores more for each time a query
+// word appears in it, and rarer words are worth more. Ties go to the value
+// added last.
+//
+// Writers are serialized. Readers never block. Postings and documents only
+// grow, and every read works on the length that was published when it
+// started.
+public final class InvertedIndex<VALUE> implements SearchAccessor<VALUE> {
+
+  // Longer words are cut to this length.
+  private static final int MAX_TERM = 64;
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  // POSTINGS
+  //
+  // The bytes are always replaced before the length is raised, so a reader
+  // that reads the length first and the bytes second sees every byte it
+  // needs.
+  private static final class Postings {
+
+    volatile byte[] bytes = new byte[8];
+    volatile int length = 0;
+    volatile int documents = 0;
+
+    // Only used by the writer.
+    int last = 0;
+
+    void add(int document, int count) {
+
+      final int needed = length + 10;
+
+      if (needed > bytes.length) {
+        final byte[] bigger = new byte[Math.max(needed, 2 * bytes.length)];
+        System.arraycopy(bytes, 0, bigger, 0, length);
+        bytes = bigger;
+      }
+
+      int at = writeVarint(bytes, length, document - last);
+      at = writeVarint(bytes, at, count);
+
+      last = document;
+      documents = documents + 1;
+      length = at;
+    }
+  }
+
+  // CURSOR
+  //
+  // Reads one posting list in order, stopping at documents added after the
+  // search started.
+  private static final class Cursor {
+
+    private final byte[] bytes;
+    private final int length;
+    private final int total;
+    private final double idf;
+
+    private final int[] read = new int[1];
+    private int at = 0;
+
+    int document = 0;
+    int count = 0;
+
+    Cursor(Postings list, int total) {
+      this.length = list.length;
+      this.bytes = list.bytes;
+      this.total = total;
+      this.idf = Math.log(1.0 + (double) total / Math.max(1, list.documents));
+    }
+
+    boolean next() {
+      if (at >= length) {
+        return false;
+      }
+      at = readVarint(bytes, at, read);
+      document += read[0];
+      at = readVarint(bytes, at, read);
+      count = read[0];
+      return document < total;
+    }
+
+    double score() {
+      return (1.0 + Math.log(count)) * idf;
+    }
+  }
+
+  // TOP SCORES
+  //
+  // The best "limit" documents seen so far, kept in a heap whose root is the
+  // worst of them. Later documents win ties.
+  private static final class TopScores {
+
+    private final double[] scores;
+    private final int[] documents;
+    private int size = 0;
+
+    TopScores(int limit) {
+      this.scores = new double[limit];
+      this.documents = new int[limit];
+    }
+
+    boolean wouldKeep(double score, int document) {
+      return size < scores.length || worse(0, score, document);
+    }
+
+    void add(double score, int document) {
+      if (size < scores.length) {
+        scores[size] = score;
+        documents[size] = document;
+        up(size++);
+      } else {
+        scores[0] = score;
+        documents[0] = document;
+        down(0);
+      }
+    }
+
+    // All the documents kept, best first.
+    int[] documents() {
+      final int[] sorted = new int[size];
+      while (size > 0) {
+        sorted[size - 1] = documents[0];
+        size--;
+        swap(0, size);
+        down(0);
+      }
+      return sorted;
+    }
+
+    // Whether the document at "i" ranks below the given score and document.
+    private boolean worse(int i, double score, int document) {
+      return scores[i] < score || (scores[i] == score && documents[i] < document);
+    }
+
+    private void up(int i) {
+      while (i > 0) {
+        final int parent = (i - 1) / 2;
+        if (!worse(i, scores[parent], documents[parent])) {
+          return;
+        }
+        swap(i, parent);
+        i = parent;
+      }
+    }
+
+    private void down(int i) {
+      while (true) {
+        int worst = i;
+        for (int child = 2 * i + 1; child <= 2 * i + 2 && child < size; child++) {
+          if (worse(child, scores[worst], documents[worst])) {
+            worst = child;
+          }
+        }
+        if (worst == i) {
+          return;
+        }
+        swap(i, worst);
+        i = worst;
+      }
+    }
+
+    private void swap(int a, int b) {
+      final double score = scores[a];
+      scores[a] = scores[b];
+      scores[b] = score;
+      final int document = documents[a];
+      documents[a] = documents[b];
+      documents[b] = document;
+    }
+  }
+
+  private final ConcurrentMap<String, Postings> postings = new ConcurrentHashMap<>();
+
+  // Same publishing rule as Postings: the array is replaced before the count
+  // is raised.
+  private volatile Object[] documents = new Object[INITIAL_CAPACITY];
+  private volatile int count = 0;
+
+  // ADD
+  //
+  // Index a value by the words in its text.
+  public synchronized void add(VALUE value, String text) {
+
+    final int document = count;
+
+    if (document == documents.length) {
+      final Object[] bigger = new Object[2 * documents.length];
+      System.arraycopy(documents, 0, bigger, 0, document);
+      documents = bigger;
+    }
+
+    documents[document] = value;
+
+    final Map<String, Integer> counts = new HashMap<>();
+    for (final String term : tokenize(text)) {
+      final Integer seen = counts.get(term);
+      counts.put(term, seen == null ? 1 : seen + 1);
+    }
+
+    for (final Map.Entry<String, Integer> entry : counts.entrySet()) {
+      Postings list = postings.get(entry.getKey());
+      if (list == null) {
+        list = new Postings();
+        postings.put(entry.getKey(), list);
+      }
+      list.add(document, entry.getValue());
+    }
+
+    count = document + 1;
+  }
+
+  @Override
+  public List<VALUE> search(String query, Filter<? super VALUE> filter, int limit) {
+
+    final int total = count;
+    final Object[] values = documents;
+
+    if (limit <= 0 || total == 0) {
+      return Collections.emptyList();
+    }
+
+    final List<Cursor> cursors = new ArrayList<>();
+    for (final String term : new LinkedHashSet<>(tokenize(query))) {
+      final Postings list = postings.get(term);
+      if (list != null) {
+        final Cursor cursor = new Cursor(list, total);
+        if (cursor.next()) {
+          cursors.add(cursor);
+        }
+      }
+    }
+
+    // Every posting list is in document order, so walk them together and add
+    // up each document's score as all the lists reach it.
+    final TopScores best = new TopScores(limit);
+
+    while (!cursors.isEmpty()) {
+
+      int document = Integer.MAX_VALUE;
+      for (final Cursor cursor : cursors) {
+        document = Math.min(document, cursor.document);
+      }
+
+      double score = 0;
+      for (int i = cursors.size() - 1; i >= 0; i--) {
+        final Cursor cursor = cursors.get(i);
+        if (cursor.document == document) {
+          score += cursor.score();
+          if (!cursor.next()) {
+            cursors.remove(i);
+          }
+        }
+      }
+
+      if (best.wouldKeep(score, document) &&
+          (filter == null || filter.accept(InvertedIndex.<VALUE>value(values, document)))) {
+        best.add(score, document);
+      }
+    }
+
+    final int[] found = best.documents();
+    final List<VALUE> results = new ArrayList<>(found.length);
+    for (final int document : found) {
+      results.add(InvertedIndex.<VALUE>value(values, document));
+    }
+
+    return results;
+  }
+
+  // TERMS
+  //
+  // The number of distinct words in the index.
+  public int terms() {
+    return postings.size();
+  }
+
+  // TOKENIZE
+  //
+  // Split text into lower case words.
+  public static List<String> tokenize(String text) {
+
+    final List<String> terms = new ArrayList<>();
+
+    if (text == null) {
+      return terms;
+    }
+
+    int start = -1;
+
+    for (int i = 0; i <= text.length(); i++) {
+      final boolean word = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+      if (word && start < 0) {
+        start = i;
+      } else if (!word && start >= 0) {
+        final String term = text.substring(start, Math.min(i, start + MAX_TERM));
+        terms.add(term.toLowerCase(Locale.ROOT));
+        start = -1;
+      }
+    }
+
+    return terms;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <VALUE> VALUE value(Object[] values, int document) {
+    return (VALUE) values[document];
+  }
+
+  // Seven bits per byte, low bits first. The top bit is set on every byte
+  // except the last.
+  private static int writeVarint(byte[] bytes, int at, int value) {
+    while ((value & ~0x7F) != 0) {
+      bytes[at++] = (byte) ((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    bytes[at++] = (byte) value;
+    return at;
+  }
+
+  private static int readVarint(byte[] bytes, int at, int[] value) {
+    int result = 0;
+    int shift = 0;
+    byte b;
+    do {
+      b = bytes[at++];
+      result |= (b & 0x7F) << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0);
+    value[0] = result;
+    return at;
+  }
+}
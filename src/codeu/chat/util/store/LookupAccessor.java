@@ -0,0 +1,30 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.store;
+
+// LOOKUP ACCESSOR
+//
+// Read access to a store whose values are only ever found by an exact key.
+// Stores that also keep their keys in order support range queries through
+// StoreAccessor.
+public interface LookupAccessor<KEY, VALUE> {
+
+  VALUE first(KEY key);
+
+  Iterable<VALUE> all();
+
+  Iterable<VALUE> at(KEY key);
+
+}
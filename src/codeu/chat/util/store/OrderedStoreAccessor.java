@@ -0,0 +1,33 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.store;
+
+// ORDERED STORE ACCESSOR
+//
+// A store accessor that also knows each value's position in key order, so
+// that counts and "the last n values" can be answered without walking the
+// whole store.
+public interface OrderedStoreAccessor<KEY, VALUE> extends StoreAccessor<KEY, VALUE> {
+
+  // The number of values in the store.
+  int size();
+
+  // The number of values with keys from start to end, inclusive.
+  int count(KEY start, KEY end);
+
+  // The last (at most) n values in key order, oldest first.
+  Iterable<VALUE> last(int n);
+
+}
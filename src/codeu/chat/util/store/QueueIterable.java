@@ -0,0 +1,65 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.store;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+
+// QUEUE ITERABLE
+//
+// Iterate over a series of queues as if they were one sequence. Used by the
+// ConcurrentStore to walk all the values in a range of keys.
+final class QueueIterable<VALUE> implements Iterable<VALUE> {
+
+  private final Collection<Queue<VALUE>> queues;
+
+  public QueueIterable(Collection<Queue<VALUE>> queues) {
+    this.queues = queues;
+  }
+
+  @Override
+  public Iterator<VALUE> iterator() {
+
+    final Iterator<Queue<VALUE>> outer = queues.iterator();
+
+    return new Iterator<VALUE>() {
+
+      private Iterator<VALUE> inner = null;
+
+      @Override
+      public boolean hasNext() {
+        while ((inner == null || !inner.hasNext()) && outer.hasNext()) {
+          inner = outer.next().iterator();
+        }
+        return inner != null && inner.hasNext();
+      }
+
+      @Override
+      public VALUE next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        return inner.next();
+      }
+
+      @Override
+      public void remove() {
+        // do nothing
+      }
+    };
+  }
+}
@@ -0,0 +1,35 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.store;
+
+import java.util.List;
+
+public interface SearchAccessor<VALUE> {
+
+  // FILTER
+  //
+  // Decides which matching values may be returned from a search.
+  interface Filter<VALUE> {
+    boolean accept(VALUE value);
+  }
+
+  // SEARCH
+  //
+  // Return up to "limit" values that contain any of the words in the query,
+  // best match first. Values that contain more of the words, or rarer words,
+  // rank higher. A null filter accepts every value.
+  List<VALUE> search(String query, Filter<? super VALUE> filter, int limit);
+
+}
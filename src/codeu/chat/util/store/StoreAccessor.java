@@ -14,13 +14,7 @@
 
 package codeu.chat.util.store;
 
-public interface StoreAccessor<KEY, VALUE> {
-
-  VALUE first(KEY key);
-
-  Iterable<VALUE> all();
-
-  Iterable<VALUE> at(KEY key);
+public interface StoreAccessor<KEY, VALUE> extends LookupAccessor<KEY, VALUE> {
 
   Iterable<VALUE> after(KEY start);
 
@@ -22,12 +22,32 @@ public final class TestRunner {
   public static void main(String[] args) {
      final Result result =
          JUnitCore.runClasses(
+             codeu.chat.client.core.CacheTest.class,
+             codeu.chat.client.core.ReplicaTest.class,
              codeu.chat.common.SecretTest.class,
+             codeu.chat.relay.MappedLogTest.class,
              codeu.chat.relay.ServerTest.class,
              codeu.chat.server.BasicControllerTest.class,
+             codeu.chat.server.BatchingRelayTest.class,
+             codeu.chat.server.ChangeLogTest.class,
+             codeu.chat.server.ModelStressTest.class,
              codeu.chat.server.RawControllerTest.class,
+             codeu.chat.server.RemoteRelayTest.class,
+             codeu.chat.server.WriteAheadLogTest.class,
+             codeu.chat.server.SubscriptionsTest.class,
+             codeu.chat.server.ViewTest.class,
+             codeu.chat.util.BufferStreamTest.class,
+             codeu.chat.util.HistogramTest.class,
+             codeu.chat.util.LoggerTest.class,
              codeu.chat.util.TimeTest.class,
+             codeu.chat.util.TimelineTest.class,
              codeu.chat.util.UuidTest.class,
+             codeu.chat.util.connections.MultiplexedConnectionTest.class,
+             codeu.chat.util.connections.SelectorConnectionSourceTest.class,
+             codeu.chat.util.store.ArrayStoreTest.class,
+             codeu.chat.util.store.ConcurrentStoreTest.class,
+             codeu.chat.util.store.HashStoreTest.class,
+             codeu.chat.util.store.InvertedIndexTest.class,
              codeu.chat.util.store.StoreTest.class,
              codeu.chat.util.TokenizerTest.class                 
          );
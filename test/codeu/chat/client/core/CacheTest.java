@@ -0,0 +1,61 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.client.core;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public final class CacheTest {
+
+  @Test
+  public void testEvictsLeastRecentlyUsed() {
+
+    final Cache<Integer, String> cache = new Cache<>(2);
+
+    cache.put(1, "one");
+    cache.put(2, "two");
+
+    // Using 1 makes 2 the oldest.
+    assertEquals("one", cache.get(1));
+
+    cache.put(3, "three");
+
+    assertNull(cache.get(2));
+    assertEquals("one", cache.get(1));
+    assertEquals("three", cache.get(3));
+
+    final CacheStat stat = cache.stat("test");
+    assertEquals(3, stat.hits);
+    assertEquals(1, stat.misses);
+    assertEquals(1, stat.evictions);
+    assertEquals(2, stat.size);
+  }
+
+  @Test
+  public void testReplaceOnlyUpdatesCachedEntries() {
+
+    final Cache<Integer, String> cache = new Cache<>(4);
+
+    cache.put(1, "one");
+    cache.replace(1, "uno");
+    cache.replace(2, "dos");
+
+    assertEquals("uno", cache.get(1));
+    assertNull(cache.get(2));
+
+    cache.clear();
+    assertNull(cache.get(1));
+  }
+}
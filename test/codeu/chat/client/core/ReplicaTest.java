@@ -0,0 +1,244 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.client.core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import codeu.chat.common.BasicView;
+import codeu.chat.common.Changes;
+import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.ConversationPayload;
+import codeu.chat.common.Message;
+import codeu.chat.common.Page;
+import codeu.chat.common.ServerInfo;
+import codeu.chat.common.User;
+import codeu.chat.server.Controller;
+import codeu.chat.server.Model;
+import codeu.chat.server.View;
+import codeu.chat.util.AccessLevel;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+public final class ReplicaTest {
+
+  private Controller controller;
+  private CountingView server;
+  private Cache<Uuid, Message> messages;
+  private Replica replica;
+
+  // Passes calls through to the server's view and counts the calls that would
+  // have gone over the network.
+  private static final class CountingView implements BasicView {
+
+    private final View view;
+
+    int pages = 0;
+    int changes = 0;
+
+    // Fail conversation pages, as the client's view does when the server can
+    // not be reached.
+    boolean failPages = false;
+
+    CountingView(View view) {
+      this.view = view;
+    }
+
+    @Override
+    public Collection<User> getUsers() { return view.getUsers(); }
+
+    @Override
+    public Collection<ConversationHeader> getConversations() { return view.getConversations(); }
+
+    @Override
+    public Page<User> getUserPage(Uuid after, int limit) {
+      pages++;
+      return view.getUserPage(after, limit);
+    }
+
+    @Override
+    public Page<ConversationHeader> getConversationPage(Uuid after, int limit) {
+      pages++;
+      return failPages ? null : view.getConversationPage(after, limit);
+    }
+
+    @Override
+    public Iterator<User> iterateUsers() { return view.iterateUsers(); }
+
+    @Override
+    public Iterator<ConversationHeader> iterateConversations() { return view.iterateConversations(); }
+
+    @Override
+    public Collection<ConversationPayload> getConversationPayloads(Collection<Uuid> ids) {
+      return view.getConversationPayloads(ids);
+    }
+
+    @Override
+    public Collection<Message> getMessages(Collection<Uuid> ids) { return view.getMessages(ids); }
+
+    @Override
+    public Collection<Message> getMessagePage(Uuid conversation, Uuid after, Time start, Time end, int limit) {
+      return view.getMessagePage(conversation, after, start, end, limit);
+    }
+
+    @Override
+    public List<Message> searchMessages(String query, Uuid author, Uuid conversation, int limit) {
+      return view.searchMessages(query, author, conversation, limit);
+    }
+
+    @Override
+    public Changes getChangesSince(long epoch, long seq, int limit) {
+      changes++;
+      return view.getChangesSince(epoch, seq, limit);
+    }
+
+    @Override
+    public ServerInfo getInfo() { return view.getInfo(); }
+
+    @Override
+    public Map<Uuid, AccessLevel> getUsersAccessInConvo(Uuid convoId) {
+      return view.getUsersAccessInConvo(convoId);
+    }
+  }
+
+  @Before
+  public void doBefore() {
+    final Model model = new Model();
+    controller = new Controller(Uuid.NULL, model);
+    server = new CountingView(new View(model));
+    messages = new Cache<>(16);
+    replica = new Replica(server, messages);
+  }
+
+  @Test
+  public void testLoadsOnceThenFollowsChanges() {
+
+    final User first = controller.newUser("first");
+    controller.newConversation("chat", first.id, "member", new HashMap<Uuid, AccessLevel>());
+
+    assertEquals(1, replica.users().size());
+    assertEquals(1, replica.conversations().size());
+
+    // One page of each list, and no more pages after that.
+    final int pages = server.pages;
+    assertEquals(2, pages);
+
+    final User second = controller.newUser("second");
+
+    final List<User> users = new ArrayList<>(replica.users());
+    assertEquals(2, users.size());
+    assertEquals(second.id, users.get(1).id);
+    assertEquals(pages, server.pages);
+  }
+
+  @Test
+  public void testAccessChangeUpdatesConversation() {
+
+    final User owner = controller.newUser("owner");
+    final User other = controller.newUser("other");
+    final ConversationHeader conversation = controller.newConversation(
+        "chat", owner.id, "member", new HashMap<Uuid, AccessLevel>());
+
+    replica.conversations();
+
+    controller.changeUserAccess(other.id, AccessLevel.blocked, conversation.id);
+
+    final Collection<ConversationHeader> conversations = replica.conversations();
+    assertEquals(1, conversations.size());
+    assertEquals(AccessLevel.blocked, conversations.iterator().next().usersInConvo.get(other.id));
+  }
+
+  @Test
+  public void testFollowsManyChanges() {
+
+    replica.users();
+
+    for (int i = 0; i < 3 * BasicView.MAX_CHANGES; i++) {
+      controller.newUser("user " + i);
+    }
+
+    final int calls = server.changes;
+    assertEquals(3 * BasicView.MAX_CHANGES, replica.users().size());
+    assertEquals(3, server.changes - calls);
+  }
+
+  @Test
+  public void testLikesUpdateCachedMessages() {
+
+    final User user = controller.newUser("user");
+    final ConversationHeader conversation = controller.newConversation(
+        "chat", user.id, "member", new HashMap<Uuid, AccessLevel>());
+    final Message message = controller.newMessage(user.id, conversation.id, "hello");
+
+    replica.users();
+    messages.put(message.id, copy(message));
+
+    controller.likeMessage(message.id);
+    replica.refresh(0);
+
+    assertEquals(1, messages.get(message.id).likes);
+  }
+
+  @Test
+  public void testLookups() {
+
+    final User user = controller.newUser("user");
+
+    assertEquals(user.id, replica.user(user.id, 1000).id);
+    assertNull(replica.user(new Uuid(12345), 1000));
+
+    final CacheStat stat = replica.userStat();
+    assertEquals(1, stat.hits);
+    assertEquals(1, stat.misses);
+  }
+
+  @Test
+  public void testFailedReloadIsRetried() {
+
+    final User user = controller.newUser("user");
+    controller.newConversation("chat", user.id, "member", new HashMap<Uuid, AccessLevel>());
+
+    // The users arrive but the conversations do not, so nothing is kept.
+    server.failPages = true;
+    assertEquals(0, replica.users().size());
+    assertEquals(0, replica.conversations().size());
+
+    // The next read asks for a reset again and gets everything.
+    server.failPages = false;
+    assertEquals(1, replica.users().size());
+    assertEquals(1, replica.conversations().size());
+  }
+
+  // The server's view hands out its own objects, so copy the message to see
+  // whether the cached one is replaced.
+  private static Message copy(Message message) {
+    return new Message(message.id,
+                       message.next,
+                       message.previous,
+                       message.creation,
+                       message.author,
+                       message.content,
+                       message.convoId,
+                       message.likes);
+  }
+}
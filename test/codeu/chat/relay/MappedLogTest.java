@@ -0,0 +1,206 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.relay;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import codeu.chat.common.Relay;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+public final class MappedLogTest {
+
+  private static final Uuid TEAM = new Uuid(3);
+
+  private File directory;
+
+  @Before
+  public void doBefore() throws IOException {
+    directory = File.createTempFile("relay", "test");
+    directory.delete();
+    directory.mkdir();
+  }
+
+  @After
+  public void doAfter() {
+    for (final File file : directory.listFiles()) {
+      file.delete();
+    }
+    directory.delete();
+  }
+
+  @Test
+  public void testWriteAndRead() throws IOException {
+
+    final MappedLog log = MappedLog.open(directory, 1 << 20, 0);
+
+    for (int i = 0; i < 5; i++) {
+      write(log, i);
+    }
+
+    final List<Relay.Bundle> all = list(read(log, Uuid.NULL, 8));
+    assertEquals(5, all.size());
+
+    for (int i = 0; i < 5; i++) {
+      final Relay.Bundle bundle = all.get(i);
+      assertEquals(TEAM, bundle.team());
+      assertEquals(new Uuid(4), bundle.user().id());
+      assertEquals("user", bundle.user().text());
+      assertEquals(new Uuid(100 + i), bundle.message().id());
+      assertEquals("message " + i, bundle.message().text());
+    }
+
+    final List<Relay.Bundle> after = list(read(log, all.get(2).id(), 8));
+    assertEquals(2, after.size());
+    assertEquals(all.get(3).id(), after.get(0).id());
+
+    assertEquals(0, read(log, all.get(4).id(), 8).size());
+
+    // Nothing newer than "last" is read.
+    assertEquals(2, log.read(0, sequence(all.get(1).id()), 8).size());
+    assertEquals(9, log.newest());
+  }
+
+  @Test
+  public void testReopen() throws IOException {
+
+    final MappedLog first = MappedLog.open(directory, 1 << 20, 0);
+    write(first, 0);
+    write(first, 1);
+
+    final Uuid cursor = list(read(first, Uuid.NULL, 8)).get(1).id();
+
+    final MappedLog second = MappedLog.open(directory, 1 << 20, 0);
+
+    // The old bundles are still there and the cursor still works.
+    assertEquals(2, read(second, Uuid.NULL, 8).size());
+    assertEquals(0, read(second, cursor, 8).size());
+
+    write(second, 2);
+
+    final List<Relay.Bundle> after = list(read(second, cursor, 8));
+    assertEquals(1, after.size());
+    assertEquals(new Uuid(102), after.get(0).message().id());
+  }
+
+  @Test
+  public void testReadAcrossSegments() throws IOException {
+
+    // Segments small enough to only hold a couple of bundles each.
+    final MappedLog log = MappedLog.open(directory, 256, 1 << 20, 0);
+
+    for (int i = 0; i < 20; i++) {
+      write(log, i);
+    }
+
+    assertTrue(directory.listFiles().length > 1);
+
+    final List<Relay.Bundle> all = list(read(log, Uuid.NULL, 32));
+    assertEquals(20, all.size());
+    for (int i = 0; i < 20; i++) {
+      assertEquals(new Uuid(100 + i), all.get(i).message().id());
+    }
+
+    final List<Relay.Bundle> after = list(read(log, all.get(10).id(), 4));
+    assertEquals(4, after.size());
+    assertEquals(new Uuid(111), after.get(0).message().id());
+    assertEquals(new Uuid(114), after.get(3).message().id());
+
+    final MappedLog reopened = MappedLog.open(directory, 256, 1 << 20, 0);
+    assertEquals(20, read(reopened, Uuid.NULL, 32).size());
+  }
+
+  @Test
+  public void testRetainBySize() throws IOException {
+
+    final MappedLog log = MappedLog.open(directory, 256, 1024, 0);
+
+    for (int i = 0; i < 50; i++) {
+      write(log, i);
+    }
+
+    assertTrue(directory.listFiles().length <= 5);
+
+    // The newest bundles are kept and reading from an id that was dropped
+    // starts from the oldest one left.
+    final List<Relay.Bundle> kept = list(read(log, new Uuid(1), 64));
+    assertTrue(kept.size() < 50);
+    assertEquals(new Uuid(149), kept.get(kept.size() - 1).message().id());
+  }
+
+  @Test
+  public void testTornWrite() throws IOException {
+
+    final MappedLog first = MappedLog.open(directory, 1 << 20, 0);
+    write(first, 0);
+    write(first, 1);
+
+    // Break the checksum of the second record.
+    final File segment = directory.listFiles()[0];
+    final int offset = recordEnd(segment);
+    try (final RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+      file.seek(offset + 20);
+      file.write(0xFF);
+    }
+
+    final MappedLog second = MappedLog.open(directory, 1 << 20, 0);
+    assertEquals(1, read(second, Uuid.NULL, 8).size());
+
+    // New writes go where the broken record was.
+    write(second, 2);
+    final List<Relay.Bundle> all = list(read(second, Uuid.NULL, 8));
+    assertEquals(2, all.size());
+    assertEquals(new Uuid(102), all.get(1).message().id());
+  }
+
+  // The offset just past the first record in a segment file.
+  private static int recordEnd(File segment) throws IOException {
+    try (final RandomAccessFile file = new RandomAccessFile(segment, "r")) {
+      return 8 + file.readInt();
+    }
+  }
+
+  // Bundle "i" gets id 2i + 1 so that the ids have gaps, as they do when
+  // other teams write in between.
+  private static void write(MappedLog log, int i) throws IOException {
+    log.write(2 * i + 1,
+              TEAM,
+              new Server.Component(new Uuid(4), "user", Time.now()),
+              new Server.Component(new Uuid(5), "conversation", Time.now()),
+              new Server.Component(new Uuid(100 + i), "message " + i, Time.now()));
+  }
+
+  private static Collection<Relay.Bundle> read(MappedLog log, Uuid after, int count) throws IOException {
+    return log.read(sequence(after), Long.MAX_VALUE, count);
+  }
+
+  private static long sequence(Uuid id) {
+    return id.id() & 0xFFFFFFFFL;
+  }
+
+  private static List<Relay.Bundle> list(Collection<Relay.Bundle> bundles) {
+    return new ArrayList<>(bundles);
+  }
+}
@@ -0,0 +1,79 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.relay;
+
+import codeu.chat.common.Relay;
+import codeu.chat.common.Secret;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+// READ BENCHMARK
+//
+// Measures how long a relay read takes with different amounts of history.
+// Readers are normally close to the newest bundle, so each read asks for the
+// bundles after one a little way back from the end. The time per read should
+// not depend on how much history the relay holds.
+//
+// This is not part of the test suite. Run it directly:
+//
+//   java codeu.chat.relay.ReadBenchmark
+public final class ReadBenchmark {
+
+  private static final int[] HISTORY = { 1024, 16384, 262144, 1048576 };
+  private static final int MAX_READ = 16;
+  private static final int READS = 200000;
+
+  public static void main(String[] args) {
+
+    final Uuid team = new Uuid(1);
+    final Secret secret = new Secret((byte) 0x01, (byte) 0x02);
+
+    System.out.format("%10s %15s%n", "history", "read (ns)");
+
+    for (final int size : HISTORY) {
+
+      final Server relay = new Server(size, MAX_READ);
+      relay.addTeam(team, secret);
+
+      final Relay.Bundle.Component user = relay.pack(new Uuid(2), "user", Time.now());
+      final Relay.Bundle.Component conversation = relay.pack(new Uuid(3), "conversation", Time.now());
+      final Relay.Bundle.Component message = relay.pack(new Uuid(4), "message", Time.now());
+
+      for (int i = 0; i < size; i++) {
+        relay.write(team, secret, user, conversation, message);
+      }
+
+      // Find the cursor: the bundle MAX_READ back from the newest.
+      Uuid cursor = Uuid.NULL;
+      for (final Relay.Bundle bundle : relay.read(team, secret, new Uuid(size - MAX_READ), 1)) {
+        cursor = bundle.id();
+      }
+
+      long found = 0;
+      long time = 0;
+
+      // The first round warms up the JIT.
+      for (int round = 0; round < 2; round++) {
+        final long start = System.nanoTime();
+        for (int i = 0; i < READS; i++) {
+          found += relay.read(team, secret, cursor, MAX_READ).size();
+        }
+        time = (System.nanoTime() - start) / READS;
+      }
+
+      System.out.format("%10d %15d   (%d)%n", size, time, found % 10);
+    }
+  }
+}
@@ -14,7 +14,11 @@
 
 package codeu.chat.relay;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 import static org.junit.Assert.*;
 import org.junit.Test;
@@ -287,4 +291,320 @@ public final class ServerTest {
       assertTrue(Uuid.equals(bundle.id(), new Uuid(3)));
     }
   }
+
+  @Test
+  public void testReadAfterHistoryWraps() {
+
+    final Server relay = new Server(4, 8);
+
+    final Uuid team = new Uuid(3);
+    final Secret secret = new Secret((byte)0x00, (byte)0x01, (byte)0x02);
+
+    assertTrue(relay.addTeam(team, secret));
+
+    for (int i = 0; i < 10; i++) {
+      assertTrue(relay.write(team,
+                             secret,
+                             relay.pack(new Uuid(4), "User", Time.now()),
+                             relay.pack(new Uuid(5), "Conversation", Time.now()),
+                             relay.pack(new Uuid(100 + i), "Message " + i, Time.now())));
+    }
+
+    // Only the last four bundles are held. Reading from the start gives all
+    // of them.
+    final Uuid[] all = ids(relay.read(team, secret, Uuid.NULL, 8));
+    assertEquals(4, all.length);
+
+    // Reading after the second to last held bundle gives the ones after it.
+    final Uuid[] after = ids(relay.read(team, secret, all[1], 8));
+    assertEquals(2, after.length);
+    assertEquals(all[2], after[0]);
+    assertEquals(all[3], after[1]);
+
+    // Reading after the newest bundle gives nothing.
+    assertEquals(0, relay.read(team, secret, all[3], 8).size());
+  }
+
+  @Test
+  public void testTeamsReadEachOthersHistory() {
+
+    final Server relay = new Server(2, 8);
+
+    final Uuid teamA = new Uuid(3);
+    final Uuid teamB = new Uuid(4);
+    final Secret secret = new Secret((byte)0x00, (byte)0x01, (byte)0x02);
+
+    assertTrue(relay.addTeam(teamA, secret));
+    assertTrue(relay.addTeam(teamB, secret));
+
+    assertTrue(relay.write(teamA,
+                           secret,
+                           relay.pack(new Uuid(5), "User", Time.now()),
+                           relay.pack(new Uuid(6), "Conversation", Time.now()),
+                           relay.pack(new Uuid(7), "From A", Time.now())));
+
+    // Team B writing more than the history can hold must not push out team
+    // A's bundle.
+    for (int i = 0; i < 4; i++) {
+      assertTrue(relay.write(teamB,
+                             secret,
+                             relay.pack(new Uuid(5), "User", Time.now()),
+                             relay.pack(new Uuid(6), "Conversation", Time.now()),
+                             relay.pack(new Uuid(100 + i), "From B", Time.now())));
+    }
+
+    // Both teams see team A's bundle and the two of team B's that are still
+    // held, in the order they were written.
+    for (final Uuid reader : new Uuid[] { teamA, teamB }) {
+
+      final List<Relay.Bundle> read = new ArrayList<>(relay.read(reader, secret, Uuid.NULL, 8));
+      assertEquals(3, read.size());
+
+      assertEquals(teamA, read.get(0).team());
+      assertEquals(new Uuid(7), read.get(0).message().id());
+      assertEquals(teamB, read.get(1).team());
+      assertEquals(new Uuid(102), read.get(1).message().id());
+      assertEquals(teamB, read.get(2).team());
+      assertEquals(new Uuid(103), read.get(2).message().id());
+    }
+
+    // A write by team A after team B's comes after them for both teams.
+    final Uuid cursor = ids(relay.read(teamB, secret, Uuid.NULL, 8))[2];
+
+    assertTrue(relay.write(teamA,
+                           secret,
+                           relay.pack(new Uuid(5), "User", Time.now()),
+                           relay.pack(new Uuid(6), "Conversation", Time.now()),
+                           relay.pack(new Uuid(8), "From A again", Time.now())));
+
+    final Collection<Relay.Bundle> after = relay.read(teamB, secret, cursor, 8);
+    assertEquals(1, after.size());
+    for (final Relay.Bundle bundle : after) {
+      assertEquals(teamA, bundle.team());
+      assertEquals(new Uuid(8), bundle.message().id());
+    }
+  }
+
+  @Test
+  public void testConcurrentTeamWritesAreAllRead() throws Exception {
+
+    final int teams = 4;
+    final int writes = 200;
+
+    final Server relay = new Server(writes, 64);
+    final Secret secret = new Secret((byte)0x00, (byte)0x01, (byte)0x02);
+
+    final Thread[] writers = new Thread[teams];
+
+    for (int t = 0; t < teams; t++) {
+      final Uuid team = new Uuid(10 + t);
+      assertTrue(relay.addTeam(team, secret));
+      writers[t] = new Thread() {
+        @Override
+        public void run() {
+          for (int i = 0; i < writes; i++) {
+            relay.write(team,
+                        secret,
+                        relay.pack(new Uuid(4), "User", Time.now()),
+                        relay.pack(new Uuid(5), "Conversation", Time.now()),
+                        relay.pack(new Uuid(1000 * team.id() + i), "Message", Time.now()));
+          }
+        }
+      };
+    }
+
+    for (final Thread writer : writers) {
+      writer.start();
+    }
+
+    // Follow the feed with a cursor while the teams write. Every bundle must
+    // be seen exactly once, in id order.
+    final Set<Uuid> seen = new HashSet<>();
+    Uuid cursor = Uuid.NULL;
+    long last = 0;
+
+    final long deadline = System.currentTimeMillis() + 10000;
+
+    while (seen.size() < teams * writes && System.currentTimeMillis() < deadline) {
+      for (final Relay.Bundle bundle : relay.read(new Uuid(10), secret, cursor, 64, 100)) {
+        final long id = bundle.id().id() & 0xFFFFFFFFL;
+        assertTrue(id > last);
+        assertTrue(seen.add(bundle.message().id()));
+        last = id;
+        cursor = bundle.id();
+      }
+    }
+
+    for (final Thread writer : writers) {
+      writer.join();
+    }
+
+    assertEquals(teams * writes, seen.size());
+  }
+
+  @Test
+  public void testTeamHistorySize() {
+
+    final Server relay = new Server(2, 8);
+
+    final Uuid team = new Uuid(3);
+    final Secret secret = new Secret((byte)0x00, (byte)0x01, (byte)0x02);
+
+    assertTrue(relay.addTeam(team, secret, 5));
+    assertFalse(relay.addTeam(team, secret, 8));
+
+    for (int i = 0; i < 10; i++) {
+      assertTrue(relay.write(team,
+                             secret,
+                             relay.pack(new Uuid(4), "User", Time.now()),
+                             relay.pack(new Uuid(5), "Conversation", Time.now()),
+                             relay.pack(new Uuid(100 + i), "Message " + i, Time.now())));
+    }
+
+    assertEquals(5, relay.read(team, secret, Uuid.NULL, 8).size());
+  }
+
+  @Test
+  public void testWriteBatch() {
+
+    final Server relay = new Server(8, 8);
+
+    final Uuid team = new Uuid(3);
+    final Secret secret = new Secret((byte)0x00, (byte)0x01, (byte)0x02);
+    final Secret wrongSecret = new Secret((byte)0x00, (byte)0x01, (byte)0x03);
+
+    assertTrue(relay.addTeam(team, secret));
+
+    // Use what was read back from single writes as the batch - only the
+    // components matter.
+    for (int i = 0; i < 3; i++) {
+      assertTrue(relay.write(team,
+                             secret,
+                             relay.pack(new Uuid(4), "User", Time.now()),
+                             relay.pack(new Uuid(5), "Conversation", Time.now()),
+                             relay.pack(new Uuid(100 + i), "Message " + i, Time.now())));
+    }
+
+    final List<Relay.Bundle> batch = new ArrayList<>(relay.read(team, secret, Uuid.NULL, 8));
+
+    assertEquals(0, relay.write(team, wrongSecret, batch));
+    assertEquals(3, relay.write(team, secret, batch));
+
+    final Uuid[] all = ids(relay.read(team, secret, Uuid.NULL, 8));
+    assertEquals(6, all.length);
+
+    int i = 0;
+    for (final Relay.Bundle bundle : relay.read(team, secret, all[2], 8)) {
+      assertEquals(new Uuid(100 + i++), bundle.message().id());
+    }
+    assertEquals(3, i);
+  }
+
+  @Test
+  public void testReadWaitsForWrite() throws Exception {
+
+    final Server relay = new Server(8, 8);
+
+    final Uuid team = new Uuid(3);
+    final Secret secret = new Secret((byte)0x00, (byte)0x01, (byte)0x02);
+
+    assertTrue(relay.addTeam(team, secret));
+
+    final Thread writer = new Thread() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(100);
+        } catch (InterruptedException ex) {
+          return;
+        }
+        relay.write(team,
+                    secret,
+                    relay.pack(new Uuid(4), "User", Time.now()),
+                    relay.pack(new Uuid(5), "Conversation", Time.now()),
+                    relay.pack(new Uuid(6), "Hello World", Time.now()));
+      }
+    };
+
+    final long start = System.currentTimeMillis();
+    writer.start();
+
+    final Collection<Relay.Bundle> read = relay.read(team, secret, Uuid.NULL, 8, 10000);
+    final long elapsed = System.currentTimeMillis() - start;
+
+    writer.join();
+
+    // The read should come back once the write is done, not at the timeout.
+    assertEquals(1, read.size());
+    assertTrue(elapsed < 5000);
+  }
+
+  @Test
+  public void testReadWakesOnOtherTeamsWrite() throws Exception {
+
+    final Server relay = new Server(8, 8);
+
+    final Uuid teamA = new Uuid(3);
+    final Uuid teamB = new Uuid(4);
+    final Secret secret = new Secret((byte)0x00, (byte)0x01, (byte)0x02);
+
+    assertTrue(relay.addTeam(teamA, secret));
+    assertTrue(relay.addTeam(teamB, secret));
+
+    final Thread writer = new Thread() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(100);
+        } catch (InterruptedException ex) {
+          return;
+        }
+        relay.write(teamB,
+                    secret,
+                    relay.pack(new Uuid(5), "User", Time.now()),
+                    relay.pack(new Uuid(6), "Conversation", Time.now()),
+                    relay.pack(new Uuid(7), "From B", Time.now()));
+      }
+    };
+
+    final long start = System.currentTimeMillis();
+    writer.start();
+
+    // Team A is waiting but it is team B that writes.
+    final Collection<Relay.Bundle> read = relay.read(teamA, secret, Uuid.NULL, 8, 10000);
+    final long elapsed = System.currentTimeMillis() - start;
+
+    writer.join();
+
+    assertEquals(1, read.size());
+    assertTrue(elapsed < 5000);
+  }
+
+  @Test
+  public void testReadWaitTimesOut() {
+
+    final Server relay = new Server(8, 8);
+
+    final Uuid team = new Uuid(3);
+    final Secret secret = new Secret((byte)0x00, (byte)0x01, (byte)0x02);
+    final Secret wrongSecret = new Secret((byte)0x00, (byte)0x01, (byte)0x03);
+
+    assertTrue(relay.addTeam(team, secret));
+
+    final long start = System.currentTimeMillis();
+    assertEquals(0, relay.read(team, secret, Uuid.NULL, 8, 100).size());
+    assertTrue(System.currentTimeMillis() - start >= 100);
+
+    // A reader that can not authenticate does not wait.
+    assertEquals(0, relay.read(team, wrongSecret, Uuid.NULL, 8, 100000).size());
+  }
+
+  private static Uuid[] ids(Collection<Relay.Bundle> bundles) {
+    final Uuid[] ids = new Uuid[bundles.size()];
+    int i = 0;
+    for (final Relay.Bundle bundle : bundles) {
+      ids[i++] = bundle.id();
+    }
+    return ids;
+  }
 }
@@ -96,4 +96,36 @@ public final class BasicControllerTest {
         "Check that the message has a valid reference",
         message == null);
   }
+
+  @Test
+  public void testLikeMessage() {
+
+    final User user = controller.newUser("user");
+    final ConversationHeader conversation = controller.newConversation(
+        "conversation",
+        user.id, "owner", new HashMap<Uuid, AccessLevel>());
+
+    final Message first = controller.newMessage(user.id, conversation.id, "first");
+    final Message second = controller.newMessage(user.id, conversation.id, "second");
+
+    assertEquals(1, controller.likeMessage(second.id));
+    assertEquals(2, controller.likeMessage(second.id));
+    assertEquals(0, model.messageById().first(first.id).likes);
+  }
+
+  @Test
+  public void testChangeUserAccess() {
+
+    final User user = controller.newUser("user");
+    final User other = controller.newUser("other");
+    final ConversationHeader conversation = controller.newConversation(
+        "conversation",
+        user.id, "owner", new HashMap<Uuid, AccessLevel>());
+
+    controller.changeUserAccess(other.id, AccessLevel.blocked, conversation.id);
+
+    assertEquals(
+        AccessLevel.blocked,
+        model.conversationById().first(conversation.id).usersInConvo.get(other.id));
+  }
 }
@@ -0,0 +1,200 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Test;
+
+import codeu.chat.common.Relay;
+import codeu.chat.common.Secret;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+public final class BatchingRelayTest {
+
+  private static final Uuid TEAM = new Uuid(3);
+  private static final Secret SECRET = new Secret((byte)0x00, (byte)0x01, (byte)0x02);
+
+  // Records every batch write. The first "failures" batch writes only take
+  // "taken" bundles.
+  private static final class RecordingRelay implements Relay {
+
+    final Relay packer = new NoOpRelay();
+
+    final List<List<Uuid>> batches = new ArrayList<>();
+    final CountDownLatch done;
+
+    int failures = 0;
+    int taken = 0;
+
+    RecordingRelay(int expected) {
+      done = new CountDownLatch(expected);
+    }
+
+    @Override
+    public Relay.Bundle.Component pack(Uuid id, String text, Time time) {
+      return packer.pack(id, text, time);
+    }
+
+    @Override
+    public boolean write(Uuid teamId,
+                         Secret teamSecret,
+                         Relay.Bundle.Component user,
+                         Relay.Bundle.Component conversation,
+                         Relay.Bundle.Component message) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Collection<Relay.Bundle> read(Uuid teamId, Secret teamSecret, Uuid root, int range) {
+      return new ArrayList<>();
+    }
+
+    @Override
+    public Collection<Relay.Bundle> read(Uuid teamId, Secret teamSecret, Uuid root, int range, long timeout) {
+      return new ArrayList<>();
+    }
+
+    @Override
+    public synchronized int write(Uuid teamId, Secret teamSecret, List<? extends Relay.Bundle> bundles) {
+
+      final int count = failures > 0 ? Math.min(taken, bundles.size()) : bundles.size();
+      failures--;
+
+      final List<Uuid> ids = new ArrayList<>();
+      for (final Relay.Bundle bundle : bundles.subList(0, count)) {
+        ids.add(bundle.message().id());
+        done.countDown();
+      }
+      batches.add(ids);
+
+      return count;
+    }
+  }
+
+  private RecordingRelay recording;
+  private BatchingRelay relay;
+
+  @After
+  public void doAfter() {
+    relay.close();
+  }
+
+  @Test
+  public void testBatchesWrites() throws Exception {
+
+    recording = new RecordingRelay(10);
+    relay = new BatchingRelay(recording, 64, 200, 128);
+
+    for (int i = 0; i < 10; i++) {
+      assertTrue(write(i));
+    }
+
+    assertTrue(recording.done.await(5, TimeUnit.SECONDS));
+
+    // Everything was written within the window so it should be one batch.
+    synchronized (recording) {
+      assertEquals(1, recording.batches.size());
+      assertEquals(10, recording.batches.get(0).size());
+      assertEquals(new Uuid(100), recording.batches.get(0).get(0));
+      assertEquals(new Uuid(109), recording.batches.get(0).get(9));
+    }
+  }
+
+  @Test
+  public void testMaxBatch() throws Exception {
+
+    recording = new RecordingRelay(10);
+    relay = new BatchingRelay(recording, 4, 200, 128);
+
+    for (int i = 0; i < 10; i++) {
+      assertTrue(write(i));
+    }
+
+    assertTrue(recording.done.await(5, TimeUnit.SECONDS));
+
+    synchronized (recording) {
+      for (final List<Uuid> batch : recording.batches) {
+        assertTrue(batch.size() <= 4);
+      }
+    }
+  }
+
+  @Test
+  public void testRetryRest() throws Exception {
+
+    recording = new RecordingRelay(6);
+    recording.failures = 2;
+    recording.taken = 2;
+
+    relay = new BatchingRelay(recording, 64, 100, 128);
+
+    for (int i = 0; i < 6; i++) {
+      assertTrue(write(i));
+    }
+
+    assertTrue(recording.done.await(5, TimeUnit.SECONDS));
+
+    // The relay took 2, then 2 more, then the last 2 - in order and with no
+    // bundle sent twice.
+    synchronized (recording) {
+      final List<Uuid> all = new ArrayList<>();
+      for (final List<Uuid> batch : recording.batches) {
+        all.addAll(batch);
+      }
+      assertEquals(6, all.size());
+      for (int i = 0; i < 6; i++) {
+        assertEquals(new Uuid(100 + i), all.get(i));
+      }
+    }
+  }
+
+  @Test
+  public void testQueueFull() throws Exception {
+
+    // The relay never takes anything, so the writer is stuck retrying its
+    // first batch and the queue fills up.
+    recording = new RecordingRelay(1);
+    recording.failures = Integer.MAX_VALUE;
+    recording.taken = 0;
+
+    relay = new BatchingRelay(recording, 1, 0, 2);
+
+    int accepted = 0;
+    for (int i = 0; i < 10; i++) {
+      if (write(i)) {
+        accepted++;
+      }
+    }
+
+    assertTrue(accepted < 10);
+    assertTrue(relay.queued() <= 2);
+  }
+
+  private boolean write(int i) {
+    return relay.write(TEAM,
+                       SECRET,
+                       relay.pack(new Uuid(4), "user", Time.now()),
+                       relay.pack(new Uuid(5), "conversation", Time.now()),
+                       relay.pack(new Uuid(100 + i), "message " + i, Time.now()));
+  }
+}
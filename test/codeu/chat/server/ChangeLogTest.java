@@ -0,0 +1,69 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import codeu.chat.util.Uuid;
+
+public final class ChangeLogTest {
+
+  @Test
+  public void testSince() {
+
+    final ChangeLog log = new ChangeLog(8);
+
+    assertEquals(0, log.latest());
+    assertTrue(log.since(0, 10).isEmpty());
+
+    assertEquals(1, log.append(ChangeLog.USER, new Uuid(1)));
+    assertEquals(2, log.append(ChangeLog.MESSAGE, new Uuid(2)));
+    assertEquals(3, log.append(ChangeLog.LIKE, new Uuid(2)));
+
+    final List<ChangeLog.Change> all = log.since(0, 10);
+    assertEquals(3, all.size());
+    assertEquals(ChangeLog.USER, all.get(0).type);
+    assertEquals(new Uuid(2), all.get(2).id);
+    assertEquals(3, all.get(2).seq);
+
+    final List<ChangeLog.Change> some = log.since(1, 1);
+    assertEquals(1, some.size());
+    assertEquals(2, some.get(0).seq);
+
+    assertTrue(log.since(3, 10).isEmpty());
+    assertNull(log.since(4, 10));
+  }
+
+  @Test
+  public void testFallingBehind() {
+
+    final ChangeLog log = new ChangeLog(4);
+
+    for (int i = 1; i <= 10; i++) {
+      log.append(ChangeLog.MESSAGE, new Uuid(i));
+    }
+
+    // Only changes 7 to 10 are kept.
+    assertNull(log.since(5, 10));
+
+    final List<ChangeLog.Change> kept = log.since(6, 10);
+    assertEquals(4, kept.size());
+    assertEquals(new Uuid(7), kept.get(0).id);
+    assertEquals(new Uuid(10), kept.get(3).id);
+  }
+}
@@ -0,0 +1,96 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.Message;
+import codeu.chat.common.User;
+import codeu.chat.util.AccessLevel;
+import codeu.chat.util.Uuid;
+
+// CONTROLLER BENCHMARK
+//
+// Measures how long liking a message and changing a user's access take as
+// the number of messages and conversations in the model grows. Both look
+// their target up by id, so the time per call should stay roughly flat.
+//
+// This is not part of the test suite. Run it directly:
+//
+//   java codeu.chat.server.ControllerBenchmark
+public final class ControllerBenchmark {
+
+  private static final int[] SIZES = { 1000, 10000, 100000 };
+  private static final int MESSAGES_PER_CONVERSATION = 100;
+  private static final int CALLS = 100000;
+
+  public static void main(String[] args) {
+
+    System.out.format("%10s %15s %15s%n", "messages", "like (ns)", "access (ns)");
+
+    for (final int size : SIZES) {
+
+      final Model model = new Model();
+      final Controller controller = new Controller(Uuid.NULL, model);
+
+      final User user = controller.newUser("user");
+      final List<Uuid> conversations = new ArrayList<>();
+      final List<Uuid> messages = new ArrayList<>();
+
+      ConversationHeader conversation = null;
+      for (int i = 0; i < size; i++) {
+        if (i % MESSAGES_PER_CONVERSATION == 0) {
+          conversation = controller.newConversation(
+              "conversation " + i, user.id, "owner", new HashMap<Uuid, AccessLevel>());
+          conversations.add(conversation.id);
+        }
+        final Message message = controller.newMessage(user.id, conversation.id, "message " + i);
+        messages.add(message.id);
+      }
+
+      // Run everything twice so the second round is measured with a warm JIT.
+      long like = 0;
+      long access = 0;
+      for (int round = 0; round < 2; round++) {
+        like = timeLikes(controller, messages);
+        access = timeAccessChanges(controller, user.id, conversations);
+      }
+
+      System.out.format("%10d %15d %15d%n", size, like, access);
+    }
+  }
+
+  private static long timeLikes(Controller controller, List<Uuid> messages) {
+    final long start = System.nanoTime();
+    for (int i = 0; i < CALLS; i++) {
+      controller.likeMessage(messages.get((i * 7919) % messages.size()));
+    }
+    return (System.nanoTime() - start) / CALLS;
+  }
+
+  private static long timeAccessChanges(Controller controller, Uuid user, List<Uuid> conversations) {
+    final long start = System.nanoTime();
+    for (int i = 0; i < CALLS; i++) {
+      controller.changeUserAccess(
+          user,
+          i % 2 == 0 ? AccessLevel.member : AccessLevel.owner,
+          conversations.get((i * 7919) % conversations.size()));
+    }
+    return (System.nanoTime() - start) / CALLS;
+  }
+}
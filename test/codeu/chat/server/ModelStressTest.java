@@ -0,0 +1,183 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.Message;
+import codeu.chat.common.User;
+import codeu.chat.util.AccessLevel;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+// MODEL STRESS TEST
+//
+// Hammer the model from many threads at once. Writers add messages (directly
+// and through the controller) while readers look messages up by id and walk
+// ranges of the time index. Any exception, missing message, or out of order
+// result fails the test.
+public final class ModelStressTest {
+
+  private static final int WRITERS = 4;
+  private static final int READERS = 4;
+  private static final int MESSAGES_PER_WRITER = 5000;
+
+  private Model model;
+  private Controller controller;
+
+  @Before
+  public void doBefore() {
+    model = new Model();
+    controller = new Controller(Uuid.NULL, model);
+  }
+
+  @Test
+  public void testAddWhileReading() throws Exception {
+
+    final List<Uuid> added = new ArrayList<>();
+    final AtomicBoolean writing = new AtomicBoolean(true);
+    final Collection<Throwable> errors = new ArrayList<>();
+    final CountDownLatch writersDone = new CountDownLatch(WRITERS);
+    final CountDownLatch readersDone = new CountDownLatch(READERS);
+
+    for (int w = 0; w < WRITERS; w++) {
+      final int writer = w;
+      start(errors, writersDone, new Body() {
+        @Override
+        public void run() {
+          final Uuid root = new Uuid(writer + 1);
+          for (int i = 0; i < MESSAGES_PER_WRITER; i++) {
+            final Uuid id = new Uuid(root, i);
+            final Message message = new Message(
+                id, Uuid.NULL, Uuid.NULL, Time.fromMs(i), root, "message " + i, root, 0);
+            model.add(message);
+
+            // Anything that has been added must be visible straight away.
+            assertSame(message, model.messageById().first(id));
+
+            synchronized (added) {
+              added.add(id);
+            }
+          }
+        }
+      });
+    }
+
+    for (int r = 0; r < READERS; r++) {
+      start(errors, readersDone, new Body() {
+        @Override
+        public void run() {
+          while (writing.get()) {
+
+            final Uuid id;
+            synchronized (added) {
+              id = added.isEmpty() ? null : added.get(added.size() / 2);
+            }
+
+            if (id != null) {
+              assertNotNull(model.messageById().first(id));
+            }
+
+            long last = 100;
+            for (final Message message : model.messageByTime().range(Time.fromMs(100), Time.fromMs(200))) {
+              assertTrue(message.creation.inMs() >= last);
+              assertTrue(message.creation.inMs() <= 200);
+              last = message.creation.inMs();
+            }
+          }
+        }
+      });
+    }
+
+    writersDone.await();
+    writing.set(false);
+    readersDone.await();
+
+    assertTrue(errors.toString(), errors.isEmpty());
+
+    int count = 0;
+    for (final Message message : model.messageByTime().range(Time.fromMs(100), Time.fromMs(200))) {
+      count++;
+    }
+    assertEquals(WRITERS * 101, count);
+  }
+
+  @Test
+  public void testControllerLinksConcurrentMessages() throws Exception {
+
+    final User user = controller.newUser("user");
+    final ConversationHeader conversation = controller.newConversation(
+        "conversation", user.id, "owner", new HashMap<Uuid, AccessLevel>());
+
+    final Collection<Throwable> errors = new ArrayList<>();
+    final CountDownLatch done = new CountDownLatch(WRITERS);
+
+    for (int w = 0; w < WRITERS; w++) {
+      start(errors, done, new Body() {
+        @Override
+        public void run() {
+          for (int i = 0; i < 500; i++) {
+            assertNotNull(controller.newMessage(user.id, conversation.id, "hello"));
+          }
+        }
+      });
+    }
+
+    done.await();
+    assertTrue(errors.toString(), errors.isEmpty());
+
+    // Every message must be reachable by following the chain from the first
+    // message, which only holds if no two writers linked at the same time.
+    int count = 0;
+    Uuid current = model.conversationPayloadById().first(conversation.id).firstMessage;
+    while (!Uuid.equals(current, Uuid.NULL)) {
+      count++;
+      current = model.messageById().first(current).next;
+    }
+    assertEquals(WRITERS * 500, count);
+  }
+
+  private interface Body {
+    void run() throws Exception;
+  }
+
+  private static void start(final Collection<Throwable> errors,
+                            final CountDownLatch done,
+                            final Body body) {
+    new Thread() {
+      @Override
+      public void run() {
+        try {
+          body.run();
+        } catch (Throwable ex) {
+          synchronized (errors) {
+            errors.add(ex);
+          }
+        }
+        done.countDown();
+      }
+    }.start();
+  }
+}
@@ -0,0 +1,163 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.SequenceInputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import codeu.chat.common.NetworkCode;
+import codeu.chat.common.Relay;
+import codeu.chat.common.Secret;
+import codeu.chat.relay.ServerFrontEnd;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+import codeu.chat.util.connections.Connection;
+import codeu.chat.util.connections.ConnectionSource;
+
+public final class RemoteRelayTest {
+
+  private static final Uuid TEAM = new Uuid(3);
+  private static final Secret SECRET = new Secret((byte)0x00, (byte)0x01, (byte)0x02);
+
+  private static final int PIPE_SIZE = 64 * 1024;
+
+  // Acts like a relay front end from before RELAY_WAIT_READ_REQUEST: any
+  // request type it does not know is dropped by closing the connection
+  // without an answer. Everything else goes to a real front end.
+  private static final class OldRelaySource implements ConnectionSource {
+
+    final ServerFrontEnd frontEnd;
+    final AtomicInteger waitReads = new AtomicInteger();
+
+    OldRelaySource(Relay backEnd) {
+      frontEnd = new ServerFrontEnd(backEnd);
+    }
+
+    @Override
+    public Connection connect() throws IOException {
+
+      final PipedInputStream clientIn = new PipedInputStream(PIPE_SIZE);
+      final PipedOutputStream serverOut = new PipedOutputStream(clientIn);
+      final PipedInputStream serverIn = new PipedInputStream(PIPE_SIZE);
+      final PipedOutputStream clientOut = new PipedOutputStream(serverIn);
+
+      final Thread server = new Thread() {
+        @Override
+        public void run() {
+          try {
+            final int type = Serializers.INTEGER.read(serverIn);
+            if (type == NetworkCode.RELAY_WAIT_READ_REQUEST) {
+              waitReads.incrementAndGet();
+            } else {
+              final ByteArrayOutputStream header = new ByteArrayOutputStream();
+              Serializers.INTEGER.write(header, type);
+              frontEnd.handleConnection(connection(
+                  new SequenceInputStream(new ByteArrayInputStream(header.toByteArray()), serverIn),
+                  serverOut));
+            }
+            serverOut.close();
+            serverIn.close();
+          } catch (IOException ex) {
+            // The client went away.
+          }
+        }
+      };
+
+      server.setDaemon(true);
+      server.start();
+
+      return connection(clientIn, clientOut);
+    }
+
+    @Override
+    public void close() { }
+  }
+
+  private static Connection connection(final InputStream in, final OutputStream out) {
+    return new Connection() {
+      @Override
+      public InputStream in() { return in; }
+      @Override
+      public OutputStream out() { return out; }
+      @Override
+      public void close() throws IOException {
+        in.close();
+        out.close();
+      }
+    };
+  }
+
+  private codeu.chat.relay.Server backEnd;
+  private OldRelaySource source;
+  private RemoteRelay relay;
+
+  @Before
+  public void doBefore() {
+    backEnd = new codeu.chat.relay.Server(8, 8);
+    assertTrue(backEnd.addTeam(TEAM, SECRET));
+    source = new OldRelaySource(backEnd);
+    relay = new RemoteRelay(source);
+  }
+
+  @Test
+  public void testWaitingReadFromOldRelay() {
+
+    write("Hello");
+
+    final Collection<Relay.Bundle> read = relay.read(TEAM, SECRET, Uuid.NULL, 8, 1000);
+
+    assertEquals(1, read.size());
+    assertEquals("Hello", read.iterator().next().message().text());
+  }
+
+  @Test
+  public void testOldRelayIsRemembered() {
+
+    write("First");
+    final List<Relay.Bundle> first = new ArrayList<>(relay.read(TEAM, SECRET, Uuid.NULL, 8, 1000));
+    assertEquals(1, first.size());
+
+    write("Second");
+    final List<Relay.Bundle> second = new ArrayList<>(relay.read(TEAM, SECRET, first.get(0).id(), 8, 1000));
+    assertEquals(1, second.size());
+    assertEquals("Second", second.get(0).message().text());
+
+    // Only the first read should have tried to wait.
+    assertEquals(1, source.waitReads.get());
+  }
+
+  private void write(String text) {
+    assertTrue(backEnd.write(TEAM,
+                             SECRET,
+                             backEnd.pack(new Uuid(4), "User", Time.now()),
+                             backEnd.pack(new Uuid(5), "Conversation", Time.now()),
+                             backEnd.pack(new Uuid(6), text, Time.now())));
+  }
+}
@@ -0,0 +1,230 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.Message;
+import codeu.chat.common.NetworkCode;
+import codeu.chat.common.User;
+import codeu.chat.util.AccessLevel;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Uuid;
+import codeu.chat.util.connections.Connection;
+
+public final class SubscriptionsTest {
+
+  private Controller controller;
+  private Subscriptions subscriptions;
+
+  private User watcher;
+  private User followed;
+  private ConversationHeader watched;
+  private ConversationHeader other;
+
+  @Before
+  public void doBefore() {
+    controller = new Controller(Uuid.NULL, new Model());
+    subscriptions = new Subscriptions();
+    controller.addListener(subscriptions);
+
+    watcher = controller.newUser("watcher");
+    followed = controller.newUser("followed");
+    watched = controller.newConversation("watched", watcher.id, "owner", new HashMap<Uuid, AccessLevel>());
+    other = controller.newConversation("other", watcher.id, "owner", new HashMap<Uuid, AccessLevel>());
+  }
+
+  @Test
+  public void testPushInterestingMessages() throws IOException {
+
+    final PipedInputStream clientIn = new PipedInputStream(1 << 16);
+    final PipedOutputStream serverOut = new PipedOutputStream(clientIn);
+    final PipedInputStream serverIn = new PipedInputStream(1 << 16);
+    final PipedOutputStream clientOut = new PipedOutputStream(serverIn);
+
+    Serializers.collection(Uuid.SERIALIZER).write(clientOut, Arrays.asList(watched.id));
+    Serializers.collection(Uuid.SERIALIZER).write(clientOut, Arrays.asList(followed.id));
+
+    subscriptions.subscribe(pipe(serverIn, serverOut));
+
+    assertEquals(NetworkCode.SUBSCRIBE_RESPONSE, (int) Serializers.INTEGER.read(clientIn));
+    assertEquals(1, subscriptions.size());
+
+    controller.newMessage(watcher.id, watched.id, "in watched conversation");
+    controller.newMessage(followed.id, other.id, "by followed user");
+    controller.newMessage(watcher.id, other.id, "not interesting");
+    controller.newMessage(followed.id, watched.id, "both");
+
+    for (final String expected : new String[] { "in watched conversation", "by followed user", "both" }) {
+      assertEquals(NetworkCode.NEW_MESSAGE_EVENT, (int) Serializers.INTEGER.read(clientIn));
+      assertEquals(expected, Message.SERIALIZER.read(clientIn).content);
+    }
+  }
+
+  @Test
+  public void testRemoveWhenClientGoesAway() throws Exception {
+
+    final PipedInputStream clientIn = new PipedInputStream(1 << 16);
+    final PipedOutputStream serverOut = new PipedOutputStream(clientIn);
+    final PipedInputStream serverIn = new PipedInputStream(1 << 16);
+    final PipedOutputStream clientOut = new PipedOutputStream(serverIn);
+
+    Serializers.collection(Uuid.SERIALIZER).write(clientOut, Arrays.asList(watched.id));
+    Serializers.collection(Uuid.SERIALIZER).write(clientOut, Collections.<Uuid>emptyList());
+
+    subscriptions.subscribe(pipe(serverIn, serverOut));
+    assertEquals(NetworkCode.SUBSCRIBE_RESPONSE, (int) Serializers.INTEGER.read(clientIn));
+
+    clientIn.close();
+
+    controller.newMessage(watcher.id, watched.id, "nobody is listening");
+
+    for (int i = 0; i < 100 && subscriptions.size() > 0; i++) {
+      Thread.sleep(10);
+    }
+
+    assertEquals(0, subscriptions.size());
+  }
+
+  @Test
+  public void testRemoveQuietClientThatGoesAway() throws Exception {
+
+    final Subscriptions quick = new Subscriptions(20);
+    controller.addListener(quick);
+
+    final PipedInputStream clientIn = new PipedInputStream(1 << 16);
+    final PipedOutputStream serverOut = new PipedOutputStream(clientIn);
+    final PipedInputStream serverIn = new PipedInputStream(1 << 16);
+    final PipedOutputStream clientOut = new PipedOutputStream(serverIn);
+
+    Serializers.collection(Uuid.SERIALIZER).write(clientOut, Arrays.asList(watched.id));
+    Serializers.collection(Uuid.SERIALIZER).write(clientOut, Collections.<Uuid>emptyList());
+
+    quick.subscribe(pipe(serverIn, serverOut));
+    assertEquals(NetworkCode.SUBSCRIBE_RESPONSE, (int) Serializers.INTEGER.read(clientIn));
+
+    // Nothing to send, so the server keeps the connection alive.
+    assertEquals(NetworkCode.KEEP_ALIVE_EVENT, (int) Serializers.INTEGER.read(clientIn));
+
+    // The client goes away and there are still no messages for it. The
+    // keep-alives notice and drop the subscription.
+    clientIn.close();
+
+    for (int i = 0; i < 100 && quick.size() > 0; i++) {
+      Thread.sleep(10);
+    }
+
+    assertEquals(0, quick.size());
+  }
+
+  @Test
+  public void testDisconnectClientThatStopsReading() throws Exception {
+
+    // A real socket, as an interrupt does not end a write that is blocked on
+    // a full TCP buffer. Small buffers so that they fill quickly.
+    try (final ServerSocket listener = new ServerSocket(0);
+         final Socket client = new Socket()) {
+
+      client.setReceiveBufferSize(4096);
+      client.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), listener.getLocalPort()));
+
+      final Socket accepted = listener.accept();
+      accepted.setSendBufferSize(4096);
+
+      Serializers.collection(Uuid.SERIALIZER).write(client.getOutputStream(), Arrays.asList(watched.id));
+      Serializers.collection(Uuid.SERIALIZER).write(client.getOutputStream(), Collections.<Uuid>emptyList());
+
+      final Set<Thread> before = subscriberThreads();
+      subscriptions.subscribe(socket(accepted));
+      assertEquals(NetworkCode.SUBSCRIBE_RESPONSE, (int) Serializers.INTEGER.read(client.getInputStream()));
+
+      final Set<Thread> started = subscriberThreads();
+      started.removeAll(before);
+      assertEquals(1, started.size());
+
+      // The client never reads again. Send enough to fill the socket buffers
+      // and then the subscriber's queue.
+      final char[] padding = new char[1024];
+      Arrays.fill(padding, 'x');
+      final String content = new String(padding);
+
+      for (int i = 0; i < 10000 && subscriptions.size() > 0; i++) {
+        controller.newMessage(watcher.id, watched.id, content);
+      }
+
+      assertEquals(0, subscriptions.size());
+
+      // The writer was blocked in a write, which only closing the connection
+      // can end.
+      for (final Thread thread : started) {
+        thread.join(5000);
+        assertFalse(thread.isAlive());
+      }
+    }
+  }
+
+  private static Set<Thread> subscriberThreads() {
+    final Set<Thread> threads = new HashSet<>();
+    for (final Thread thread : Thread.getAllStackTraces().keySet()) {
+      if (thread.getName().equals("subscriber") && thread.isAlive()) {
+        threads.add(thread);
+      }
+    }
+    return threads;
+  }
+
+  private static Connection socket(final Socket socket) {
+    return new Connection() {
+      @Override
+      public InputStream in() throws IOException { return socket.getInputStream(); }
+      @Override
+      public OutputStream out() throws IOException { return socket.getOutputStream(); }
+      @Override
+      public void close() throws IOException { socket.close(); }
+    };
+  }
+
+  private static Connection pipe(final InputStream in, final OutputStream out) {
+    return new Connection() {
+      @Override
+      public InputStream in() { return in; }
+      @Override
+      public OutputStream out() { return out; }
+      @Override
+      public void close() throws IOException {
+        in.close();
+        out.close();
+      }
+    };
+  }
+}
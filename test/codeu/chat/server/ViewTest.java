@@ -0,0 +1,230 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import codeu.chat.common.Changes;
+import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.Message;
+import codeu.chat.common.Page;
+import codeu.chat.common.User;
+import codeu.chat.util.AccessLevel;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+public final class ViewTest {
+
+  private Model model;
+  private Controller controller;
+  private View view;
+
+  private int nextId = 1000;
+
+  private User user;
+  private ConversationHeader conversation;
+
+  @Before
+  public void doBefore() {
+    model = new Model();
+    controller = new Controller(Uuid.NULL, model);
+    view = new View(model);
+
+    user = controller.newUser("user");
+    conversation = controller.newConversation(
+        "conversation", user.id, "owner", new HashMap<Uuid, AccessLevel>());
+  }
+
+  @Test
+  public void testPageThroughConversation() {
+
+    // Several messages share each time so that paging has to step through
+    // messages with the same time using the cursor.
+    final List<Uuid> sent = new ArrayList<>();
+    for (int i = 0; i < 25; i++) {
+      final Message message = controller.newMessage(
+          new Uuid(nextId++), user.id, conversation.id, "message " + i, Time.fromMs(1000 + i / 3));
+      sent.add(message.id);
+    }
+
+    final List<Uuid> read = new ArrayList<>();
+    Uuid cursor = null;
+
+    while (true) {
+      final Collection<Message> page = view.getMessagePage(conversation.id, cursor, null, null, 4);
+      for (final Message message : page) {
+        read.add(message.id);
+        cursor = message.id;
+      }
+      if (page.size() < 4) {
+        break;
+      }
+    }
+
+    assertEquals(sent, read);
+  }
+
+  @Test
+  public void testTimeRange() {
+
+    for (int i = 0; i < 10; i++) {
+      controller.newMessage(new Uuid(nextId++), user.id, conversation.id, "message " + i, Time.fromMs(1000 + i));
+    }
+
+    final Collection<Message> page = view.getMessagePage(
+        conversation.id, null, Time.fromMs(1003), Time.fromMs(1005), 100);
+
+    final List<String> contents = new ArrayList<>();
+    for (final Message message : page) {
+      contents.add(message.content);
+    }
+
+    assertEquals(3, contents.size());
+    assertEquals("message 3", contents.get(0));
+    assertEquals("message 5", contents.get(2));
+  }
+
+  @Test
+  public void testOnlyOneConversation() {
+
+    final ConversationHeader other = controller.newConversation(
+        "other", user.id, "owner", new HashMap<Uuid, AccessLevel>());
+
+    controller.newMessage(user.id, conversation.id, "mine");
+    controller.newMessage(user.id, other.id, "other");
+
+    final Collection<Message> page = view.getMessagePage(conversation.id, null, null, null, 10);
+
+    assertEquals(1, page.size());
+    assertEquals("mine", page.iterator().next().content);
+    assertTrue(view.getMessagePage(Uuid.NULL, null, null, null, 10).isEmpty());
+  }
+
+  @Test
+  public void testSearchFilters() {
+
+    final User other = controller.newUser("other");
+    final ConversationHeader elsewhere = controller.newConversation(
+        "elsewhere", user.id, "owner", new HashMap<Uuid, AccessLevel>());
+
+    final Message mine = controller.newMessage(user.id, conversation.id, "lunch at noon?");
+    final Message theirs = controller.newMessage(other.id, conversation.id, "Lunch sounds good");
+    final Message moved = controller.newMessage(user.id, elsewhere.id, "no lunch today");
+    controller.newMessage(user.id, conversation.id, "unrelated");
+
+    assertEquals(3, view.searchMessages("lunch", null, null, 10).size());
+    assertEquals(set(mine, moved), new HashSet<>(view.searchMessages("lunch", user.id, null, 10)));
+    assertEquals(set(mine, theirs), new HashSet<>(view.searchMessages("lunch", null, conversation.id, 10)));
+    assertEquals(Arrays.asList(theirs), view.searchMessages("LUNCH", other.id, conversation.id, 10));
+    assertTrue(view.searchMessages("dinner", null, null, 10).isEmpty());
+  }
+
+  @Test
+  public void testPageThroughUsers() {
+
+    // Several users share each time so that paging has to step through users
+    // with the same time using the token. The user from "doBefore" is first.
+    final List<Uuid> created = new ArrayList<>();
+    created.add(user.id);
+    for (int i = 0; i < 25; i++) {
+      created.add(controller.newUser(new Uuid(nextId++), "user " + i, Time.fromMs(1000 + i / 3)).id);
+    }
+
+    final List<Uuid> read = new ArrayList<>();
+    Uuid token = null;
+    int pages = 0;
+
+    do {
+      final Page<User> page = view.getUserPage(token, 4);
+      for (final User user : page.items) {
+        read.add(user.id);
+      }
+      token = page.next;
+      pages++;
+    } while (token != null);
+
+    assertEquals(created.size(), read.size());
+    assertEquals(new HashSet<>(created), new HashSet<>(read));
+    assertEquals(7, pages);
+
+    final Iterator<User> all = view.iterateUsers();
+    for (final Uuid id : read) {
+      assertEquals(id, all.next().id);
+    }
+    assertFalse(all.hasNext());
+  }
+
+  @Test
+  public void testConversationPage() {
+
+    final Page<ConversationHeader> page = view.getConversationPage(null, 10);
+
+    assertEquals(1, page.items.size());
+    assertEquals(conversation.id, page.items.get(0).id);
+    assertNull(page.next);
+
+    final Page<ConversationHeader> unknown = view.getConversationPage(new Uuid(nextId++), 10);
+    assertTrue(unknown.items.isEmpty());
+    assertNull(unknown.next);
+  }
+
+  @Test
+  public void testChangesSince() {
+
+    // Nothing has been seen yet, so the first call is always a reset.
+    final Changes first = view.getChangesSince(0, 0, 100);
+    assertTrue(first.reset);
+    assertTrue(first.users.isEmpty());
+
+    final User other = controller.newUser("other");
+    final Message message = controller.newMessage(user.id, conversation.id, "hello");
+    controller.likeMessage(message.id);
+    controller.likeMessage(message.id);
+    controller.changeUserAccess(other.id, AccessLevel.member, conversation.id);
+
+    final Changes changes = view.getChangesSince(first.epoch, first.seq, 100);
+    assertFalse(changes.reset);
+    assertFalse(changes.more);
+    assertEquals(Arrays.asList(other), new ArrayList<>(changes.users));
+    assertEquals(Arrays.asList(conversation), new ArrayList<>(changes.conversations));
+    assertEquals(Arrays.asList(message), new ArrayList<>(changes.messages));
+    assertEquals(2, changes.messages.iterator().next().likes);
+
+    final Changes none = view.getChangesSince(changes.epoch, changes.seq, 100);
+    assertEquals(changes.seq, none.seq);
+    assertTrue(none.users.isEmpty() && none.conversations.isEmpty() && none.messages.isEmpty());
+
+    final Changes limited = view.getChangesSince(first.epoch, first.seq, 2);
+    assertTrue(limited.more);
+    assertEquals(first.seq + 2, limited.seq);
+
+    assertTrue(view.getChangesSince(first.epoch + 1, first.seq, 100).reset);
+  }
+
+  private static Set<Message> set(Message... messages) {
+    return new HashSet<>(Arrays.asList(messages));
+  }
+}
@@ -0,0 +1,253 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.ConversationPayload;
+import codeu.chat.common.Message;
+import codeu.chat.common.User;
+import codeu.chat.util.AccessLevel;
+import codeu.chat.util.Uuid;
+
+public final class WriteAheadLogTest {
+
+  private File directory;
+
+  @Before
+  public void doBefore() throws IOException {
+    directory = File.createTempFile("wal", "test");
+    directory.delete();
+    directory.mkdir();
+  }
+
+  @After
+  public void doAfter() {
+    for (final File file : directory.listFiles()) {
+      file.delete();
+    }
+    directory.delete();
+  }
+
+  @Test
+  public void testReplayJournal() throws IOException {
+
+    final Model model = new Model();
+    final WriteAheadLog log = WriteAheadLog.open(directory, new Controller(Uuid.NULL, model), model);
+    final Controller controller = new Controller(Uuid.NULL, model, log);
+
+    final User user = controller.newUser("user");
+    final ConversationHeader conversation = controller.newConversation(
+        "conversation", user.id, "owner", new HashMap<Uuid, AccessLevel>());
+    final Message first = controller.newMessage(user.id, conversation.id, "first");
+    final Message second = controller.newMessage(user.id, conversation.id, "second");
+    controller.likeMessage(second.id);
+    controller.likeMessage(second.id);
+    controller.changeUserAccess(user.id, AccessLevel.blocked, conversation.id);
+
+    log.close();
+
+    final Model restored = reopen();
+
+    assertRestored(restored, user, conversation, first, second);
+  }
+
+  @Test
+  public void testReplaySnapshotAndJournal() throws IOException {
+
+    final Model model = new Model();
+    final WriteAheadLog log = WriteAheadLog.open(directory, new Controller(Uuid.NULL, model), model);
+    final Controller controller = new Controller(Uuid.NULL, model, log);
+
+    final User user = controller.newUser("user");
+    final ConversationHeader conversation = controller.newConversation(
+        "conversation", user.id, "owner", new HashMap<Uuid, AccessLevel>());
+    final Message first = controller.newMessage(user.id, conversation.id, "first");
+    controller.likeMessage(first.id);
+
+    log.compact(model);
+
+    final Message second = controller.newMessage(user.id, conversation.id, "second");
+    controller.likeMessage(second.id);
+    controller.likeMessage(second.id);
+    controller.changeUserAccess(user.id, AccessLevel.blocked, conversation.id);
+
+    log.close();
+
+    final Model restored = reopen();
+
+    assertRestored(restored, user, conversation, first, second);
+    assertEquals(1, restored.messageById().first(first.id).likes);
+  }
+
+  @Test
+  public void testLoadSnapshot() throws IOException {
+
+    final Model model = new Model();
+    final WriteAheadLog log = WriteAheadLog.open(directory, new Controller(Uuid.NULL, model), model);
+    final Controller controller = new Controller(Uuid.NULL, model, log);
+
+    final User user = controller.newUser("user");
+    final ConversationHeader full = controller.newConversation(
+        "full", user.id, "owner", new HashMap<Uuid, AccessLevel>());
+    final ConversationHeader empty = controller.newConversation(
+        "empty", user.id, "owner", new HashMap<Uuid, AccessLevel>());
+
+    final Message[] messages = new Message[100];
+    for (int i = 0; i < messages.length; i++) {
+      messages[i] = controller.newMessage(user.id, full.id, "message " + i);
+    }
+    controller.likeMessage(messages[50].id);
+
+    log.compact(model);
+    log.close();
+
+    // Only the snapshot should be needed.
+    for (final File file : directory.listFiles()) {
+      if (file.getName().startsWith("journal-")) {
+        file.delete();
+      }
+    }
+
+    final Model restored = reopen();
+
+    final ConversationPayload payload = restored.conversationPayloadById().first(full.id);
+    assertEquals(messages[0].id, payload.firstMessage);
+    assertEquals(messages[messages.length - 1].id, payload.lastMessage);
+
+    Message current = restored.messageById().first(payload.firstMessage);
+    for (int i = 0; i < messages.length; i++) {
+      assertEquals(messages[i].id, current.id);
+      assertEquals(messages[i].content, current.content);
+      assertEquals(full.id, current.convoId);
+      assertEquals(i == 50 ? 1 : 0, current.likes);
+      assertEquals(current, restored.messageByTerm().search(current.content, null, 1).get(0));
+      current = restored.messageById().first(current.next);
+    }
+    assertNull(current);
+
+    final ConversationPayload emptyPayload = restored.conversationPayloadById().first(empty.id);
+    assertEquals(Uuid.NULL, emptyPayload.firstMessage);
+    assertEquals(Uuid.NULL, emptyPayload.lastMessage);
+  }
+
+  @Test
+  public void testIgnoreTornRecord() throws IOException {
+
+    final Model model = new Model();
+    final WriteAheadLog log = WriteAheadLog.open(directory, new Controller(Uuid.NULL, model), model);
+    final Controller controller = new Controller(Uuid.NULL, model, log);
+
+    final User user = controller.newUser("user");
+    final User lost = controller.newUser("lost");
+
+    log.close();
+
+    // Cut the last record short as if the server died while writing it.
+    for (final File file : directory.listFiles()) {
+      if (file.getName().startsWith("journal-") && file.length() > 0) {
+        try (final RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+          raf.setLength(raf.length() - 3);
+        }
+      }
+    }
+
+    final Model restored = reopen();
+
+    assertNotNull(restored.userById().first(user.id));
+    assertNull(restored.userById().first(lost.id));
+  }
+
+  @Test
+  public void testDamagedSnapshotFallsBack() throws IOException {
+
+    final Model model = new Model();
+    final WriteAheadLog log = WriteAheadLog.open(directory, new Controller(Uuid.NULL, model), model);
+    final Controller controller = new Controller(Uuid.NULL, model, log);
+
+    final User user = controller.newUser("user");
+    final ConversationHeader conversation = controller.newConversation(
+        "conversation", user.id, "owner", new HashMap<Uuid, AccessLevel>());
+
+    log.compact(model);
+
+    final Message first = controller.newMessage(user.id, conversation.id, "first");
+
+    log.compact(model);
+
+    final Message second = controller.newMessage(user.id, conversation.id, "second");
+    controller.likeMessage(second.id);
+    controller.likeMessage(second.id);
+    controller.changeUserAccess(user.id, AccessLevel.blocked, conversation.id);
+
+    log.close();
+
+    // Damage the newest snapshot. The one before it and the journals since
+    // then are still there to rebuild from.
+    File newest = null;
+    for (final File file : directory.listFiles()) {
+      if (file.getName().endsWith(".snap") &&
+          (newest == null || file.getName().compareTo(newest.getName()) > 0)) {
+        newest = file;
+      }
+    }
+
+    try (final RandomAccessFile raf = new RandomAccessFile(newest, "rw")) {
+      raf.seek(raf.length() / 2);
+      final int value = raf.read();
+      raf.seek(raf.length() / 2);
+      raf.write(value ^ 0xFF);
+    }
+
+    final Model restored = reopen();
+
+    assertRestored(restored, user, conversation, first, second);
+  }
+
+  private Model reopen() throws IOException {
+    final Model model = new Model();
+    WriteAheadLog.open(directory, new Controller(Uuid.NULL, model), model).close();
+    return model;
+  }
+
+  private static void assertRestored(Model restored,
+                                     User user,
+                                     ConversationHeader conversation,
+                                     Message first,
+                                     Message second) {
+
+    assertNotNull(restored.userById().first(user.id));
+    assertNotNull(restored.conversationById().first(conversation.id));
+
+    final ConversationPayload payload = restored.conversationPayloadById().first(conversation.id);
+    assertEquals(first.id, payload.firstMessage);
+    assertEquals(second.id, payload.lastMessage);
+    assertEquals(second.id, restored.messageById().first(first.id).next);
+    assertEquals(2, restored.messageById().first(second.id).likes);
+
+    assertEquals(
+        AccessLevel.blocked,
+        restored.conversationById().first(conversation.id).usersInConvo.get(user.id));
+  }
+}
@@ -0,0 +1,131 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.Message;
+
+public final class BufferStreamTest {
+
+  private static final String TEXT = "hello \u00e9\u4e16\u754c \ud83d\ude00";
+
+  @Test
+  public void testSameBytesAsStreams() throws IOException {
+
+    final Message message = message();
+
+    final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    Message.SERIALIZER.write(stream, message);
+
+    final BufferOutputStream buffer = new BufferOutputStream(16);
+    Message.SERIALIZER.write(buffer, message);
+
+    assertArrayEquals(stream.toByteArray(), buffer.toByteArray());
+  }
+
+  @Test
+  public void testMessageRoundTrip() throws IOException {
+
+    final Message message = message();
+
+    final BufferOutputStream out = new BufferOutputStream();
+    Message.SERIALIZER.write(out, message);
+
+    final Message fromBuffer = Message.SERIALIZER.read(BufferInputStream.wrap(out.toByteArray()));
+    final Message fromStream = Message.SERIALIZER.read(new ByteArrayInputStream(out.toByteArray()));
+
+    for (final Message read : new Message[] { fromBuffer, fromStream }) {
+      assertEquals(message.id, read.id);
+      assertEquals(message.next, read.next);
+      assertEquals(message.creation.inMs(), read.creation.inMs());
+      assertEquals(message.author, read.author);
+      assertEquals(message.content, read.content);
+      assertEquals(message.convoId, read.convoId);
+      assertEquals(message.likes, read.likes);
+    }
+  }
+
+  @Test
+  public void testConversationRoundTrip() throws IOException {
+
+    final Map<Uuid, AccessLevel> access = new HashMap<>();
+    access.put(Uuid.parse("100.3"), AccessLevel.blocked);
+
+    final ConversationHeader conversation = new ConversationHeader(
+        Uuid.parse("100.1"), Uuid.parse("100.2"), Time.fromMs(1234), TEXT, "member", access);
+
+    final BufferOutputStream out = new BufferOutputStream();
+    ConversationHeader.SERIALIZER.write(out, conversation);
+
+    final ConversationHeader read = ConversationHeader.SERIALIZER.read(BufferInputStream.wrap(out.toByteArray()));
+
+    assertEquals(conversation.id, read.id);
+    assertEquals(conversation.owner, read.owner);
+    assertEquals(conversation.title, read.title);
+    assertEquals(AccessLevel.member, read.defaultAccessLevel);
+    assertEquals(access, read.usersInConvo);
+  }
+
+  @Test
+  public void testGrowAndReset() throws IOException {
+
+    final BufferOutputStream out = new BufferOutputStream(16);
+    final StringBuilder big = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      big.append(TEXT);
+    }
+
+    Serializers.STRING.write(out, big.toString());
+    assertEquals(big.toString(), Serializers.STRING.read(BufferInputStream.wrap(out.toByteArray())));
+
+    out.reset();
+    assertEquals(0, out.size());
+
+    Serializers.INTEGER.write(out, 7);
+    assertEquals(4, out.size());
+  }
+
+  @Test(expected = EOFException.class)
+  public void testShortInput() throws IOException {
+    final BufferOutputStream out = new BufferOutputStream();
+    Serializers.STRING.write(out, TEXT);
+    final byte[] bytes = out.toByteArray();
+    final byte[] cut = new byte[bytes.length - 1];
+    System.arraycopy(bytes, 0, cut, 0, cut.length);
+    Serializers.STRING.read(BufferInputStream.wrap(cut));
+  }
+
+  private static Message message() throws IOException {
+    return new Message(
+        Uuid.parse("100.101.1"),
+        Uuid.parse("100.101.2"),
+        Uuid.NULL,
+        Time.fromMs(1000),
+        Uuid.parse("100.101.3"),
+        TEXT,
+        Uuid.parse("100.101.4"),
+        5);
+  }
+}
@@ -0,0 +1,87 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public final class HistogramTest {
+
+  @Test
+  public void testBucketBounds() {
+    // Every value must land in a bucket whose upper bound is at least the
+    // value and within a quarter of it.
+    for (long value = 0; value < 100000; value++) {
+      final long upper = Histogram.upper(Histogram.bucket(value));
+      assertTrue(value + " -> " + upper, upper >= value);
+      assertTrue(value + " -> " + upper, upper <= value + value / 4 + 1);
+    }
+    assertEquals(Long.MAX_VALUE, Histogram.upper(Histogram.bucket(Long.MAX_VALUE)));
+  }
+
+  @Test
+  public void testEmpty() {
+    final Histogram histogram = new Histogram();
+    assertEquals(0, histogram.count());
+    assertEquals(0, histogram.mean());
+    assertEquals(0, histogram.percentile(0.99));
+  }
+
+  @Test
+  public void testPercentiles() {
+
+    final Histogram histogram = new Histogram();
+
+    for (int i = 1; i <= 1000; i++) {
+      histogram.record(i);
+    }
+
+    assertEquals(1000, histogram.count());
+    assertEquals(500, histogram.mean());
+    assertEquals(1000, histogram.max());
+
+    final long p50 = histogram.percentile(0.5);
+    final long p99 = histogram.percentile(0.99);
+
+    assertTrue(Long.toString(p50), p50 >= 500 && p50 <= 625);
+    assertTrue(Long.toString(p99), p99 >= 990 && p99 <= 1000);
+  }
+
+  @Test
+  public void testConcurrentRecord() throws InterruptedException {
+
+    final Histogram histogram = new Histogram();
+    final Thread[] threads = new Thread[4];
+
+    for (int t = 0; t < threads.length; t++) {
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          for (int i = 0; i < 10000; i++) {
+            histogram.record(i);
+          }
+        }
+      };
+      threads[t].start();
+    }
+
+    for (final Thread thread : threads) {
+      thread.join();
+    }
+
+    assertEquals(40000, histogram.count());
+    assertEquals(9999, histogram.max());
+  }
+}
@@ -0,0 +1,116 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.io.File;
+import java.io.IOException;
+
+// LOGGER BENCHMARK
+//
+// Measures how long a log call takes for the caller, both for a line that is
+// written and for one below the current level. "JulLog" is a copy of the old
+// logger, which looked up the caller's class and method and formatted every
+// message before handing it to java.util.logging.
+//
+// This is not part of the test suite. Run it directly:
+//
+//   java codeu.chat.util.LoggerBenchmark
+public final class LoggerBenchmark {
+
+  private static final int CALLS = 200000;
+
+  private static final class JulLog implements Logger.Log {
+
+    private final java.util.logging.Logger log;
+
+    JulLog(File file) throws IOException {
+      log = java.util.logging.Logger.getLogger("bench.jul");
+      log.setUseParentHandlers(false);
+      log.setLevel(java.util.logging.Level.INFO);
+      final java.util.logging.Handler handler = new java.util.logging.FileHandler(file.getPath(), true);
+      handler.setFormatter(new java.util.logging.SimpleFormatter());
+      log.addHandler(handler);
+    }
+
+    @Override
+    public void verbose(String message, Object... params) {
+      log.logp(java.util.logging.Level.FINE,
+          Thread.currentThread().getStackTrace()[2].getClassName(),
+          Thread.currentThread().getStackTrace()[2].getMethodName(),
+          String.format(message, params));
+    }
+
+    @Override
+    public void info(String message, Object... params) {
+      log.logp(java.util.logging.Level.INFO,
+          Thread.currentThread().getStackTrace()[2].getClassName(),
+          Thread.currentThread().getStackTrace()[2].getMethodName(),
+          String.format(message, params));
+    }
+
+    @Override
+    public void warning(String message, Object... params) { }
+
+    @Override
+    public void error(String message, Object... params) { }
+
+    @Override
+    public void error(Throwable error, String message, Object... params) { }
+  }
+
+  public static void main(String[] args) throws IOException {
+
+    final File jul = File.createTempFile("jul", ".log");
+    final File async = File.createTempFile("async", ".log");
+    jul.deleteOnExit();
+    async.deleteOnExit();
+
+    Logger.enableFileOutput(async.getPath());
+    Logger.setOverflowPolicy(Logger.OverflowPolicy.BLOCK);
+
+    final Logger.Log oldLog = new JulLog(jul);
+    final Logger.Log newLog = Logger.newLog(LoggerBenchmark.class);
+
+    System.out.format("%-10s %15s %15s%n", "logger", "info (ns)", "verbose (ns)");
+
+    for (int round = 0; round < 2; round++) {
+      System.out.format("%-10s %15d %15d%n", "old", time(oldLog, false), time(oldLog, true));
+
+      final long start = System.nanoTime();
+      final long info = time(newLog, false);
+      final long verbose = time(newLog, true);
+      Logger.flush();
+
+      System.out.format("%-10s %15d %15d   (%d ms until written)%n",
+                        "new",
+                        info,
+                        verbose,
+                        (System.nanoTime() - start) / 1000000);
+    }
+  }
+
+  private static long time(Logger.Log log, boolean verbose) {
+    final Uuid id = new Uuid(new Uuid(1), 2);
+    final long start = System.nanoTime();
+    for (int i = 0; i < CALLS; i++) {
+      if (verbose) {
+        log.verbose("Message added id=%s count=%d", id, i);
+      } else {
+        log.info("Message added id=%s count=%d", id, i);
+      }
+    }
+    return (System.nanoTime() - start) / CALLS;
+  }
+}
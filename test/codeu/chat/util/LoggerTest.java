@@ -0,0 +1,92 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.io.StringWriter;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public final class LoggerTest {
+
+  private static final Logger.Log LOG = Logger.newLog(LoggerTest.class);
+
+  private StringWriter output;
+
+  @Before
+  public void doBefore() {
+    output = new StringWriter();
+    Logger.addOutput(output);
+  }
+
+  @After
+  public void doAfter() {
+    Logger.removeOutput(output);
+    Logger.setLevel(Logger.Level.INFO);
+  }
+
+  @Test
+  public void testFormat() {
+
+    LOG.info("count=%d name=%s", 3, "three");
+    Logger.flush();
+
+    final String text = output.toString();
+    assertTrue(text, text.contains(" INFO ["));
+    assertTrue(text, text.contains("codeu.chat.util.LoggerTest: count=3 name=three"));
+  }
+
+  @Test
+  public void testLevel() {
+
+    LOG.verbose("hidden verbose");
+    LOG.info("shown info");
+
+    Logger.setLevel(Logger.Level.WARNING);
+
+    LOG.info("hidden info");
+    LOG.warning("shown warning");
+
+    Logger.flush();
+
+    final String text = output.toString();
+    assertFalse(text, text.contains("hidden"));
+    assertTrue(text, text.contains("shown info"));
+    assertTrue(text, text.contains("shown warning"));
+  }
+
+  @Test
+  public void testError() {
+
+    LOG.error(new IllegalStateException("broken"), "failed %s", "badly");
+    Logger.flush();
+
+    final String text = output.toString();
+    assertTrue(text, text.contains("ERROR"));
+    assertTrue(text, text.contains("failed badly"));
+    assertTrue(text, text.contains("java.lang.IllegalStateException: broken"));
+  }
+
+  @Test
+  public void testBadFormatKeepsRecord() {
+
+    LOG.info("missing %d");
+    Logger.flush();
+
+    assertTrue(output.toString().contains("missing %d"));
+  }
+}
@@ -0,0 +1,112 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.Message;
+
+// SERIALIZER BENCHMARK
+//
+// Compares writing and reading Message and ConversationHeader through plain
+// byte array streams against BufferOutputStream / BufferInputStream. Plain
+// in-memory streams are the best case for the old path - on a socket each
+// of its single byte writes is a system call.
+//
+// This is not part of the test suite. Run it directly:
+//
+//   java codeu.chat.util.SerializerBenchmark
+public final class SerializerBenchmark {
+
+  private static final int OPERATIONS = 200000;
+  private static final int ROUNDS = 5;
+
+  public static void main(String[] args) throws IOException {
+
+    final Message message = new Message(
+        Uuid.parse("100.101.1"),
+        Uuid.parse("100.101.2"),
+        Uuid.NULL,
+        Time.now(),
+        Uuid.parse("100.101.3"),
+        "The quick brown fox jumps over the lazy dog, again and again and again.",
+        Uuid.parse("100.101.4"),
+        3);
+
+    final Map<Uuid, AccessLevel> access = new HashMap<>();
+    for (int i = 0; i < 8; i++) {
+      access.put(Uuid.parse("100.101." + i), AccessLevel.member);
+    }
+    final ConversationHeader conversation = new ConversationHeader(
+        Uuid.parse("100.101.9"), Uuid.parse("100.101.3"), Time.now(), "benchmark", "member", access);
+
+    for (int round = 0; round < ROUNDS; round++) {
+      final boolean print = round == ROUNDS - 1;
+      run(print, "Message", Message.SERIALIZER, message);
+      run(print, "ConversationHeader", ConversationHeader.SERIALIZER, conversation);
+    }
+  }
+
+  private static <T> void run(boolean print, String name, Serializer<T> serializer, T value)
+      throws IOException {
+
+    long sink = 0;
+
+    long start = System.nanoTime();
+    for (int i = 0; i < OPERATIONS; i++) {
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      serializer.write(out, value);
+      sink += out.size();
+    }
+    final double streamWrite = perOperation(start);
+
+    start = System.nanoTime();
+    final BufferOutputStream buffer = new BufferOutputStream();
+    for (int i = 0; i < OPERATIONS; i++) {
+      buffer.reset();
+      serializer.write(buffer, value);
+      sink += buffer.size();
+    }
+    final double bufferWrite = perOperation(start);
+
+    final byte[] bytes = buffer.toByteArray();
+
+    start = System.nanoTime();
+    for (int i = 0; i < OPERATIONS; i++) {
+      sink += serializer.read(new ByteArrayInputStream(bytes)).hashCode();
+    }
+    final double streamRead = perOperation(start);
+
+    start = System.nanoTime();
+    for (int i = 0; i < OPERATIONS; i++) {
+      sink += serializer.read(BufferInputStream.wrap(bytes)).hashCode();
+    }
+    final double bufferRead = perOperation(start);
+
+    if (print) {
+      System.out.format("%-20s write: stream %7.1f ns, buffer %7.1f ns   read: stream %7.1f ns, buffer %7.1f ns   (%d)%n",
+                        name, streamWrite, bufferWrite, streamRead, bufferRead, sink % 10);
+    }
+  }
+
+  private static double perOperation(long start) {
+    return (System.nanoTime() - start) / (double) OPERATIONS;
+  }
+}
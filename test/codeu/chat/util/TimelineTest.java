@@ -0,0 +1,142 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public final class TimelineTest {
+
+  @Test
+  public void testRunsInTimeOrder() throws InterruptedException {
+
+    final Timeline timeline = new Timeline();
+    final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+    final CountDownLatch done = new CountDownLatch(3);
+
+    final long now = System.currentTimeMillis();
+
+    timeline.scheduleAt(now + 60, record(order, 3, done));
+    timeline.scheduleAt(now + 20, record(order, 1, done));
+    timeline.scheduleAt(now + 40, record(order, 2, done));
+
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertEquals(3, order.size());
+    assertEquals(1, (int) order.get(0));
+    assertEquals(2, (int) order.get(1));
+    assertEquals(3, (int) order.get(2));
+
+    timeline.stop();
+    timeline.join();
+  }
+
+  @Test
+  public void testSameTimeRunsInAddedOrder() throws InterruptedException {
+
+    final Timeline timeline = new Timeline();
+    final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+    final CountDownLatch done = new CountDownLatch(100);
+
+    final long at = System.currentTimeMillis() + 20;
+    for (int i = 0; i < 100; i++) {
+      timeline.scheduleAt(at, record(order, i, done));
+    }
+
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    for (int i = 0; i < 100; i++) {
+      assertEquals(i, (int) order.get(i));
+    }
+
+    timeline.stop();
+    timeline.join();
+  }
+
+  @Test
+  public void testNotEarly() throws InterruptedException {
+
+    final Timeline timeline = new Timeline();
+    final long[] ran = new long[1];
+    final CountDownLatch done = new CountDownLatch(1);
+
+    final long start = System.currentTimeMillis();
+
+    timeline.scheduleIn(100, new Runnable() {
+      @Override
+      public void run() {
+        ran[0] = System.currentTimeMillis();
+        done.countDown();
+      }
+    });
+
+    // An event added later but due sooner must not hold up the first one.
+    timeline.scheduleIn(10, new Runnable() {
+      @Override
+      public void run() { }
+    });
+
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertTrue(ran[0] - start >= 100);
+
+    timeline.stop();
+    timeline.join();
+  }
+
+  @Test
+  public void testPoolRunsTogether() throws InterruptedException {
+
+    // Each event waits for all the others to start, which can only happen if
+    // they run on different threads.
+    final Timeline timeline = new Timeline(4);
+    final CountDownLatch started = new CountDownLatch(4);
+    final CountDownLatch done = new CountDownLatch(4);
+
+    for (int i = 0; i < 4; i++) {
+      timeline.scheduleNow(new Runnable() {
+        @Override
+        public void run() {
+          started.countDown();
+          try {
+            if (started.await(5, TimeUnit.SECONDS)) {
+              done.countDown();
+            }
+          } catch (InterruptedException ex) {
+            // Let the test fail.
+          }
+        }
+      });
+    }
+
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+
+    timeline.stop();
+    timeline.join();
+  }
+
+  private static Runnable record(final List<Integer> order, final int value, final CountDownLatch done) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        order.add(value);
+        done.countDown();
+      }
+    };
+  }
+}
@@ -0,0 +1,159 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+
+// UUID BENCHMARK
+//
+// Compares hashing, equality, ordering and hash map lookups of Uuid against
+// the old Uuid which walked the whole chain every time it was hashed. Ids
+// are made the way the server makes them: a shared "100.101" root and a
+// random last link.
+//
+// This is not part of the test suite. Run it directly:
+//
+//   java codeu.chat.util.UuidBenchmark
+public final class UuidBenchmark {
+
+  private static final int IDS = 100000;
+  private static final int ROUNDS = 5;
+
+  // The old implementation, kept here only to compare against.
+  private static final class ChainUuid {
+
+    final ChainUuid root;
+    final int id;
+
+    ChainUuid(ChainUuid root, int id) {
+      this.root = root;
+      this.id = id;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      return other instanceof ChainUuid && equals(this, (ChainUuid) other);
+    }
+
+    static boolean equals(ChainUuid a, ChainUuid b) {
+      if (a == b) { return true; }
+      if (a == null || b == null) { return false; }
+      return a.id == b.id && equals(a.root, b.root);
+    }
+
+    @Override
+    public int hashCode() {
+      int hash = 0;
+      for (ChainUuid current = this; current != null; current = current.root) {
+        hash ^= Objects.hash(current.id);
+      }
+      return hash;
+    }
+
+    static int compare(ChainUuid a, ChainUuid b) {
+      if (a == b) { return 0; }
+      if (a == null) { return -1; }
+      if (b == null) { return 1; }
+      final int order = Integer.compare(a.id, b.id);
+      return order == 0 ? compare(a.root, b.root) : order;
+    }
+  }
+
+  public static void main(String[] args) {
+
+    final Random random = new Random(0);
+
+    final Uuid root = new Uuid(new Uuid(100), 101);
+    final ChainUuid chainRoot = new ChainUuid(new ChainUuid(null, 100), 101);
+
+    // Two copies of every id, made separately, so equal ids are never the
+    // same instance (as with ids read off the network).
+    final Uuid[] ids = new Uuid[IDS];
+    final Uuid[] copies = new Uuid[IDS];
+    final ChainUuid[] chainIds = new ChainUuid[IDS];
+    final ChainUuid[] chainCopies = new ChainUuid[IDS];
+
+    for (int i = 0; i < IDS; i++) {
+      final int link = random.nextInt();
+      ids[i] = new Uuid(root, link);
+      copies[i] = new Uuid(new Uuid(new Uuid(100), 101), link);
+      chainIds[i] = new ChainUuid(chainRoot, link);
+      chainCopies[i] = new ChainUuid(new ChainUuid(new ChainUuid(null, 100), 101), link);
+    }
+
+    final Map<Uuid, Uuid> map = new HashMap<>();
+    final Map<ChainUuid, ChainUuid> chainMap = new HashMap<>();
+    for (int i = 0; i < IDS; i++) {
+      map.put(ids[i], ids[i]);
+      chainMap.put(chainIds[i], chainIds[i]);
+    }
+
+    long sink = 0;
+
+    for (int round = 0; round < ROUNDS; round++) {
+
+      final boolean last = round == ROUNDS - 1;
+
+      long start = System.nanoTime();
+      for (int i = 0; i < IDS; i++) { sink += copies[i].hashCode(); }
+      report(last, "hash", "Uuid", start);
+
+      start = System.nanoTime();
+      for (int i = 0; i < IDS; i++) { sink += chainCopies[i].hashCode(); }
+      report(last, "hash", "old", start);
+
+      start = System.nanoTime();
+      for (int i = 0; i < IDS; i++) { sink += ids[i].equals(copies[i]) ? 1 : 0; }
+      for (int i = 1; i < IDS; i++) { sink += ids[i].equals(copies[i - 1]) ? 1 : 0; }
+      report(last, "equals", "Uuid", start);
+
+      start = System.nanoTime();
+      for (int i = 0; i < IDS; i++) { sink += chainIds[i].equals(chainCopies[i]) ? 1 : 0; }
+      for (int i = 1; i < IDS; i++) { sink += chainIds[i].equals(chainCopies[i - 1]) ? 1 : 0; }
+      report(last, "equals", "old", start);
+
+      start = System.nanoTime();
+      for (int i = 1; i < IDS; i++) { sink += ids[i].compareTo(copies[i - 1]); }
+      report(last, "compare", "Uuid", start);
+
+      start = System.nanoTime();
+      for (int i = 1; i < IDS; i++) { sink += ChainUuid.compare(chainIds[i], chainCopies[i - 1]); }
+      report(last, "compare", "old", start);
+
+      start = System.nanoTime();
+      for (int i = 0; i < IDS; i++) { sink += map.get(copies[i]) == null ? 0 : 1; }
+      report(last, "map get", "Uuid", start);
+
+      start = System.nanoTime();
+      for (int i = 0; i < IDS; i++) { sink += chainMap.get(chainCopies[i]) == null ? 0 : 1; }
+      report(last, "map get", "old", start);
+    }
+
+    // Print the sink so the work above cannot be optimized away.
+    System.out.println("(" + sink + ")");
+  }
+
+  private static void report(boolean print, String operation, String type, long start) {
+    if (print) {
+      System.out.format("%-10s %-6s %8.1f ns/op%n",
+                        operation,
+                        type,
+                        (System.nanoTime() - start) / (double) IDS);
+    }
+  }
+}
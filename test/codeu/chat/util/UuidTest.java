@@ -149,4 +149,42 @@ public final class UuidTest {
 
     assertEquals(start, end);
   }
+
+  @Test
+  public void testHashMatchesForEqualIds() throws IOException {
+
+    final Uuid u1 = new Uuid(new Uuid(new Uuid(100), 101), 7);
+    final Uuid u2 = Uuid.parse("100.101.7");
+
+    assertEquals(u1.hashCode(), u2.hashCode());
+    assertEquals(u1, u2);
+    assertFalse(u1.equals(Uuid.parse("100.102.7")));
+    assertFalse(u1.equals(Uuid.parse("101.7")));
+  }
+
+  @Test
+  public void testSerializedIdsEqual() throws IOException {
+
+    final Uuid start = Uuid.parse("100.101.7");
+
+    final java.io.ByteArrayOutputStream out = new java.io.ByteArrayOutputStream();
+    Uuid.SERIALIZER.write(out, start);
+    final Uuid end = Uuid.SERIALIZER.read(new java.io.ByteArrayInputStream(out.toByteArray()));
+
+    assertEquals(start, end);
+    assertEquals(start.hashCode(), end.hashCode());
+  }
+
+  @Test
+  public void testCompare() throws IOException {
+
+    final Uuid a = Uuid.parse("100.1");
+    final Uuid b = Uuid.parse("100.2");
+    final Uuid c = Uuid.parse("101.2");
+
+    assertTrue(a.compareTo(b) < 0);
+    assertTrue(b.compareTo(a) > 0);
+    assertTrue(b.compareTo(c) < 0);
+    assertEquals(0, a.compareTo(Uuid.parse("100.1")));
+  }
 }
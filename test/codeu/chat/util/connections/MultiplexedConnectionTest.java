@@ -0,0 +1,157 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.connections;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import codeu.chat.common.NetworkCode;
+import codeu.chat.util.Serializers;
+
+public final class MultiplexedConnectionTest {
+
+  private ConnectionSource client;
+  private Thread server;
+
+  // Number of requests the fake server should hold before answering any of
+  // them. Used to prove that requests are in flight at the same time.
+  private int batch = 1;
+
+  @Before
+  public void doBefore() throws IOException {
+
+    final PipedInputStream clientIn = new PipedInputStream(1 << 16);
+    final PipedOutputStream serverOut = new PipedOutputStream(clientIn);
+    final PipedInputStream serverIn = new PipedInputStream(1 << 16);
+    final PipedOutputStream clientOut = new PipedOutputStream(serverIn);
+
+    final Connection clientSide = pipe(clientIn, clientOut);
+    final Connection serverSide = pipe(serverIn, serverOut);
+
+    client = new MultiplexedClientConnectionSource(new ConnectionSource() {
+      @Override
+      public Connection connect() { return clientSide; }
+      @Override
+      public void close() { }
+    });
+
+    // The fake server doubles every integer it is sent. Responses are sent in
+    // the reverse order of the requests so that the client has to match them
+    // by request id.
+    server = new Thread() {
+      @Override
+      public void run() {
+        try {
+          assertEquals(NetworkCode.MULTIPLEX_REQUEST, (int) Serializers.INTEGER.read(serverSide.in()));
+          Serializers.INTEGER.write(serverSide.out(), NetworkCode.MULTIPLEX_RESPONSE);
+
+          final ConnectionSource requests = ServerConnectionSource.multiplexed(serverSide);
+
+          while (true) {
+            final ArrayList<Connection> held = new ArrayList<>();
+            for (int i = 0; i < batch; i++) {
+              held.add(requests.connect());
+            }
+            for (int i = held.size() - 1; i >= 0; i--) {
+              final Connection request = held.get(i);
+              Serializers.INTEGER.write(request.out(), 2 * Serializers.INTEGER.read(request.in()));
+              request.close();
+            }
+          }
+        } catch (IOException ex) {
+          // The pipe was closed - the test is over.
+        }
+      }
+    };
+
+    server.setDaemon(true);
+  }
+
+  @After
+  public void doAfter() throws IOException {
+    client.close();
+  }
+
+  @Test
+  public void testSequentialRequests() throws IOException {
+
+    server.start();
+
+    for (int i = 0; i < 16; i++) {
+      try (final Connection connection = client.connect()) {
+        Serializers.INTEGER.write(connection.out(), i);
+        assertEquals(2 * i, (int) Serializers.INTEGER.read(connection.in()));
+      }
+    }
+  }
+
+  @Test
+  public void testConcurrentRequests() throws Exception {
+
+    final int threads = 8;
+
+    batch = threads;
+    server.start();
+
+    final CountDownLatch done = new CountDownLatch(threads);
+    final Collection<Throwable> errors = new ArrayList<>();
+
+    for (int t = 0; t < threads; t++) {
+      final int value = t;
+      new Thread() {
+        @Override
+        public void run() {
+          try (final Connection connection = client.connect()) {
+            Serializers.INTEGER.write(connection.out(), value);
+            assertEquals(2 * value, (int) Serializers.INTEGER.read(connection.in()));
+          } catch (Throwable ex) {
+            synchronized (errors) {
+              errors.add(ex);
+            }
+          }
+          done.countDown();
+        }
+      }.start();
+    }
+
+    done.await();
+    assertTrue(errors.toString(), errors.isEmpty());
+  }
+
+  private static Connection pipe(final InputStream in, final OutputStream out) {
+    return new Connection() {
+      @Override
+      public InputStream in() { return in; }
+      @Override
+      public OutputStream out() { return out; }
+      @Override
+      public void close() throws IOException {
+        in.close();
+        out.close();
+      }
+    };
+  }
+}
@@ -0,0 +1,278 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.connections;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import codeu.chat.common.NetworkCode;
+import codeu.chat.util.Serializers;
+
+public final class SelectorConnectionSourceTest {
+
+  private SelectorConnectionSource source;
+  private ConnectionSource client;
+
+  @Before
+  public void doBefore() throws IOException {
+
+    source = SelectorConnectionSource.forPort(0);
+    client = ClientConnectionSource.multiplexed("localhost", source.port());
+
+    // The fake server reads two integers from every connection and answers
+    // with their sum. Each connection gets its own thread so that a blocking
+    // connection can not hold up the others.
+    final Thread server = new Thread() {
+      @Override
+      public void run() {
+        try {
+          while (true) {
+            final Connection connection = source.connect();
+            new Thread() {
+              @Override
+              public void run() {
+                try {
+                  final int a = Serializers.INTEGER.read(connection.in());
+                  final int b = Serializers.INTEGER.read(connection.in());
+                  Serializers.INTEGER.write(connection.out(), a + b);
+                  connection.close();
+                } catch (IOException ex) {
+                  // The client went away.
+                }
+              }
+            }.start();
+          }
+        } catch (IOException ex) {
+          // The source was closed - the test is over.
+        }
+      }
+    };
+
+    server.setDaemon(true);
+    server.start();
+  }
+
+  @After
+  public void doAfter() throws IOException {
+    client.close();
+    source.close();
+  }
+
+  @Test
+  public void testMultiplexedRequests() throws IOException {
+    for (int i = 0; i < 16; i++) {
+      assertEquals(3 * i, add(i, 2 * i));
+    }
+  }
+
+  @Test
+  public void testConcurrentRequests() throws Exception {
+
+    final int threads = 8;
+    final CountDownLatch done = new CountDownLatch(threads);
+    final Collection<Throwable> errors = new ArrayList<>();
+
+    for (int t = 0; t < threads; t++) {
+      final int value = t;
+      new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int i = 0; i < 32; i++) {
+              assertEquals(value + i, add(value, i));
+            }
+          } catch (Throwable ex) {
+            synchronized (errors) {
+              errors.add(ex);
+            }
+          }
+          done.countDown();
+        }
+      }.start();
+    }
+
+    done.await();
+    assertTrue(errors.toString(), errors.isEmpty());
+  }
+
+  @Test
+  public void testUnframedConnectionIsHandedOff() throws IOException {
+
+    // Not a multiplex request, so the first integer is read as the request
+    // type and the connection is given out as it is.
+    try (final Socket socket = new Socket("localhost", source.port())) {
+      Serializers.INTEGER.write(socket.getOutputStream(), 5);
+      Serializers.INTEGER.write(socket.getOutputStream(), 7);
+      assertEquals(12, (int) Serializers.INTEGER.read(socket.getInputStream()));
+    }
+  }
+
+  @Test
+  public void testSlowClientDoesNotBlockOthers() throws IOException {
+
+    try (final Socket socket = new Socket("localhost", source.port())) {
+
+      final OutputStream out = socket.getOutputStream();
+      final InputStream in = socket.getInputStream();
+
+      Serializers.INTEGER.write(out, NetworkCode.MULTIPLEX_REQUEST);
+      assertEquals(NetworkCode.MULTIPLEX_RESPONSE, (int) Serializers.INTEGER.read(in));
+
+      // Send the request id, the length and half of the payload.
+      Serializers.INTEGER.write(out, 9);
+      Serializers.INTEGER.write(out, 8);
+      Serializers.INTEGER.write(out, 20);
+      out.flush();
+
+      // The half sent frame must not stop anyone else.
+      for (int i = 0; i < 16; i++) {
+        assertEquals(2 * i, add(i, i));
+      }
+
+      Serializers.INTEGER.write(out, 22);
+      out.flush();
+
+      assertEquals(9, (int) Serializers.INTEGER.read(in));
+      assertEquals(4, (int) Serializers.INTEGER.read(in));
+      assertEquals(42, (int) Serializers.INTEGER.read(in));
+    }
+  }
+
+  @Test
+  public void testLargeFrame() throws IOException {
+
+    // Bigger than the read buffer so the frame arrives over many reads.
+    final int count = 10000;
+
+    try (final Connection connection = client.connect()) {
+      Serializers.INTEGER.write(connection.out(), 1);
+      Serializers.INTEGER.write(connection.out(), 2);
+      for (int i = 0; i < count; i++) {
+        Serializers.INTEGER.write(connection.out(), i);
+      }
+      assertEquals(3, (int) Serializers.INTEGER.read(connection.in()));
+    }
+  }
+
+  @Test
+  public void testFullReadyQueueResumes() throws Exception {
+
+    final int requests = 16;
+
+    try (final SelectorConnectionSource small = SelectorConnectionSource.forPort(0, 2, 10000);
+         final ConnectionSource smallClient = ClientConnectionSource.multiplexed("localhost", small.port())) {
+
+      final CountDownLatch done = new CountDownLatch(requests);
+      final Collection<Throwable> errors = new ArrayList<>();
+
+      for (int i = 0; i < requests; i++) {
+        final int value = i;
+        new Thread() {
+          @Override
+          public void run() {
+            try (final Connection connection = smallClient.connect()) {
+              Serializers.INTEGER.write(connection.out(), value);
+              Serializers.INTEGER.write(connection.out(), value);
+              assertEquals(2 * value, (int) Serializers.INTEGER.read(connection.in()));
+            } catch (Throwable ex) {
+              synchronized (errors) {
+                errors.add(ex);
+              }
+            }
+            done.countDown();
+          }
+        }.start();
+      }
+
+      // Let the requests pile up so that the selector has to stop reading.
+      Thread.sleep(200);
+
+      for (int i = 0; i < requests; i++) {
+        try (final Connection connection = small.connect()) {
+          final int a = Serializers.INTEGER.read(connection.in());
+          final int b = Serializers.INTEGER.read(connection.in());
+          Serializers.INTEGER.write(connection.out(), a + b);
+        }
+      }
+
+      assertTrue(done.await(5, TimeUnit.SECONDS));
+      assertTrue(errors.toString(), errors.isEmpty());
+    }
+  }
+
+  @Test
+  public void testTricklingClientTimesOut() throws Exception {
+
+    try (final SelectorConnectionSource strict = SelectorConnectionSource.forPort(0, 16, 500);
+         final Socket socket = new Socket("localhost", strict.port())) {
+
+      final OutputStream out = socket.getOutputStream();
+      Serializers.INTEGER.write(out, 5);
+      out.flush();
+
+      final Connection connection = strict.connect();
+      final long start = System.currentTimeMillis();
+
+      // Each byte comes well inside the timeout, but the whole request does
+      // not.
+      final Thread trickle = new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int i = 0; i < 30; i++) {
+              out.write(0);
+              out.flush();
+              Thread.sleep(100);
+            }
+          } catch (IOException | InterruptedException ex) {
+            // The server gave up on us.
+          }
+        }
+      };
+      trickle.setDaemon(true);
+      trickle.start();
+
+      try {
+        while (connection.in().read() >= 0) { }
+        fail("The connection should have timed out");
+      } catch (SocketTimeoutException ex) {
+        // Expected.
+      }
+
+      assertTrue(System.currentTimeMillis() - start < 1500);
+      connection.close();
+    }
+  }
+
+  private int add(int a, int b) throws IOException {
+    try (final Connection connection = client.connect()) {
+      Serializers.INTEGER.write(connection.out(), a);
+      Serializers.INTEGER.write(connection.out(), b);
+      return Serializers.INTEGER.read(connection.in());
+    }
+  }
+}
@@ -0,0 +1,148 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.store;
+
+import java.util.Comparator;
+import java.util.Iterator;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.junit.Before;
+
+public final class ArrayStoreTest {
+
+  private static final Comparator<Integer> COMPARATOR = new Comparator<Integer>() {
+    @Override
+    public int compare(Integer a, Integer b) { return a.compareTo(b); }
+  };
+
+  private ArrayStore<Integer, Integer> store;
+
+  @Before
+  public void doBefore() {
+    store = new ArrayStore<>(COMPARATOR);
+  }
+
+  @Test
+  public void testOrderPingPongOrderInsert() {
+
+    store.insert(0, 0);
+    store.insert(4, 40);
+    store.insert(1, 10);
+    store.insert(3, 30);
+    store.insert(2, 20);
+
+    final int[] order = { 0, 10, 20, 30, 40 };
+    assertOrder(store.all(), order);
+  }
+
+  @Test
+  public void testBeforeAfterRange() {
+    store.insert(0, 0);
+    store.insert(1, 10);
+    store.insert(2, 20);
+    store.insert(3, 30);
+    store.insert(4, 40);
+
+    assertOrder(store.before(2), new int[] { 0, 10, 20 });
+    assertOrder(store.after(2), new int[] { 20, 30, 40 });
+    assertOrder(store.range(1, 3), new int[] { 10, 20, 30 });
+    assertOrder(store.range(3, 1), new int[] { });
+  }
+
+  @Test
+  public void testAtAndFirst() {
+    store.insert(1, 10);
+    store.insert(2, 20);
+    store.insert(2, 21);
+    store.insert(3, 30);
+    store.insert(2, 22);
+
+    assertOrder(store.at(2), new int[] { 20, 21, 22 });
+    assertOrder(store.at(5), new int[] { });
+    assertTrue(store.first(2) == 20);
+    assertNull(store.first(5));
+  }
+
+  @Test
+  public void testSizeAndCount() {
+
+    assertEquals(0, store.size());
+    assertEquals(0, store.count(0, 100));
+
+    for (int i = 0; i < 100; i++) {
+      store.insert(i / 2, i);
+    }
+
+    assertEquals(100, store.size());
+    assertEquals(100, store.count(0, 49));
+    assertEquals(6, store.count(10, 12));
+    assertEquals(2, store.count(7, 7));
+    assertEquals(0, store.count(12, 10));
+    assertEquals(0, store.count(50, 60));
+  }
+
+  @Test
+  public void testLast() {
+
+    for (int i = 0; i < 100; i++) {
+      store.insert(i, i);
+    }
+
+    assertOrder(store.last(3), new int[] { 97, 98, 99 });
+    assertOrder(store.last(0), new int[] { });
+
+    int count = 0;
+    for (final Integer i : store.last(1000)) {
+      assertEquals(count, (int) i);
+      count++;
+    }
+    assertEquals(100, count);
+  }
+
+  @Test
+  public void testIteratorKeepsSnapshot() {
+
+    for (int i = 0; i < 16; i++) {
+      store.insert(2 * i, i);
+    }
+
+    final Iterator<Integer> iterator = store.all().iterator();
+
+    // Both grow the arrays and insert into the middle of them.
+    store.insert(100, 100);
+    store.insert(1, 1000);
+
+    int count = 0;
+    while (iterator.hasNext()) {
+      assertEquals(count, (int) iterator.next());
+      count++;
+    }
+    assertEquals(16, count);
+    assertEquals(18, store.size());
+  }
+
+  private static void assertOrder(Iterable<Integer> actual, int[] expected) {
+
+    int at = 0;
+
+    for (final Integer i : actual) {
+      assertTrue(i == expected[at]);
+      at += 1;
+    }
+
+    assertTrue(at == expected.length);
+  }
+}
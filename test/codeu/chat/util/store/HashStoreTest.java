@@ -0,0 +1,91 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.store;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.junit.Before;
+
+public final class HashStoreTest {
+
+  private HashStore<Integer, Integer> store;
+
+  @Before
+  public void doBefore() {
+    store = new HashStore<>();
+  }
+
+  @Test
+  public void testAllInInsertOrder() {
+
+    store.insert(0, 0);
+    store.insert(4, 40);
+    store.insert(1, 10);
+    store.insert(3, 30);
+    store.insert(2, 20);
+
+    assertOrder(store.all(), new int[] { 0, 40, 10, 30, 20 });
+  }
+
+  @Test
+  public void testAtAndFirst() {
+    store.insert(1, 10);
+    store.insert(2, 20);
+    store.insert(3, 30);
+
+    assertOrder(store.at(2), new int[] { 20 });
+    assertOrder(store.at(5), new int[] { });
+    assertTrue(store.first(2) == 20);
+    assertNull(store.first(5));
+    assertEquals(3, store.keys());
+  }
+
+  @Test
+  public void testDuplicateKeyKeepsFirst() {
+    store.insert(2, 20);
+    store.insert(2, 21);
+
+    assertTrue(store.first(2) == 20);
+    assertOrder(store.at(2), new int[] { 20 });
+    assertOrder(store.all(), new int[] { 20, 21 });
+  }
+
+  @Test
+  public void testLookupAccessor() {
+
+    // Hash stores are only handed out as lookups, which have no range
+    // queries to get wrong.
+    final LookupAccessor<Integer, Integer> lookup = store;
+
+    store.insert(1, 10);
+    store.insert(2, 20);
+
+    assertTrue(lookup.first(1) == 10);
+    assertOrder(lookup.at(2), new int[] { 20 });
+    assertOrder(lookup.all(), new int[] { 10, 20 });
+  }
+
+  private static void assertOrder(Iterable<Integer> actual, int[] expected) {
+
+    int at = 0;
+
+    for (final Integer i : actual) {
+      assertTrue(i == expected[at]);
+      at += 1;
+    }
+
+    assertTrue(at == expected.length);
+  }
+}
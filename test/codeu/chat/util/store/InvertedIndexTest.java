@@ -0,0 +1,114 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.store;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.junit.Before;
+
+public final class InvertedIndexTest {
+
+  private InvertedIndex<String> index;
+
+  @Before
+  public void doBefore() {
+    index = new InvertedIndex<>();
+  }
+
+  @Test
+  public void testTokenize() {
+    assertEquals(Arrays.asList("hello", "world", "it", "s", "2017"),
+                 InvertedIndex.tokenize("  Hello, WORLD! It's 2017..."));
+    assertTrue(InvertedIndex.tokenize("").isEmpty());
+    assertTrue(InvertedIndex.tokenize(null).isEmpty());
+    assertTrue(InvertedIndex.tokenize("?!").isEmpty());
+  }
+
+  @Test
+  public void testFindsEveryMatch() {
+
+    index.add("a", "the cat sat");
+    index.add("b", "the dog sat");
+    index.add("c", "a cat and a dog");
+
+    assertEquals(2, index.search("cat", null, 10).size());
+    assertTrue(index.search("cat", null, 10).containsAll(Arrays.asList("a", "c")));
+    assertTrue(index.search("bird", null, 10).isEmpty());
+    assertTrue(index.search("", null, 10).isEmpty());
+    assertTrue(index.search("cat", null, 0).isEmpty());
+  }
+
+  @Test
+  public void testRanking() {
+
+    index.add("common", "the cat");
+    index.add("both", "the rare");
+    index.add("rare", "rare");
+    index.add("twice", "rare rare words");
+
+    // More of the query's words beats fewer, and a word seen twice beats a
+    // word seen once.
+    final List<String> found = index.search("the rare", null, 10);
+    assertEquals("both", found.get(0));
+    assertEquals(4, found.size());
+
+    assertEquals(Arrays.asList("twice", "rare", "both"), index.search("rare", null, 10));
+  }
+
+  @Test
+  public void testTiesGoToNewest() {
+    for (int i = 0; i < 10; i++) {
+      index.add("v" + i, "same");
+    }
+    assertEquals(Arrays.asList("v9", "v8", "v7"), index.search("same", null, 3));
+  }
+
+  @Test
+  public void testFilter() {
+
+    for (int i = 0; i < 100; i++) {
+      index.add(Integer.toString(i), "word " + (i % 2 == 0 ? "even" : "odd"));
+    }
+
+    final List<String> found = index.search("word", new SearchAccessor.Filter<String>() {
+      @Override
+      public boolean accept(String value) {
+        return Integer.parseInt(value) % 10 == 0;
+      }
+    }, 100);
+
+    assertEquals(Arrays.asList("90", "80", "70", "60", "50", "40", "30", "20", "10", "0"), found);
+  }
+
+  @Test
+  public void testManyDocuments() {
+
+    // Enough documents that the gaps in the postings need more than one byte.
+    for (int i = 0; i < 100000; i++) {
+      index.add(Integer.toString(i), i % 1000 == 0 ? "needle " + i : "hay " + i);
+    }
+
+    final List<String> found = index.search("needle", null, 1000);
+    assertEquals(100, found.size());
+    assertEquals("99000", found.get(0));
+    assertEquals("0", found.get(99));
+
+    assertEquals(Arrays.asList("12345"), index.search("12345", null, 10));
+    assertEquals(100000 + 2, index.terms());
+  }
+}